@@ -1,5 +1,6 @@
 package com.pdfutilities.app;
 
+import com.pdfutilities.app.controller.MainController;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
@@ -16,10 +17,13 @@ import java.io.IOException;
 public class Main extends Application {
 
     private static Scene scene;
+    private MainController mainController;
 
     @Override
     public void start(Stage stage) throws IOException {
-        scene = new Scene(loadFXML("main"), 1200, 800);
+        FXMLLoader mainLoader = new FXMLLoader(Main.class.getResource("/fxml/main.fxml"));
+        scene = new Scene(mainLoader.load(), 1200, 800);
+        mainController = mainLoader.getController();
 
         // Load CSS styles
         scene.getStylesheets().add(getClass().getResource("/css/password-highlight.css").toExternalForm());
@@ -40,6 +44,16 @@ public class Main extends Application {
         stage.show();
     }
 
+    /**
+     * Stop background work when the application exits
+     */
+    @Override
+    public void stop() {
+        if (mainController != null) {
+            mainController.shutdown();
+        }
+    }
+
     /**
      * Load FXML file and return the root Parent node
      * 
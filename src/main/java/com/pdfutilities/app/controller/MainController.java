@@ -2,6 +2,8 @@ package com.pdfutilities.app.controller;
 
 import com.pdfutilities.app.model.FileItem;
 import com.pdfutilities.app.model.SavedPassword;
+import com.pdfutilities.app.service.BasePDFService;
+import com.pdfutilities.app.service.PdfMetadataCache;
 import com.pdfutilities.app.service.PasswordManager;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -150,6 +152,26 @@ public class MainController implements Initializable {
     private ObservableList<FileItem> fileItems = FXCollections.observableArrayList();
     private PasswordManager passwordManager;
 
+    // Background jobs (services never run on the FX thread)
+    private final PDFJobQueue jobQueue = new PDFJobQueue();
+
+    // Encryption probes of newly selected files, one file at a time
+    private final java.util.concurrent.ExecutorService probeExecutor = java.util.concurrent.Executors
+            .newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "pdf-probe");
+                t.setDaemon(true);
+                return t;
+            });
+    private static final String STATUS_CHECKING = "Checking...";
+    private static final String STATUS_ENCRYPTED = "Encrypted";
+    private static final String STATUS_READY = "Ready";
+
+    /**
+     * A batch with a file larger than this share of the heap keeps stream data
+     * in temporary files past the per-document cap
+     */
+    private static final int LARGE_FILE_HEAP_DIVISOR = 8;
+
     // UI state
     @FXML
     private CheckBox showPasswordsCheckBox;
@@ -163,6 +185,14 @@ public class MainController implements Initializable {
     @FXML
     private Button managePasswordsButton;
 
+    /**
+     * Stop the background job queue; called when the application exits
+     */
+    public void shutdown() {
+        jobQueue.shutdown();
+        probeExecutor.shutdownNow();
+    }
+
     @Override
     public void initialize(URL location, ResourceBundle resources) {
         // Initialize table columns
@@ -662,7 +692,8 @@ public class MainController implements Initializable {
                     "Small (Low-Medium Quality)",
                     "Balanced (Medium Quality)",
                     "Balanced+ (Medium-High Quality)",
-                    "Largest (High Quality)"));
+                    "Largest (High Quality)",
+                    "Lossless (Structure Only)"));
             // Default selection strategy:
             // For now, keep "Balanced (Medium Quality)" as default visible selection
             compressionLevelComboBox.getSelectionModel().select("Balanced (Medium Quality)");
@@ -748,20 +779,62 @@ public class MainController implements Initializable {
                 selectFilesButton.getScene().getWindow());
 
         if (selectedFiles != null) {
+            java.util.List<FileItem> added = new java.util.ArrayList<>();
             for (File file : selectedFiles) {
                 FileItem fi = new FileItem(file);
-                boolean enc = com.pdfutilities.app.service.PdfSecurityUtils.isPasswordProtected(file);
-                fi.setEncrypted(enc);
-                if (enc) {
-                    fi.setStatus("Encrypted");
-                }
+                fi.setStatus(STATUS_CHECKING);
                 fileItems.add(fi);
+                added.add(fi);
             }
             showToast("Selected " + selectedFiles.size() + " file(s)", ToastType.SUCCESS);
+            probeEncryption(added);
+        }
+    }
 
-            // Refresh password field highlighting for newly added files
+    /**
+     * Probe the encryption status of newly added files in the background, so
+     * cold probes and saving the metadata cache do not block the FX thread.
+     * Each row is updated as soon as its file has been probed.
+     */
+    private void probeEncryption(java.util.List<FileItem> items) {
+        javafx.concurrent.Task<Void> probe = new javafx.concurrent.Task<>() {
+            @Override
+            protected Void call() {
+                PdfMetadataCache metadataCache = PdfMetadataCache.shared();
+                try {
+                    for (FileItem fi : items) {
+                        if (isCancelled())
+                            break;
+                        boolean enc = metadataCache.isPasswordProtected(fi.getFile());
+                        javafx.application.Platform.runLater(() -> applyEncryptionStatus(fi, enc));
+                    }
+                } finally {
+                    metadataCache.save();
+                }
+                return null;
+            }
+        };
+        probe.setOnFailed(e -> {
+            // Files left unprobed are treated as unencrypted; services still skip
+            // encrypted files without a password when they open them
+            for (FileItem fi : items) {
+                if (STATUS_CHECKING.equals(fi.getStatus())) {
+                    fi.setStatus(STATUS_READY);
+                }
+            }
             refreshPasswordFieldHighlighting();
+        });
+        probeExecutor.execute(probe);
+    }
+
+    private void applyEncryptionStatus(FileItem fi, boolean encrypted) {
+        fi.setEncrypted(encrypted);
+        // A job may already have picked the file up
+        if (STATUS_CHECKING.equals(fi.getStatus())) {
+            fi.setStatus(encrypted ? STATUS_ENCRYPTED : STATUS_READY);
         }
+        // Refresh password field highlighting for the probed file
+        refreshPasswordFieldHighlighting();
     }
 
     /**
@@ -925,20 +998,22 @@ public class MainController implements Initializable {
             com.pdfutilities.app.service.DocxConversionService svc = new com.pdfutilities.app.service.DocxConversionService();
             svc.setFilePasswords(createPasswordMap());
 
-            boolean ok = svc.execute(inputs, outDir);
-            if (ok) {
-                showToast("DOCX created in: " + outDir, ToastType.SUCCESS);
-            } else {
-                int missing = countEncryptedMissingPasswords(inputs);
-                if (missing == inputs.size() && missing > 0) {
-                    showToast("All files failed due to password protection. Enter passwords and retry.",
-                            ToastType.ERROR);
-                } else if (missing > 0) {
-                    showToast("Some files failed due to password protection.", ToastType.WARNING);
+            final String targetDir = outDir;
+            submitJob(svc, inputs, targetDir, "Converting to DOCX...", ok -> {
+                if (ok) {
+                    showToast("DOCX created in: " + targetDir, ToastType.SUCCESS);
                 } else {
-                    showToast("Some files failed to convert. Check logs.", ToastType.ERROR);
+                    int missing = countEncryptedMissingPasswords(inputs);
+                    if (missing == inputs.size() && missing > 0) {
+                        showToast("All files failed due to password protection. Enter passwords and retry.",
+                                ToastType.ERROR);
+                    } else if (missing > 0) {
+                        showToast("Some files failed due to password protection.", ToastType.WARNING);
+                    } else {
+                        showToast("Some files failed to convert. Check logs.", ToastType.ERROR);
+                    }
                 }
-            }
+            });
         } catch (Exception ex) {
             showToast("Conversion failed: " + ex.getMessage(), ToastType.ERROR);
             ex.printStackTrace();
@@ -975,6 +1050,8 @@ public class MainController implements Initializable {
 
         // Determine compression level from UI (default MEDIUM)
         com.pdfutilities.app.service.PDFCompressionService.CompressionLevel level = com.pdfutilities.app.service.PDFCompressionService.CompressionLevel.MEDIUM;
+        // Structural clean-up is lossless, so it always runs alongside image compression
+        com.pdfutilities.app.service.PDFCompressionService.CompressionMode mode = com.pdfutilities.app.service.PDFCompressionService.CompressionMode.IMAGES_AND_STRUCTURE;
 
         if (compressionLevelComboBox != null && compressionLevelComboBox.getValue() != null) {
             String sel = compressionLevelComboBox.getValue();
@@ -988,6 +1065,8 @@ public class MainController implements Initializable {
                 level = com.pdfutilities.app.service.PDFCompressionService.CompressionLevel.MEDIUM_HIGH;
             } else if (sel.startsWith("Largest")) {
                 level = com.pdfutilities.app.service.PDFCompressionService.CompressionLevel.HIGH;
+            } else if (sel.startsWith("Lossless")) {
+                mode = com.pdfutilities.app.service.PDFCompressionService.CompressionMode.STRUCTURE;
             } else {
                 level = com.pdfutilities.app.service.PDFCompressionService.CompressionLevel.MEDIUM;
             }
@@ -997,22 +1076,24 @@ public class MainController implements Initializable {
             java.util.List<File> inputs = fileItems.stream().map(FileItem::getFile).toList();
             com.pdfutilities.app.service.PDFCompressionService svc = new com.pdfutilities.app.service.PDFCompressionService(
                     level);
+            svc.setCompressionMode(mode);
             svc.setFilePasswords(createPasswordMap());
-            showToast("Compressing PDFs...", ToastType.INFO);
-            boolean ok = svc.execute(inputs, outDir);
-            if (ok) {
-                showToast("Compressed PDF(s) saved to: " + outDir, ToastType.SUCCESS);
-            } else {
-                int missing = countEncryptedMissingPasswords(inputs);
-                if (missing == inputs.size() && missing > 0) {
-                    showToast("All files failed due to password protection. Enter passwords and retry.",
-                            ToastType.ERROR);
-                } else if (missing > 0) {
-                    showToast("Some files failed due to password protection.", ToastType.WARNING);
+            final String targetDir = outDir;
+            submitJob(svc, inputs, targetDir, "Compressing PDFs...", ok -> {
+                if (ok) {
+                    showToast("Compressed PDF(s) saved to: " + targetDir, ToastType.SUCCESS);
                 } else {
-                    showToast("Some files failed to compress. Check logs.", ToastType.ERROR);
+                    int missing = countEncryptedMissingPasswords(inputs);
+                    if (missing == inputs.size() && missing > 0) {
+                        showToast("All files failed due to password protection. Enter passwords and retry.",
+                                ToastType.ERROR);
+                    } else if (missing > 0) {
+                        showToast("Some files failed due to password protection.", ToastType.WARNING);
+                    } else {
+                        showToast("Some files failed to compress. Check logs.", ToastType.ERROR);
+                    }
                 }
-            }
+            });
         } catch (Exception ex) {
             showToast("Compression failed: " + ex.getMessage(), ToastType.ERROR);
             ex.printStackTrace();
@@ -1067,21 +1148,23 @@ public class MainController implements Initializable {
 
                 com.pdfutilities.app.service.PDFMergeService svc = new com.pdfutilities.app.service.PDFMergeService();
                 svc.setFilePasswords(createPasswordMap());
-                showToast("Merging PDFs...", ToastType.INFO);
-                boolean ok = svc.execute(inputs, outDir);
-                if (ok) {
-                    showToast("Merged PDF created in: " + outDir, ToastType.SUCCESS);
-                } else {
-                    int missing = countEncryptedMissingPasswords(inputs);
-                    if (missing == inputs.size() && missing > 0) {
-                        showToast("All files failed due to password protection. Enter passwords and retry.",
-                                ToastType.ERROR);
-                    } else if (missing > 0) {
-                        showToast("Some files failed due to password protection.", ToastType.WARNING);
+                final String targetDir = outDir;
+                final java.util.List<File> mergeInputs = inputs;
+                submitJob(svc, mergeInputs, targetDir, "Merging PDFs...", ok -> {
+                    if (ok) {
+                        showToast("Merged PDF created in: " + targetDir, ToastType.SUCCESS);
                     } else {
-                        showToast("Merge failed. Check logs.", ToastType.ERROR);
+                        int missing = countEncryptedMissingPasswords(mergeInputs);
+                        if (missing == mergeInputs.size() && missing > 0) {
+                            showToast("All files failed due to password protection. Enter passwords and retry.",
+                                    ToastType.ERROR);
+                        } else if (missing > 0) {
+                            showToast("Some files failed due to password protection.", ToastType.WARNING);
+                        } else {
+                            showToast("Merge failed. Check logs.", ToastType.ERROR);
+                        }
                     }
-                }
+                });
             } catch (Exception ex) {
                 showToast("Merge failed: " + ex.getMessage(), ToastType.ERROR);
                 ex.printStackTrace();
@@ -1156,23 +1239,30 @@ public class MainController implements Initializable {
                 svc.setSplitMode(com.pdfutilities.app.service.PDFSplitService.SplitMode.EVERY_PAGE);
             }
 
-            showToast("Splitting PDF...", ToastType.INFO);
             java.util.List<File> inputs = fileItems.stream().map(FileItem::getFile).toList();
             svc.setFilePasswords(createPasswordMap());
-            boolean ok = svc.execute(inputs, outDir);
-            if (ok) {
-                showToast("Split complete. Files saved to: " + outDir, ToastType.SUCCESS);
-            } else {
-                int missing = countEncryptedMissingPasswords(inputs);
-                if (missing == inputs.size() && missing > 0) {
-                    showToast("All files failed due to password protection. Enter password(s) and retry.",
-                            ToastType.ERROR);
-                } else if (missing > 0) {
-                    showToast("Some files failed due to password protection.", ToastType.WARNING);
+            // Splitting is dominated by reads and writes
+            svc.setExecutionMode(BasePDFService.ExecutionMode.VIRTUAL_THREADS);
+            // A single document writes its chunks in parallel; batches are file-parallel
+            if (inputs.size() == 1) {
+                svc.setWriteParallelism(BasePDFService.AUTO_PARALLELISM);
+            }
+            final String targetDir = outDir;
+            submitJob(svc, inputs, targetDir, "Splitting PDF...", ok -> {
+                if (ok) {
+                    showToast("Split complete. Files saved to: " + targetDir, ToastType.SUCCESS);
                 } else {
-                    showToast("Split encountered errors. Check logs.", ToastType.ERROR);
+                    int missing = countEncryptedMissingPasswords(inputs);
+                    if (missing == inputs.size() && missing > 0) {
+                        showToast("All files failed due to password protection. Enter password(s) and retry.",
+                                ToastType.ERROR);
+                    } else if (missing > 0) {
+                        showToast("Some files failed due to password protection.", ToastType.WARNING);
+                    } else {
+                        showToast("Split encountered errors. Check logs.", ToastType.ERROR);
+                    }
                 }
-            }
+            });
         } catch (Exception ex) {
             showToast("Split failed: " + ex.getMessage(), ToastType.ERROR);
             ex.printStackTrace();
@@ -1243,35 +1333,43 @@ public class MainController implements Initializable {
             svc.setExtractText(wantText);
             svc.setExtractImages(wantImages);
             svc.setFilePasswords(createPasswordMap());
+            // Extraction is dominated by reads and writes; text layout and image
+            // encoding are capped by the CPU stage pool
+            svc.setExecutionMode(BasePDFService.ExecutionMode.VIRTUAL_THREADS);
 
+            String startMessage;
             if (wantText && wantImages) {
-                showToast("Extracting text and images...", ToastType.INFO);
+                startMessage = "Extracting text and images...";
             } else if (wantImages) {
-                showToast("Extracting images...", ToastType.INFO);
+                startMessage = "Extracting images...";
             } else {
-                showToast("Extracting text...", ToastType.INFO);
+                startMessage = "Extracting text...";
             }
 
-            boolean ok = svc.execute(inputs, outDir);
-            if (ok) {
-                if (wantText && wantImages) {
-                    showToast("Text and images extracted to: " + outDir, ToastType.SUCCESS);
-                } else if (wantImages) {
-                    showToast("Images extracted to: " + outDir, ToastType.SUCCESS);
-                } else {
-                    showToast("Text extracted to: " + outDir, ToastType.SUCCESS);
-                }
-            } else {
-                int missing = countEncryptedMissingPasswords(inputs);
-                if (missing == inputs.size() && missing > 0) {
-                    showToast("All files failed due to password protection. Enter password(s) and retry.",
-                            ToastType.ERROR);
-                } else if (missing > 0) {
-                    showToast("Some files failed due to password protection.", ToastType.WARNING);
+            final String targetDir = outDir;
+            final boolean text = wantText;
+            final boolean images = wantImages;
+            submitJob(svc, inputs, targetDir, startMessage, ok -> {
+                if (ok) {
+                    if (text && images) {
+                        showToast("Text and images extracted to: " + targetDir, ToastType.SUCCESS);
+                    } else if (images) {
+                        showToast("Images extracted to: " + targetDir, ToastType.SUCCESS);
+                    } else {
+                        showToast("Text extracted to: " + targetDir, ToastType.SUCCESS);
+                    }
                 } else {
-                    showToast("Some files failed to extract. Check logs.", ToastType.ERROR);
+                    int missing = countEncryptedMissingPasswords(inputs);
+                    if (missing == inputs.size() && missing > 0) {
+                        showToast("All files failed due to password protection. Enter password(s) and retry.",
+                                ToastType.ERROR);
+                    } else if (missing > 0) {
+                        showToast("Some files failed due to password protection.", ToastType.WARNING);
+                    } else {
+                        showToast("Some files failed to extract. Check logs.", ToastType.ERROR);
+                    }
                 }
-            }
+            });
         } catch (Exception ex) {
             showToast("Extraction failed: " + ex.getMessage(), ToastType.ERROR);
             ex.printStackTrace();
@@ -1335,21 +1433,26 @@ public class MainController implements Initializable {
                 }
             }
             // Image mode selection (if supported by service; default is per-page)
-            showToast("Converting to images...", ToastType.INFO);
-            boolean ok = svc.execute(inputs, outDir);
-            if (ok) {
-                showToast("Images saved to: " + outDir, ToastType.SUCCESS);
-            } else {
-                int missing = countEncryptedMissingPasswords(inputs);
-                if (missing == inputs.size() && missing > 0) {
-                    showToast("All files failed due to password protection. Enter password(s) and retry.",
-                            ToastType.ERROR);
-                } else if (inputs.size() > 1) {
-                    showToast("Some files failed to convert.", ToastType.WARNING);
+            // A single document is rendered page-parallel; batches are file-parallel
+            if (inputs.size() == 1) {
+                svc.setRenderParallelism(BasePDFService.AUTO_PARALLELISM);
+            }
+            final String targetDir = outDir;
+            submitJob(svc, inputs, targetDir, "Converting to images...", ok -> {
+                if (ok) {
+                    showToast("Images saved to: " + targetDir, ToastType.SUCCESS);
                 } else {
-                    showToast("Conversion failed. The file may be password protected.", ToastType.ERROR);
+                    int missing = countEncryptedMissingPasswords(inputs);
+                    if (missing == inputs.size() && missing > 0) {
+                        showToast("All files failed due to password protection. Enter password(s) and retry.",
+                                ToastType.ERROR);
+                    } else if (inputs.size() > 1) {
+                        showToast("Some files failed to convert.", ToastType.WARNING);
+                    } else {
+                        showToast("Conversion failed. The file may be password protected.", ToastType.ERROR);
+                    }
                 }
-            }
+            });
         } catch (Exception ex) {
             showToast("Image conversion failed: " + ex.getMessage(), ToastType.ERROR);
             ex.printStackTrace();
@@ -1436,6 +1539,93 @@ public class MainController implements Initializable {
         return passwords;
     }
 
+    /**
+     * Keep stream data on the heap for ordinary batches; a batch with a file
+     * that is large relative to the heap spills to temporary files, which also
+     * lowers the heap its files are charged for admission
+     */
+    private static BasePDFService.MemoryMode memoryModeFor(java.util.List<File> inputs) {
+        long largest = 0L;
+        for (File f : inputs) {
+            largest = Math.max(largest, f.length());
+        }
+        return largest > Runtime.getRuntime().maxMemory() / LARGE_FILE_HEAP_DIVISOR
+                ? BasePDFService.MemoryMode.MIXED
+                : BasePDFService.MemoryMode.MAIN_MEMORY_ONLY;
+    }
+
+    /**
+     * Queue a configured service for background execution
+     * Progress is streamed into the progress bar and per-row status into the
+     * file table; the completion handler runs on the FX thread
+     */
+    private void submitJob(BasePDFService svc, java.util.List<File> inputs, String outDir, String startMessage,
+            java.util.function.Consumer<Boolean> onComplete) {
+        // Independent files are processed on one worker per core
+        svc.setParallelism(BasePDFService.AUTO_PARALLELISM);
+        svc.setMemoryMode(memoryModeFor(inputs));
+        PDFJob job = new PDFJob(svc, inputs, outDir);
+        job.setFileStatusHandler(this::updateFileStatus);
+        for (File f : inputs) {
+            updateFileStatus(f, PDFJob.STATUS_QUEUED);
+        }
+
+        job.setOnRunning(e -> {
+            if (progressBar != null) {
+                progressBar.progressProperty().bind(job.progressProperty());
+            }
+            showToast(startMessage, ToastType.INFO);
+        });
+        job.setOnSucceeded(e -> {
+            releaseProgressBar();
+            onComplete.accept(Boolean.TRUE.equals(job.getValue()));
+        });
+        job.setOnFailed(e -> {
+            releaseProgressBar();
+            for (File f : job.getInputFiles()) {
+                updateFileStatus(f, PDFJob.STATUS_FAILED);
+            }
+            Throwable ex = job.getException();
+            showToast(svc.getServiceName() + " failed: " + (ex != null ? ex.getMessage() : "unknown error"),
+                    ToastType.ERROR);
+            if (ex != null) {
+                ex.printStackTrace();
+            }
+        });
+
+        int ahead = jobQueue.submit(job);
+        if (ahead > 0) {
+            showToast(svc.getServiceName() + " queued behind " + ahead + " job(s)", ToastType.INFO);
+        }
+    }
+
+    private void releaseProgressBar() {
+        if (progressBar == null)
+            return;
+        progressBar.progressProperty().unbind();
+        progressBar.setProgress(0);
+    }
+
+    /**
+     * Update the status column for the row(s) holding the given file. An
+     * encrypted file without a password that fails is reported as skipped,
+     * since services skip such files rather than process them.
+     */
+    private void updateFileStatus(File file, String status) {
+        boolean changed = false;
+        for (FileItem fi : fileItems) {
+            if (fi.getFile() != null && fi.getFile().equals(file)) {
+                boolean skipped = PDFJob.STATUS_FAILED.equals(status) && fi.isEncrypted()
+                        && (fi.getPassword() == null || fi.getPassword().isBlank());
+                fi.setStatus(skipped ? PDFJob.STATUS_SKIPPED_ENCRYPTED : status);
+                changed = true;
+            }
+        }
+        if (changed && fileTable != null) {
+            fileTable.refresh();
+        }
+    }
+
     // ---------- Toast utilities ----------
 
     private enum ToastType {
@@ -0,0 +1,95 @@
+package com.pdfutilities.app.controller;
+
+import com.pdfutilities.app.service.BasePDFService;
+import com.pdfutilities.app.service.ProgressListener;
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Background task that runs a PDF service off the JavaFX Application Thread
+ * Progress is reported per processed file; per-file status updates are
+ * delivered on the FX thread
+ */
+public class PDFJob extends Task<Boolean> {
+
+    public static final String STATUS_QUEUED = "Queued";
+    public static final String STATUS_PROCESSING = "Processing";
+    public static final String STATUS_DONE = "Done";
+    public static final String STATUS_FAILED = "Failed";
+    public static final String STATUS_SKIPPED_ENCRYPTED = "Skipped (encrypted)";
+
+    private final BasePDFService service;
+    private final List<File> inputFiles;
+    private final String outputDirectory;
+    private volatile BiConsumer<File, String> fileStatusHandler;
+
+    /**
+     * Constructor
+     *
+     * @param service         the configured service to run
+     * @param inputFiles      list of input files
+     * @param outputDirectory output directory for results
+     */
+    public PDFJob(BasePDFService service, List<File> inputFiles, String outputDirectory) {
+        this.service = service;
+        this.inputFiles = List.copyOf(inputFiles);
+        this.outputDirectory = outputDirectory;
+        updateTitle(service.getServiceName());
+    }
+
+    /**
+     * Set a handler that receives per-file status updates on the FX thread
+     *
+     * @param fileStatusHandler handler accepting the file and its new status
+     */
+    public void setFileStatusHandler(BiConsumer<File, String> fileStatusHandler) {
+        this.fileStatusHandler = fileStatusHandler;
+    }
+
+    public List<File> getInputFiles() {
+        return inputFiles;
+    }
+
+    @Override
+    protected Boolean call() {
+        final int total = inputFiles.size();
+        final AtomicInteger completed = new AtomicInteger();
+        updateProgress(0, total);
+        updateMessage(service.getServiceName() + ": starting");
+
+        service.setProgressListener(new ProgressListener() {
+            @Override
+            public void fileStarted(File file) {
+                updateMessage(service.getServiceName() + ": " + file.getName());
+                postStatus(file, STATUS_PROCESSING);
+            }
+
+            @Override
+            public void fileFinished(File file, boolean success) {
+                updateProgress(completed.incrementAndGet(), total);
+                postStatus(file, success ? STATUS_DONE : STATUS_FAILED);
+            }
+        });
+        try {
+            return service.execute(inputFiles, outputDirectory);
+        } finally {
+            service.setProgressListener(null);
+            if (service.getMetadataCache() != null) {
+                service.getMetadataCache().save();
+            }
+            updateProgress(total, total);
+        }
+    }
+
+    private void postStatus(File file, String status) {
+        BiConsumer<File, String> handler = fileStatusHandler;
+        if (handler != null) {
+            Platform.runLater(() -> handler.accept(file, status));
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.pdfutilities.app.controller;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * FIFO queue that runs PDF jobs one after another on a background thread
+ * Jobs submitted while another job is running wait their turn
+ */
+public class PDFJobQueue {
+
+    private final ExecutorService executor;
+    private final AtomicInteger pendingJobs = new AtomicInteger();
+
+    public PDFJobQueue() {
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "pdf-job-worker");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Queue a job for execution
+     *
+     * @param job the job to run
+     * @return number of jobs queued or running ahead of this one
+     */
+    public int submit(PDFJob job) {
+        int ahead = pendingJobs.getAndIncrement();
+        executor.execute(() -> {
+            try {
+                job.run();
+            } finally {
+                pendingJobs.decrementAndGet();
+            }
+        });
+        return ahead;
+    }
+
+    /**
+     * Get the number of jobs that are queued or running
+     *
+     * @return pending job count
+     */
+    public int getPendingJobCount() {
+        return pendingJobs.get();
+    }
+
+    /**
+     * Stop accepting jobs and interrupt the running one
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
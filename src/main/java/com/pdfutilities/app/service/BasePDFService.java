@@ -1,9 +1,22 @@
 package com.pdfutilities.app.service;
 
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccessStreamCache.StreamCacheCreateFunction;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.encryption.InvalidPasswordException;
+
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Abstract base class for PDF service implementations
@@ -11,9 +24,97 @@ import java.util.HashMap;
  */
 public abstract class BasePDFService implements PDFService {
 
+    /**
+     * Parallelism value meaning "one worker per available processor"
+     */
+    public static final int AUTO_PARALLELISM = 0;
+
+    /**
+     * Work performed for a single input file
+     */
+    @FunctionalInterface
+    protected interface FileOperation {
+        /**
+         * Process one file
+         * 
+         * @param file the input file
+         * @return true if the file was processed successfully
+         * @throws Exception on unexpected errors (counted as failure)
+         */
+        boolean process(File file) throws Exception;
+    }
+
+    /**
+     * A CPU-bound stage of per-file work (rendering, image encoding, text layout)
+     */
+    @FunctionalInterface
+    protected interface CpuTask<T> {
+        T call() throws IOException;
+    }
+
+    /**
+     * How per-file work is scheduled
+     */
+    public enum ExecutionMode {
+        /**
+         * Bounded pool of platform threads sized by the configured parallelism
+         */
+        PLATFORM_THREADS,
+        /**
+         * One virtual thread per file for I/O-bound batches; CPU-bound stages run on
+         * a shared platform pool capped at the number of processors
+         */
+        VIRTUAL_THREADS
+    }
+
+    /**
+     * Where PDFBox keeps stream data of loaded and newly created documents
+     */
+    public enum MemoryMode {
+        /**
+         * Keep all stream data on the heap (PDFBox default)
+         */
+        MAIN_MEMORY_ONLY,
+        /**
+         * Buffer all stream data in temporary files
+         */
+        TEMP_FILE_ONLY,
+        /**
+         * Use the heap up to a byte cap, then spill to temporary files
+         */
+        MIXED
+    }
+
+    /**
+     * Default heap cap per document for {@link MemoryMode#MIXED}
+     */
+    public static final long DEFAULT_MAX_MAIN_MEMORY_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Shared platform pool for CPU-bound stages started from virtual threads
+     */
+    private static final class CpuPoolHolder {
+        private static final AtomicInteger THREAD_INDEX = new AtomicInteger();
+        private static final ExecutorService POOL = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(), r -> {
+                    Thread t = new Thread(r, "pdf-cpu-" + THREAD_INDEX.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
     protected String serviceName;
     protected String description;
     protected Map<File, String> filePasswords = new HashMap<>();
+    protected ProgressListener progressListener;
+    protected int parallelism = 1;
+    protected ExecutionMode executionMode = ExecutionMode.PLATFORM_THREADS;
+    protected MemoryAdmissionController admissionController = MemoryAdmissionController.shared();
+    protected PdfMetadataCache metadataCache;
+    private boolean metadataCacheSet;
+    protected MemoryMode memoryMode = MemoryMode.MAIN_MEMORY_ONLY;
+    protected long maxMainMemoryBytes = DEFAULT_MAX_MAIN_MEMORY_BYTES;
+    protected File tempDirectory;
 
     /**
      * Constructor
@@ -141,4 +242,480 @@ public abstract class BasePDFService implements PDFService {
         String password = filePasswords.get(file);
         return password != null && !password.trim().isEmpty();
     }
+
+    /**
+     * Open a PDF exactly once for processing, using the stored password if any.
+     * Encryption status is taken from the same parse, so callers do not need a
+     * separate password-protection check. Security is marked for removal on
+     * encrypted documents so outputs are written unprotected.
+     * 
+     * @param pdfFile the PDF file
+     * @return the open document (caller closes it), or null if the file is
+     *         encrypted and no password was provided
+     * @throws IOException if the file cannot be parsed or the password is wrong
+     */
+    protected PDDocument openDocument(File pdfFile) throws IOException {
+        String password = getPassword(pdfFile);
+        boolean passwordProvided = password != null && !password.trim().isEmpty();
+
+        PDDocument document;
+        try {
+            document = loadDocument(pdfFile, password);
+        } catch (InvalidPasswordException e) {
+            if (passwordProvided) {
+                throw e;
+            }
+            return skipEncrypted(pdfFile);
+        }
+
+        if (document.isEncrypted() && !passwordProvided) {
+            // Opened with the empty user password; still skipped without one
+            document.close();
+            return skipEncrypted(pdfFile);
+        }
+        PdfMetadataCache cache = metadataCache();
+        if (cache != null) {
+            cache.recordDocument(pdfFile, document);
+        }
+        if (document.isEncrypted()) {
+            // Remove encryption dictionary from anything saved from this document
+            document.setAllSecurityToBeRemoved(true);
+        }
+        return document;
+    }
+
+    /**
+     * Report an encrypted file skipped for lack of a password and remember it
+     * as encrypted
+     *
+     * @return null, the result of {@link #openDocument(File)} for skipped files
+     */
+    private PDDocument skipEncrypted(File pdfFile) {
+        System.err.println("Skipping encrypted file " + pdfFile.getName() + " - no password provided");
+        PdfMetadataCache cache = metadataCache();
+        if (cache != null) {
+            cache.recordEncrypted(pdfFile);
+        }
+        return null;
+    }
+
+    /**
+     * Load a PDF using the configured memory mode. Unlike
+     * {@link #openDocument(File)} no encryption handling is applied.
+     * 
+     * @param pdfFile  the PDF file
+     * @param password the password, or null/empty for none
+     * @return the loaded document (caller closes it)
+     * @throws IOException if the file cannot be parsed or the password is wrong
+     */
+    protected PDDocument loadDocument(File pdfFile, String password) throws IOException {
+        String pwd = password != null && !password.trim().isEmpty() ? password : "";
+        return Loader.loadPDF(pdfFile, pwd, streamCacheFunction());
+    }
+
+    /**
+     * Create an empty document that buffers its streams according to the
+     * configured memory mode
+     * 
+     * @return the new document (caller closes it)
+     */
+    protected PDDocument newDocument() {
+        return new PDDocument(streamCacheFunction());
+    }
+
+    /**
+     * Get the stream cache factory for the configured memory mode, for use with
+     * PDFBox utilities such as Splitter and PDFMergerUtility
+     * 
+     * @return the stream cache factory
+     */
+    protected StreamCacheCreateFunction streamCacheFunction() {
+        MemoryUsageSetting setting = switch (memoryMode) {
+            case TEMP_FILE_ONLY -> MemoryUsageSetting.setupTempFileOnly();
+            case MIXED -> MemoryUsageSetting.setupMixed(maxMainMemoryBytes);
+            default -> MemoryUsageSetting.setupMainMemoryOnly();
+        };
+        if (tempDirectory != null && memoryMode != MemoryMode.MAIN_MEMORY_ONLY) {
+            setting.setTempDir(tempDirectory);
+        }
+        return setting.streamCache;
+    }
+
+    /**
+     * Set where document stream data is kept while loading, editing and saving
+     * 
+     * @param memoryMode the memory mode
+     */
+    public void setMemoryMode(MemoryMode memoryMode) {
+        this.memoryMode = memoryMode != null ? memoryMode : MemoryMode.MAIN_MEMORY_ONLY;
+    }
+
+    public MemoryMode getMemoryMode() {
+        return memoryMode;
+    }
+
+    /**
+     * Stream data a document keeps on the heap in the configured memory mode,
+     * for the admission estimate
+     *
+     * @return bytes, or {@link Long#MAX_VALUE} when nothing is spilled to disk
+     */
+    protected long heapStreamBytes() {
+        return switch (memoryMode) {
+            case TEMP_FILE_ONLY -> 0L;
+            case MIXED -> maxMainMemoryBytes;
+            default -> Long.MAX_VALUE;
+        };
+    }
+
+    /**
+     * Set the per-document heap cap used by {@link MemoryMode#MIXED}
+     * 
+     * @param maxMainMemoryBytes bytes kept on the heap before spilling to disk
+     */
+    public void setMaxMainMemoryBytes(long maxMainMemoryBytes) {
+        this.maxMainMemoryBytes = Math.max(0L, maxMainMemoryBytes);
+    }
+
+    public long getMaxMainMemoryBytes() {
+        return maxMainMemoryBytes;
+    }
+
+    /**
+     * Set the directory for stream cache temp files
+     * 
+     * @param tempDirectory the directory, or null for the system temp directory
+     */
+    public void setTempDirectory(File tempDirectory) {
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Check whether a file is password protected, consulting the metadata cache
+     * before probing the file
+     * 
+     * @param pdfFile the PDF file
+     * @return true if the file is encrypted
+     */
+    protected boolean isPasswordProtected(File pdfFile) {
+        PdfMetadataCache cache = metadataCache();
+        return cache != null ? cache.isPasswordProtected(pdfFile) : PdfSecurityUtils.isPasswordProtected(pdfFile);
+    }
+
+    /**
+     * Set the cache that records encryption status, page count and metadata of
+     * opened files
+     * 
+     * @param metadataCache the cache, or null to disable recording
+     */
+    public void setMetadataCache(PdfMetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+        this.metadataCacheSet = true;
+    }
+
+    public PdfMetadataCache getMetadataCache() {
+        return metadataCache();
+    }
+
+    /**
+     * The configured cache. Unless one was set, this is the shared cache,
+     * which is only loaded when a service first needs it.
+     */
+    protected PdfMetadataCache metadataCache() {
+        if (!metadataCacheSet) {
+            metadataCache = PdfMetadataCache.shared();
+            metadataCacheSet = true;
+        }
+        return metadataCache;
+    }
+
+    /**
+     * Set a listener to be notified about per-file progress
+     * 
+     * @param progressListener the listener, or null to disable notifications
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Notify the progress listener that a file is being processed
+     * 
+     * @param file the file
+     */
+    protected void notifyFileStarted(File file) {
+        if (progressListener != null) {
+            progressListener.fileStarted(file);
+        }
+    }
+
+    /**
+     * Notify the progress listener that a file has been processed
+     * 
+     * @param file    the file
+     * @param success true if the file was processed successfully
+     */
+    protected void notifyFileFinished(File file, boolean success) {
+        if (progressListener != null) {
+            progressListener.fileFinished(file, success);
+        }
+    }
+
+    /**
+     * Set how many input files may be processed concurrently
+     * 
+     * @param parallelism number of worker threads; 1 processes files
+     *                    sequentially, {@link #AUTO_PARALLELISM} (or any value
+     *                    below 1) uses one worker per available processor
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Choose between a bounded platform pool and virtual-thread-per-file
+     * execution
+     * 
+     * @param executionMode the execution mode
+     */
+    public void setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode != null ? executionMode : ExecutionMode.PLATFORM_THREADS;
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * Resolve the number of workers to use for a batch
+     * 
+     * @param fileCount number of files in the batch
+     * @return worker count between 1 and fileCount
+     */
+    protected int resolveParallelism(int fileCount) {
+        int workers = parallelism < 1 ? Runtime.getRuntime().availableProcessors() : parallelism;
+        return Math.max(1, Math.min(workers, fileCount));
+    }
+
+    /**
+     * Check whether a batch of the given size processes its files concurrently
+     * 
+     * @param fileCount number of files in the batch
+     * @return true if more than one file may be open at a time
+     */
+    protected boolean runsFilesInParallel(int fileCount) {
+        if (executionMode == ExecutionMode.VIRTUAL_THREADS) {
+            return fileCount > 1;
+        }
+        return resolveParallelism(fileCount) > 1;
+    }
+
+    /**
+     * Number of decoded images one file may hold at once while it is processed,
+     * used for its admission cost. Services that decode images concurrently
+     * within a file override this.
+     * 
+     * @return decoded images in flight per file (1 by default)
+     */
+    protected int decodedImagesPerFile() {
+        return 1;
+    }
+
+    /**
+     * Run an operation for every input file, sequentially or on a bounded worker
+     * pool depending on the configured parallelism. Progress is reported per
+     * file and results are aggregated.
+     * 
+     * @param inputFiles list of input files
+     * @param operation  per-file operation
+     * @return true if every file was processed successfully
+     */
+    protected boolean processFiles(List<File> inputFiles, FileOperation operation) {
+        boolean virtual = executionMode == ExecutionMode.VIRTUAL_THREADS && inputFiles.size() > 1;
+        int workers = resolveParallelism(inputFiles.size());
+        if (!runsFilesInParallel(inputFiles.size())) {
+            boolean allSuccessful = true;
+            for (File file : inputFiles) {
+                if (!processFile(file, operation)) {
+                    allSuccessful = false;
+                }
+            }
+            return allSuccessful;
+        }
+
+        ExecutorService pool;
+        if (virtual) {
+            pool = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("pdf-vworker-", 1).factory());
+        } else {
+            AtomicInteger threadIndex = new AtomicInteger();
+            pool = Executors.newFixedThreadPool(workers, r -> {
+                Thread t = new Thread(r, "pdf-worker-" + threadIndex.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        try {
+            List<Future<Boolean>> results = new ArrayList<>(inputFiles.size());
+            for (File file : inputFiles) {
+                results.add(pool.submit(() -> processFile(file, operation)));
+            }
+
+            boolean allSuccessful = true;
+            for (Future<Boolean> result : results) {
+                try {
+                    if (!result.get()) {
+                        allSuccessful = false;
+                    }
+                } catch (ExecutionException e) {
+                    allSuccessful = false;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return allSuccessful;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Run a CPU-bound stage. On a virtual thread the stage is handed to the
+     * shared platform pool so that at most one stage per processor computes at
+     * a time; on platform threads it runs inline.
+     * 
+     * @param task the stage to run
+     * @return the stage result
+     * @throws IOException if the stage fails or the wait is interrupted
+     */
+    protected <T> T runCpuBound(CpuTask<T> task) throws IOException {
+        if (!Thread.currentThread().isVirtual()) {
+            return task.call();
+        }
+        return awaitCpuBound(submitCpuBound(task));
+    }
+
+    /**
+     * Start a CPU-bound stage on the shared CPU pool without waiting for it. The
+     * task must not touch PDFBox objects that the calling thread keeps using.
+     * 
+     * @param task the CPU-bound work
+     * @return future for the result
+     */
+    protected <T> Future<T> submitCpuBound(CpuTask<T> task) {
+        return CpuPoolHolder.POOL.submit(task::call);
+    }
+
+    /**
+     * Wait for a stage started with {@link #submitCpuBound(CpuTask)}
+     * 
+     * @param future the stage
+     * @return the stage result
+     * @throws IOException if the stage fails or the wait is interrupted
+     */
+    protected static <T> T awaitCpuBound(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for CPU stage", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof RuntimeException re) {
+                throw re;
+            }
+            if (cause instanceof Error err) {
+                throw err;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Set the admission controller that bounds projected heap use of concurrently
+     * loaded documents
+     * 
+     * @param admissionController the controller, or null to admit all work
+     *                            immediately
+     */
+    public void setAdmissionController(MemoryAdmissionController admissionController) {
+        this.admissionController = admissionController;
+    }
+
+    /**
+     * Reserve heap for up to count extra copies of a file opened by worker
+     * threads. The file's own reservation is already held while it is
+     * processed, so this never waits: copies that do not fit are refused and
+     * the caller runs fewer workers.
+     *
+     * @param file  the file the copies are loaded from
+     * @param count number of copies wanted
+     * @return one reservation per admitted copy; pass them to
+     *         {@link #releaseCopies(List)}
+     */
+    protected List<Long> reserveCopies(File file, int count) {
+        List<Long> reservations = new ArrayList<>();
+        if (count <= 0) {
+            return reservations;
+        }
+        long cost = MemoryAdmissionController.estimateCost(file, 1, heapStreamBytes());
+        for (int i = 0; i < count; i++) {
+            long reserved = admissionController == null ? 0L : admissionController.tryAcquire(cost);
+            if (reserved < 0) {
+                break;
+            }
+            reservations.add(reserved);
+        }
+        return reservations;
+    }
+
+    /**
+     * Release reservations made by {@link #reserveCopies(File, int)}
+     */
+    protected void releaseCopies(List<Long> reservations) {
+        if (admissionController != null) {
+            for (long reserved : reservations) {
+                admissionController.release(reserved);
+            }
+        }
+    }
+
+    private boolean processFile(File file, FileOperation operation) {
+        // Wait for heap budget before the file counts as started
+        long reserved = 0L;
+        if (admissionController != null) {
+            try {
+                reserved = admissionController
+                        .acquire(MemoryAdmissionController.estimateCost(file, decodedImagesPerFile(),
+                                heapStreamBytes()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                notifyFileFinished(file, false);
+                return false;
+            }
+        }
+
+        notifyFileStarted(file);
+        boolean success;
+        try {
+            success = operation.process(file);
+        } catch (Exception e) {
+            System.err.println("Error processing " + file.getName() + ": " + e.getMessage());
+            success = false;
+        } finally {
+            if (admissionController != null) {
+                admissionController.release(reserved);
+            }
+        }
+        notifyFileFinished(file, success);
+        return success;
+    }
 }
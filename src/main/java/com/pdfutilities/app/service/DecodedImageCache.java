@@ -0,0 +1,270 @@
+package com.pdfutilities.app.service;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decoded images kept across the passes of one target-size compression, so
+ * every source image is decoded once no matter how many quality/scale
+ * candidates are tried.
+ *
+ * Images stay on the heap up to a byte budget. The budget is shared by all
+ * caches of the process ({@link #defaultBudgetBytes()}), so concurrent
+ * compressions together stay within it; each cache may also have a smaller
+ * limit of its own.
+ *
+ * Least recently used images beyond the budget are spilled to a temporary
+ * file as raw pixel data and reloaded on demand; only the small color and
+ * sample models stay in memory. Images whose layout cannot be spilled are
+ * dropped and decoded again when needed. The most recently added image of a
+ * cache always stays on the heap.
+ *
+ * Not thread-safe; used by the thread that owns the document.
+ */
+final class DecodedImageCache implements Closeable {
+
+    private static final int SPILL_BUFFER_SIZE = 1 << 20;
+
+    private static final long SHARED_BUDGET_BYTES = defaultBudgetBytes();
+    private static final AtomicLong SHARED_HEAP_BYTES = new AtomicLong();
+
+    private final long budgetBytes;
+    private final LinkedHashMap<Object, BufferedImage> inHeap = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Object, SpilledImage> spilled = new HashMap<>();
+    private final Set<Object> skipped = new HashSet<>();
+    private long heapBytes;
+    private Path spillDirectory;
+
+    private record SpilledImage(Path file, ColorModel colorModel, SampleModel sampleModel, boolean intData,
+            int length) {
+    }
+
+    /**
+     * Constructor
+     *
+     * @param budgetBytes heap bytes the images of this cache may occupy, within
+     *                    the shared budget
+     */
+    DecodedImageCache(long budgetBytes) {
+        this.budgetBytes = Math.max(0L, budgetBytes);
+    }
+
+    /**
+     * Get a cached image, reloading it from disk if it was spilled
+     *
+     * @param key source image key
+     * @return the image, or null if not cached
+     */
+    BufferedImage get(Object key) throws IOException {
+        BufferedImage image = inHeap.get(key);
+        if (image != null)
+            return image;
+        SpilledImage spill = spilled.get(key);
+        if (spill == null)
+            return null;
+        image = reload(spill);
+        addToHeap(key, image);
+        return image;
+    }
+
+    /**
+     * Cache a decoded image
+     *
+     * @param key   source image key
+     * @param image decoded image
+     */
+    void put(Object key, BufferedImage image) throws IOException {
+        BufferedImage previous = inHeap.remove(key);
+        if (previous != null)
+            addHeapBytes(-sizeOf(previous));
+        addToHeap(key, image);
+    }
+
+    /**
+     * Remember that an image is not re-encoded (e.g. a tiny icon) so it is not
+     * decoded again
+     */
+    void markSkipped(Object key) {
+        skipped.add(key);
+    }
+
+    boolean isSkipped(Object key) {
+        return skipped.contains(key);
+    }
+
+    /**
+     * Delete spill files
+     */
+    @Override
+    public void close() {
+        inHeap.clear();
+        addHeapBytes(-heapBytes);
+        for (SpilledImage spill : spilled.values()) {
+            try {
+                Files.deleteIfExists(spill.file());
+            } catch (IOException e) {
+                spill.file().toFile().deleteOnExit();
+            }
+        }
+        spilled.clear();
+        if (spillDirectory != null) {
+            try {
+                Files.deleteIfExists(spillDirectory);
+            } catch (IOException e) {
+                spillDirectory.toFile().deleteOnExit();
+            }
+        }
+    }
+
+    private void addToHeap(Object key, BufferedImage image) throws IOException {
+        inHeap.put(key, image);
+        addHeapBytes(sizeOf(image));
+        Iterator<Map.Entry<Object, BufferedImage>> it = inHeap.entrySet().iterator();
+        // Never evict the entry that was just added
+        while ((heapBytes > budgetBytes || SHARED_HEAP_BYTES.get() > SHARED_BUDGET_BYTES) && inHeap.size() > 1) {
+            Map.Entry<Object, BufferedImage> eldest = it.next();
+            BufferedImage evicted = eldest.getValue();
+            if (!spilled.containsKey(eldest.getKey())) {
+                SpilledImage spill = spill(evicted);
+                if (spill != null)
+                    spilled.put(eldest.getKey(), spill);
+            }
+            addHeapBytes(-sizeOf(evicted));
+            it.remove();
+        }
+    }
+
+    private void addHeapBytes(long delta) {
+        heapBytes += delta;
+        SHARED_HEAP_BYTES.addAndGet(delta);
+    }
+
+    /**
+     * Heap bytes currently held by all caches of the process
+     */
+    static long sharedHeapBytes() {
+        return SHARED_HEAP_BYTES.get();
+    }
+
+    private SpilledImage spill(BufferedImage image) throws IOException {
+        WritableRaster raster = image.getRaster();
+        DataBuffer buffer = raster.getDataBuffer();
+        if (raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0
+                || buffer.getNumBanks() != 1 || buffer.getOffset() != 0
+                || !(buffer instanceof DataBufferInt || buffer instanceof DataBufferByte)) {
+            return null; // dropped; decoded again on next use
+        }
+        if (spillDirectory == null) {
+            spillDirectory = Files.createTempDirectory("pdf-decoded-");
+        }
+        Path file = Files.createTempFile(spillDirectory, "img-", ".raw");
+        ByteBuffer chunk = ByteBuffer.allocate(SPILL_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            if (buffer instanceof DataBufferInt ints) {
+                int[] data = ints.getData();
+                IntBuffer view = chunk.asIntBuffer();
+                for (int pos = 0; pos < data.length;) {
+                    int n = Math.min(view.capacity(), data.length - pos);
+                    view.clear();
+                    view.put(data, pos, n);
+                    chunk.clear().limit(n * 4);
+                    writeFully(channel, chunk);
+                    pos += n;
+                }
+                return new SpilledImage(file, image.getColorModel(), raster.getSampleModel(), true, data.length);
+            }
+            byte[] data = ((DataBufferByte) buffer).getData();
+            for (int pos = 0; pos < data.length;) {
+                int n = Math.min(chunk.capacity(), data.length - pos);
+                chunk.clear();
+                chunk.put(data, pos, n).flip();
+                writeFully(channel, chunk);
+                pos += n;
+            }
+            return new SpilledImage(file, image.getColorModel(), raster.getSampleModel(), false, data.length);
+        }
+    }
+
+    private static BufferedImage reload(SpilledImage spill) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(SPILL_BUFFER_SIZE);
+        DataBuffer buffer;
+        try (FileChannel channel = FileChannel.open(spill.file(), StandardOpenOption.READ)) {
+            if (spill.intData()) {
+                int[] data = new int[spill.length()];
+                IntBuffer view = chunk.asIntBuffer();
+                for (int pos = 0; pos < data.length;) {
+                    int n = Math.min(view.capacity(), data.length - pos);
+                    chunk.clear().limit(n * 4);
+                    readFully(channel, chunk);
+                    view.clear();
+                    view.get(data, pos, n);
+                    pos += n;
+                }
+                buffer = new DataBufferInt(data, data.length);
+            } else {
+                byte[] data = new byte[spill.length()];
+                for (int pos = 0; pos < data.length;) {
+                    int n = Math.min(chunk.capacity(), data.length - pos);
+                    chunk.clear().limit(n);
+                    readFully(channel, chunk);
+                    chunk.flip();
+                    chunk.get(data, pos, n);
+                    pos += n;
+                }
+                buffer = new DataBufferByte(data, data.length);
+            }
+        }
+        WritableRaster raster = Raster.createWritableRaster(spill.sampleModel(), buffer, null);
+        ColorModel cm = spill.colorModel();
+        return new BufferedImage(cm, raster, cm.isAlphaPremultiplied(), null);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Unexpected end of spilled image data");
+            }
+        }
+    }
+
+    private static long sizeOf(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType())
+                / 8;
+    }
+
+    /**
+     * Default budget, shared by all caches: an eighth of the maximum heap, at
+     * most 256 MB
+     */
+    static long defaultBudgetBytes() {
+        return Math.min(256L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 8);
+    }
+}
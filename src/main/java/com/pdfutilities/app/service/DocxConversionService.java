@@ -2,7 +2,6 @@ package com.pdfutilities.app.service;
 
 import org.apache.pdfbox.cos.COSName;
 import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDResources;
 import org.apache.pdfbox.pdmodel.graphics.PDXObject;
@@ -33,18 +32,15 @@ public class DocxConversionService extends BasePDFService {
             return false;
         }
 
-        boolean allSuccessful = true;
-
-        for (File pdfFile : inputFiles) {
+        return processFiles(inputFiles, pdfFile -> {
             try {
                 convertPdfToDocx(pdfFile, outputDirectory);
+                return true;
             } catch (Exception e) {
                 System.err.println("Error converting " + pdfFile.getName() + ": " + e.getMessage());
-                allSuccessful = false;
+                return false;
             }
-        }
-
-        return allSuccessful;
+        });
     }
 
     /**
@@ -60,28 +56,19 @@ public class DocxConversionService extends BasePDFService {
         FileOutputStream fos = null;
 
         try {
-            // Load PDF (PDFBox 3.x API) with password if available
-            String password = getPassword(pdfFile);
-
-            // Check if file is encrypted but no password provided
-            if (PdfSecurityUtils.isPasswordProtected(pdfFile) && (password == null || password.trim().isEmpty())) {
-                System.err.println("Skipping encrypted file " + pdfFile.getName() + " - no password provided");
+            // Load PDF once with password if available; encryption status comes from
+            // the same parse
+            pdf = openDocument(pdfFile);
+            if (pdf == null) {
                 throw new IOException("Cannot convert encrypted file without password: " + pdfFile.getName());
             }
 
-            if (password != null && !password.trim().isEmpty()) {
-                pdf = Loader.loadPDF(pdfFile, password);
-                // Remove encryption dictionary for DOCX conversion
-                pdf.setAllSecurityToBeRemoved(true);
-            } else {
-                pdf = Loader.loadPDF(pdfFile);
-            }
-
             // 1) Extract text with preserved line breaks (more editable-friendly)
             PDFTextStripper stripper = new PDFTextStripper();
             stripper.setSortByPosition(true); // helps with reading order
             stripper.setLineSeparator("\n"); // ensure line breaks are explicit
-            String text = stripper.getText(pdf);
+            final PDDocument source = pdf;
+            String text = runCpuBound(() -> stripper.getText(source));
 
             // 2) Create DOCX with some basic styles
             docx = new XWPFDocument();
@@ -187,15 +174,19 @@ public class DocxConversionService extends BasePDFService {
 
                     // Convert PDImageXObject to byte[] (PNG is lossless and widely supported)
                     // PDFBox 2.0.x does not have getImageData(); use getImage() and encode to PNG.
-                    java.awt.image.BufferedImage bimg = image.getImage();
-                    if (bimg == null) {
+                    byte[] pngBytes = runCpuBound(() -> {
+                        java.awt.image.BufferedImage bimg = image.getImage();
+                        if (bimg == null) {
+                            return null;
+                        }
+                        java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
+                        javax.imageio.ImageIO.write(bimg, "png", baos);
+                        baos.flush();
+                        return baos.toByteArray();
+                    });
+                    if (pngBytes == null) {
                         continue;
                     }
-                    java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
-                    javax.imageio.ImageIO.write(bimg, "png", baos);
-                    baos.flush();
-                    byte[] pngBytes = baos.toByteArray();
-                    baos.close();
 
                     // Insert image; scale to a reasonable width (e.g., 6 inches), keep aspect ratio
                     int imgType = XWPFDocument.PICTURE_TYPE_PNG;
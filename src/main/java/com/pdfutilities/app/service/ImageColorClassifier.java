@@ -0,0 +1,225 @@
+package com.pdfutilities.app.service;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+
+/**
+ * Colour class detection for decoded images, so scans can be stored as 1-bit
+ * CCITT or 8-bit gray instead of RGB JPEG
+ *
+ * A sampled luminance histogram (at most {@value #MAX_SAMPLES} pixels) and the
+ * share of chromatic samples decide the class. All methods are thread-safe.
+ */
+final class ImageColorClassifier {
+
+    /**
+     * Colour class of an image
+     */
+    enum ColorClass {
+        /**
+         * Black and white only, e.g. a scanned text page
+         */
+        BILEVEL,
+        /**
+         * Shades of gray without noticeable colour
+         */
+        GRAY,
+        /**
+         * Anything else, including images with transparency
+         */
+        COLOR
+    }
+
+    /**
+     * Result of a classification
+     *
+     * @param colorClass the class
+     * @param threshold  luminance separating black from white (Otsu), used when
+     *                   converting a bilevel image
+     */
+    record Classification(ColorClass colorClass, int threshold) {
+    }
+
+    private static final int MAX_SAMPLES = 1 << 18;
+
+    /**
+     * A sample is chromatic when its channels differ by more than this
+     */
+    private static final int CHROMA_TOLERANCE = 24;
+
+    /**
+     * Share of chromatic samples tolerated in a gray image (scanner fringes)
+     */
+    private static final double MAX_COLOR_SHARE = 0.005;
+
+    /**
+     * Share of mid-tone samples tolerated in a bilevel image (anti-aliased
+     * edges)
+     */
+    private static final double MAX_MIDTONE_SHARE = 0.02;
+    private static final int MIDTONE_LOW = 64;
+    private static final int MIDTONE_HIGH = 191;
+
+    private ImageColorClassifier() {
+    }
+
+    /**
+     * Classify an image from a sampled histogram
+     *
+     * @param image the decoded image
+     * @return the colour class and black/white threshold
+     */
+    static Classification classify(BufferedImage image) {
+        if (image.getColorModel().hasAlpha()) {
+            return new Classification(ColorClass.COLOR, 128);
+        }
+        int w = image.getWidth();
+        int h = image.getHeight();
+        int step = (int) Math.max(1, Math.ceil(Math.sqrt((double) w * h / MAX_SAMPLES)));
+        int[] histogram = new int[256];
+        int[] row = new int[w];
+        long samples = 0;
+        long chromatic = 0;
+        boolean plainGray = isPlainGray(image);
+        byte[] grayData = plainGray ? ((DataBufferByte) image.getRaster().getDataBuffer()).getData() : null;
+
+        for (int y = 0; y < h; y += step) {
+            if (!plainGray) {
+                image.getRGB(0, y, w, 1, row, 0, w);
+            }
+            for (int x = 0; x < w; x += step) {
+                int lum;
+                if (plainGray) {
+                    lum = grayData[y * w + x] & 0xFF;
+                } else {
+                    int rgb = row[x];
+                    int r = (rgb >> 16) & 0xFF, g = (rgb >> 8) & 0xFF, b = rgb & 0xFF;
+                    int max = Math.max(r, Math.max(g, b));
+                    int min = Math.min(r, Math.min(g, b));
+                    if (max - min > CHROMA_TOLERANCE) {
+                        chromatic++;
+                    }
+                    lum = luminance(rgb);
+                }
+                histogram[lum]++;
+                samples++;
+            }
+            // Stop early once the image is clearly colour
+            if (chromatic > samples * MAX_COLOR_SHARE && samples > 1024) {
+                return new Classification(ColorClass.COLOR, 128);
+            }
+        }
+        if (samples == 0 || chromatic > samples * MAX_COLOR_SHARE) {
+            return new Classification(ColorClass.COLOR, 128);
+        }
+
+        long midtones = 0;
+        for (int v = MIDTONE_LOW; v <= MIDTONE_HIGH; v++) {
+            midtones += histogram[v];
+        }
+        ColorClass colorClass = midtones <= samples * MAX_MIDTONE_SHARE ? ColorClass.BILEVEL : ColorClass.GRAY;
+        return new Classification(colorClass, otsuThreshold(histogram, samples));
+    }
+
+    /**
+     * Convert to 8-bit gray; single-band gray images are returned as they are
+     */
+    static BufferedImage toGray(BufferedImage image) {
+        if (isPlainGray(image))
+            return image;
+        int w = image.getWidth();
+        int h = image.getHeight();
+        BufferedImage gray = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] out = ((DataBufferByte) gray.getRaster().getDataBuffer()).getData();
+        int[] row = new int[w];
+        for (int y = 0; y < h; y++) {
+            image.getRGB(0, y, w, 1, row, 0, w);
+            int base = y * w;
+            for (int x = 0; x < w; x++) {
+                out[base + x] = (byte) luminance(row[x]);
+            }
+        }
+        return gray;
+    }
+
+    /**
+     * Convert to a 1-bit TYPE_BYTE_BINARY image (0 = black, 1 = white)
+     *
+     * @param threshold luminance values above it become white
+     */
+    static BufferedImage toBilevel(BufferedImage image, int threshold) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        BufferedImage binary = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_BINARY);
+        byte[] out = ((DataBufferByte) binary.getRaster().getDataBuffer()).getData();
+        int stride = (w + 7) / 8;
+        boolean plainGray = isPlainGray(image);
+        byte[] grayData = plainGray ? ((DataBufferByte) image.getRaster().getDataBuffer()).getData() : null;
+        int[] row = plainGray ? null : new int[w];
+        for (int y = 0; y < h; y++) {
+            if (!plainGray) {
+                image.getRGB(0, y, w, 1, row, 0, w);
+            }
+            int base = y * stride;
+            for (int x = 0; x < w; x++) {
+                int lum = plainGray ? grayData[y * w + x] & 0xFF : luminance(row[x]);
+                if (lum > threshold) {
+                    out[base + (x >> 3)] |= (byte) (0x80 >>> (x & 7));
+                }
+            }
+        }
+        return binary;
+    }
+
+    /**
+     * Threshold maximising the between-class variance of the histogram; the
+     * middle of the gap when several thresholds tie
+     */
+    private static int otsuThreshold(int[] histogram, long total) {
+        double sumAll = 0;
+        for (int v = 0; v < 256; v++) {
+            sumAll += (double) v * histogram[v];
+        }
+        double sumBelow = 0;
+        long countBelow = 0;
+        double bestVariance = -1;
+        int best = 128;
+        int bestEnd = 128;
+        for (int t = 0; t < 255; t++) {
+            countBelow += histogram[t];
+            sumBelow += (double) t * histogram[t];
+            long countAbove = total - countBelow;
+            if (countBelow == 0 || countAbove == 0)
+                continue;
+            double meanBelow = sumBelow / countBelow;
+            double meanAbove = (sumAll - sumBelow) / countAbove;
+            double variance = (double) countBelow * countAbove * (meanBelow - meanAbove) * (meanBelow - meanAbove);
+            if (variance > bestVariance) {
+                bestVariance = variance;
+                best = t;
+                bestEnd = t;
+            } else if (variance == bestVariance) {
+                bestEnd = t; // empty bins between the classes
+            }
+        }
+        return (best + bestEnd) / 2;
+    }
+
+    /**
+     * TYPE_BYTE_GRAY whose data array can be read directly
+     */
+    private static boolean isPlainGray(BufferedImage image) {
+        Raster raster = image.getRaster();
+        return image.getType() == BufferedImage.TYPE_BYTE_GRAY && raster.getSampleModelTranslateX() == 0
+                && raster.getSampleModelTranslateY() == 0 && raster.getDataBuffer().getOffset() == 0
+                && raster.getSampleModel() instanceof ComponentSampleModel csm
+                && csm.getScanlineStride() == image.getWidth();
+    }
+
+    private static int luminance(int rgb) {
+        int r = (rgb >> 16) & 0xFF, g = (rgb >> 8) & 0xFF, b = rgb & 0xFF;
+        return (r * 77 + g * 150 + b * 29) >> 8;
+    }
+}
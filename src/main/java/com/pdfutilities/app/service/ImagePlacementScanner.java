@@ -0,0 +1,94 @@
+package com.pdfutilities.app.service;
+
+import org.apache.pdfbox.contentstream.PDFStreamEngine;
+import org.apache.pdfbox.contentstream.operator.DrawObject;
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.contentstream.operator.state.Concatenate;
+import org.apache.pdfbox.contentstream.operator.state.Restore;
+import org.apache.pdfbox.contentstream.operator.state.Save;
+import org.apache.pdfbox.contentstream.operator.state.SetGraphicsStateParameters;
+import org.apache.pdfbox.contentstream.operator.state.SetMatrix;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotation;
+import org.apache.pdfbox.util.Matrix;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the displayed size of every image XObject drawn by page content
+ * streams, nested forms and annotation appearances
+ *
+ * Only the operators that affect the transformation matrix and the Do
+ * operator are interpreted, so a scan is much cheaper than rendering. An image
+ * drawn several times keeps its largest placement. Images only drawn from
+ * patterns, soft masks or Type 3 glyphs are not reported.
+ */
+final class ImagePlacementScanner extends PDFStreamEngine {
+
+    /**
+     * Largest displayed width and height in points (1/72 inch) per image
+     * stream
+     */
+    private final Map<COSStream, double[]> displaySizes = new IdentityHashMap<>();
+
+    ImagePlacementScanner() {
+        addOperator(new Concatenate(this));
+        addOperator(new SetMatrix(this));
+        addOperator(new Save(this));
+        addOperator(new Restore(this));
+        addOperator(new SetGraphicsStateParameters(this));
+        addOperator(new DrawObject(this));
+    }
+
+    /**
+     * Scan all pages of a document. Pages that fail to parse are skipped.
+     *
+     * @param doc the document
+     * @return largest {width, height} in points per image stream
+     */
+    Map<COSStream, double[]> scan(PDDocument doc) {
+        int pageNumber = 1;
+        for (PDPage page : doc.getPages()) {
+            try {
+                processPage(page);
+                for (PDAnnotation annotation : page.getAnnotations()) {
+                    showAnnotation(annotation);
+                }
+            } catch (IOException e) {
+                System.err.println("Could not read image placement on page " + pageNumber + ": " + e.getMessage());
+            }
+            pageNumber++;
+        }
+        return displaySizes;
+    }
+
+    @Override
+    protected void processOperator(Operator operator, List<COSBase> operands) throws IOException {
+        if ("Do".equals(operator.getName()) && !operands.isEmpty() && operands.get(0) instanceof COSName name) {
+            PDResources resources = getResources();
+            PDXObject xobj = resources != null ? resources.getXObject(name) : null;
+            if (xobj instanceof PDImageXObject image) {
+                // The image occupies the unit square of the current matrix; its
+                // displayed size is the length of the transformed unit vectors,
+                // which stays positive for mirrored, flipped or rotated placements
+                Matrix ctm = getGraphicsState().getCurrentTransformationMatrix();
+                double width = Math.hypot(ctm.getValue(0, 0), ctm.getValue(0, 1));
+                double height = Math.hypot(ctm.getValue(1, 0), ctm.getValue(1, 1));
+                displaySizes.merge(image.getCOSObject(), new double[] { width, height },
+                        (a, b) -> new double[] { Math.max(a[0], b[0]), Math.max(a[1], b[1]) });
+                return;
+            }
+        }
+        super.processOperator(operator, operands);
+    }
+}
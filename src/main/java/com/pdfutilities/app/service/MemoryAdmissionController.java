@@ -0,0 +1,311 @@
+package com.pdfutilities.app.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Heap-aware admission control for concurrent document processing
+ *
+ * Each file gets an estimated heap cost (file size, page count, image count).
+ * Work is only admitted while the sum of admitted costs stays within the
+ * configured budget. Files that do not fit wait in arrival order until running
+ * work releases memory, while smaller files that still fit keep flowing around
+ * them. To keep a large file from starving, the oldest waiting file can be
+ * overtaken at most {@value #MAX_BYPASSES} times; after that, new work waits
+ * until it has been admitted. A single job larger than the whole budget is
+ * admitted alone.
+ */
+public class MemoryAdmissionController {
+
+    /**
+     * Default share of the maximum heap that concurrent jobs may claim
+     */
+    public static final double DEFAULT_HEAP_FRACTION = 0.6;
+
+    // Cost model (bytes)
+    private static final long BASE_COST = 16L * 1024 * 1024;
+    private static final long PER_PAGE_COST = 128L * 1024;
+    private static final long MAX_IMAGE_DECODE_COST = 256L * 1024 * 1024;
+    private static final int IMAGE_EXPANSION_FACTOR = 10; // compressed -> decoded raster
+    private static final int SAMPLE_BYTES = 128 * 1024; // scanned at each end of the file
+
+    /**
+     * Admissions that may overtake the oldest waiting job before everything
+     * else waits for it
+     */
+    static final int MAX_BYPASSES = 8;
+
+    private static final MemoryAdmissionController SHARED = new MemoryAdmissionController(
+            (long) (Runtime.getRuntime().maxMemory() * DEFAULT_HEAP_FRACTION));
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final Deque<Waiter> waiting = new ArrayDeque<>();
+    private long budgetBytes;
+    private long admittedBytes;
+
+    /**
+     * A job blocked in {@link #acquire(long)}
+     */
+    private static final class Waiter {
+        private int bypassed;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param budgetBytes maximum projected heap use of admitted work
+     */
+    public MemoryAdmissionController(long budgetBytes) {
+        this.budgetBytes = Math.max(1L, budgetBytes);
+    }
+
+    /**
+     * Get the JVM-wide controller shared by all services
+     *
+     * @return the shared controller
+     */
+    public static MemoryAdmissionController shared() {
+        return SHARED;
+    }
+
+    /**
+     * Change the memory budget. Waiting jobs are re-evaluated immediately.
+     *
+     * @param budgetBytes maximum projected heap use of admitted work
+     */
+    public void setBudgetBytes(long budgetBytes) {
+        lock.lock();
+        try {
+            this.budgetBytes = Math.max(1L, budgetBytes);
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getBudgetBytes() {
+        lock.lock();
+        try {
+            return budgetBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getAdmittedBytes() {
+        lock.lock();
+        try {
+            return admittedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Block until a job of the given cost fits in the budget, then reserve it
+     *
+     * @param costBytes estimated heap cost of the job
+     * @return the number of bytes reserved; pass it to {@link #release(long)}
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public long acquire(long costBytes) throws InterruptedException {
+        lock.lock();
+        try {
+            Waiter waiter = new Waiter();
+            waiting.addLast(waiter);
+            try {
+                long reserved = Math.max(0L, Math.min(costBytes, budgetBytes));
+                while (!canAdmit(waiter, reserved)) {
+                    released.await();
+                    reserved = Math.max(0L, Math.min(costBytes, budgetBytes));
+                }
+                admit(waiter, reserved);
+                return reserved;
+            } finally {
+                // Admitted or interrupted, another waiter may be able to go now
+                waiting.remove(waiter);
+                released.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reserve a job's cost only if it fits in the budget right now. Unlike
+     * {@link #acquire(long)} this never waits, so a thread that already holds
+     * a reservation can ask for more without deadlocking. Like any job, it is
+     * refused once the oldest waiting job may no longer be overtaken.
+     *
+     * @param costBytes estimated heap cost of the job
+     * @return the number of bytes reserved, or -1 if the cost does not fit
+     */
+    public long tryAcquire(long costBytes) {
+        lock.lock();
+        try {
+            long reserved = Math.max(0L, costBytes);
+            if (admittedBytes + reserved > budgetBytes || !canAdmit(null, reserved)) {
+                return -1L;
+            }
+            admit(null, reserved);
+            return reserved;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Whether a job may be admitted now: it must fit (or run alone), and unless
+     * it is the oldest waiter, the oldest waiter must not have been overtaken
+     * too often already
+     *
+     * @param waiter the waiting job, or null for one that does not wait
+     */
+    private boolean canAdmit(Waiter waiter, long reserved) {
+        if (admittedBytes > 0 && admittedBytes + reserved > budgetBytes)
+            return false;
+        Waiter head = waiting.peekFirst();
+        return head == null || head == waiter || head.bypassed < MAX_BYPASSES;
+    }
+
+    private void admit(Waiter waiter, long reserved) {
+        Waiter head = waiting.peekFirst();
+        if (head != null && head != waiter) {
+            head.bypassed++;
+        }
+        admittedBytes += reserved;
+    }
+
+    /**
+     * Release a reservation made by {@link #acquire(long)} or
+     * {@link #tryAcquire(long)}
+     *
+     * @param reservedBytes value returned by acquire
+     */
+    public void release(long reservedBytes) {
+        lock.lock();
+        try {
+            admittedBytes = Math.max(0L, admittedBytes - reservedBytes);
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Estimate the heap needed to load and process a PDF file whose images are
+     * decoded one at a time
+     *
+     * @param pdfFile the file
+     * @return estimated cost in bytes
+     */
+    public static long estimateCost(File pdfFile) {
+        return estimateCost(pdfFile, 1, Long.MAX_VALUE);
+    }
+
+    /**
+     * Estimate the heap needed to load and process a PDF file
+     * Page and image counts come from a bounded byte scan of the start and end
+     * of the file (object dictionaries inside compressed object streams are not
+     * visible, in which case the estimate relies on the file size alone).
+     *
+     * The document itself is charged twice its file size: once for parsed
+     * objects and once for stream data, which only counts up to what the
+     * stream cache keeps on the heap.
+     *
+     * @param pdfFile         the file
+     * @param decodedImages   number of images held decoded at the same time
+     * @param heapStreamBytes stream data kept on the heap per document before
+     *                        the rest goes to temporary files
+     *                        ({@link Long#MAX_VALUE} when nothing is spilled)
+     * @return estimated cost in bytes
+     */
+    public static long estimateCost(File pdfFile, int decodedImages, long heapStreamBytes) {
+        long fileSize = pdfFile.length();
+        long[] counts = scanPageAndImageCounts(pdfFile);
+        long pages = counts[0];
+        long images = counts[1];
+
+        long streamBytes = Math.min(fileSize, Math.max(0L, heapStreamBytes));
+        long cost = BASE_COST + fileSize + streamBytes + pages * PER_PAGE_COST;
+        if (images > 0) {
+            // Budget for the average image, once per image decoded concurrently
+            long avgImageBytes = fileSize / images;
+            long inFlight = Math.max(1, Math.min(decodedImages, images));
+            cost += inFlight * Math.min(MAX_IMAGE_DECODE_COST, avgImageBytes * IMAGE_EXPANSION_FACTOR);
+        }
+        return cost;
+    }
+
+    /**
+     * Count "/Page" and "/Image" name tokens in the first and last
+     * {@value #SAMPLE_BYTES} bytes of the file, extrapolated to the full file
+     * size.
+     *
+     * @return array of {pageCount, imageCount}
+     */
+    static long[] scanPageAndImageCounts(File pdfFile) {
+        long[] counts = new long[2];
+        long scanned;
+        try (RandomAccessFile raf = new RandomAccessFile(pdfFile, "r")) {
+            long fileSize = raf.length();
+            if (fileSize <= 2L * SAMPLE_BYTES) {
+                scanned = countNames(raf, 0, (int) fileSize, counts);
+            } else {
+                scanned = countNames(raf, 0, SAMPLE_BYTES, counts);
+                scanned += countNames(raf, fileSize - SAMPLE_BYTES, SAMPLE_BYTES, counts);
+            }
+            if (scanned > 0 && fileSize > scanned) {
+                double factor = (double) fileSize / scanned;
+                counts[0] = Math.round(counts[0] * factor);
+                counts[1] = Math.round(counts[1] * factor);
+            }
+        } catch (IOException e) {
+            return new long[] { 0, 0 };
+        }
+        return counts;
+    }
+
+    /**
+     * Add the "/Page" and "/Image" tokens of one region of the file to counts
+     *
+     * @return number of bytes scanned
+     */
+    private static int countNames(RandomAccessFile raf, long offset, int length, long[] counts) throws IOException {
+        byte[] buffer = new byte[length];
+        raf.seek(offset);
+        raf.readFully(buffer);
+        byte[] page = "/Page".getBytes();
+        byte[] image = "/Image".getBytes();
+        int pageMatch = 0;
+        int imageMatch = 0;
+        for (int i = 0; i <= length; i++) {
+            // Past the end acts as a delimiter so a name ending the region counts
+            int b = i < length ? buffer[i] & 0xFF : ' ';
+            // A full match only counts when the name ends here (e.g. not "/Pages")
+            if (pageMatch == page.length) {
+                if (!isNameChar(b))
+                    counts[0]++;
+                pageMatch = 0;
+            }
+            if (imageMatch == image.length) {
+                if (!isNameChar(b))
+                    counts[1]++;
+                imageMatch = 0;
+            }
+            pageMatch = b == page[pageMatch] ? pageMatch + 1 : (b == '/' ? 1 : 0);
+            imageMatch = b == image[imageMatch] ? imageMatch + 1 : (b == '/' ? 1 : 0);
+        }
+        return length;
+    }
+
+    private static boolean isNameChar(int b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9');
+    }
+}
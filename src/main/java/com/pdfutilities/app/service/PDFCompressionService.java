@@ -1,29 +1,66 @@
 package com.pdfutilities.app.service;
 
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
 import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdfwriter.compress.CompressParameters;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDResources;
 import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.CCITTFactory;
 import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
-import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.graphics.pattern.PDTilingPattern;
+import org.apache.pdfbox.pdmodel.graphics.state.PDExtendedGraphicsState;
+import org.apache.pdfbox.pdmodel.graphics.state.PDSoftMask;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotation;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAppearanceDictionary;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAppearanceEntry;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAppearanceStream;
 
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Service for compressing PDF files to reduce file size
  *
- * Approach (works with PDFBox 2.0.x):
- * - Iterate over pages and downscale/re-encode raster images to JPEG at a given
- * quality.
+ * Approach:
+ * - Iterate over pages and re-encode raster images by colour class: black and
+ * white scans as CCITT G4, gray images as gray JPEG, the rest as colour JPEG
+ * at a given quality and scale.
  * - Leave vector graphics/text untouched for quality.
- * - Save incremental copy which may apply object stream compression as per
- * PDFBox defaults.
+ * - Optionally clean up the structure losslessly (see {@link CompressionMode}).
+ * - Save a full copy with object streams and an xref stream.
  */
 public class PDFCompressionService extends BasePDFService {
 
@@ -34,31 +71,86 @@ public class PDFCompressionService extends BasePDFService {
     private long targetSizeBytes = 0L;
 
     /**
-     * Iteration controls for target-size mode
-     * We tune JPEG quality and image scale to approach the target size.
+     * Search controls for target-size mode
+     * JPEG quality and image scale are chosen within these bounds; maxIterations
+     * caps the number of verified encode passes: the predicted one, plus
+     * recalibrated ones while the verified size misses the tolerance.
      */
     private float minJpegQuality = 0.25f;
     private float maxJpegQuality = 0.9f;
     private double minScale = 0.4; // 40% of original
     private double maxScale = 1.0; // 100% (no downscale)
-    private int maxIterations = 6;
+    private int maxIterations = 2;
+
+    /**
+     * Upper bound for maxIterations
+     */
+    private static final int MAX_TARGET_PASSES = 3;
+
+    /**
+     * Number of images encoded at every grid point to fit the size model
+     */
+    private static final int PREDICTOR_SAMPLE_IMAGES = 6;
+
+    /**
+     * Default share of its stored size an image must shrink by to be replaced
+     */
+    public static final double DEFAULT_MIN_IMAGE_GAIN = 0.1;
+
+    /**
+     * Quality -> bits per pixel of typical color JPEG output
+     */
+    private static final double[][] JPEG_BPP_CURVE = {
+            { 0.0, 0.2 }, { 0.25, 0.5 }, { 0.5, 0.85 }, { 0.75, 1.4 }, { 0.9, 2.3 }, { 1.0, 5.0 }
+    };
+    private static final double GRAY_JPEG_FACTOR = 0.6;
+    private static final double OPTIMISTIC_ESTIMATE_FACTOR = 0.5;
+
+    /**
+     * Typical effective resolutions for {@link #setTargetDpi}
+     */
+    public static final int SCREEN_DPI = 150;
+    public static final int PRINT_DPI = 300;
+
+    /**
+     * {@link #setTargetDpi} value that uses the DPI of the compression level
+     */
+    public static final int LEVEL_DPI = -1;
+
+    /**
+     * Targets and sources up to this size evaluate candidates in memory when the
+     * admission controller has room for the buffers; otherwise candidates use
+     * temporary files in the output directory
+     */
+    private static final long IN_MEMORY_CANDIDATE_LIMIT = 64L * 1024 * 1024;
 
     public enum CompressionLevel {
-        VERY_LOW("Tiny (Very Low Quality)", 0.25f, 0.4), // below current LOW
-        LOW("Smallest (Low Quality)", 0.35f, 0.5), // existing LOW
-        LOW_MEDIUM("Small (Low-Medium Quality)", 0.5f, 0.65), // between LOW and MEDIUM
-        MEDIUM("Balanced (Medium Quality)", 0.6f, 0.75), // existing MEDIUM
-        MEDIUM_HIGH("Balanced+ (Medium-High Quality)", 0.7f, 0.9), // between MEDIUM and HIGH
-        HIGH("Largest (High Quality)", 0.8f, 1.0); // existing HIGH
+        VERY_LOW("Tiny (Very Low Quality)", 0.25f, 0.4, 72, // below current LOW
+                ImageResampler.Method.PROGRESSIVE_BILINEAR),
+        LOW("Smallest (Low Quality)", 0.35f, 0.5, 96, // existing LOW
+                ImageResampler.Method.PROGRESSIVE_BILINEAR),
+        LOW_MEDIUM("Small (Low-Medium Quality)", 0.5f, 0.65, 120, // between LOW and MEDIUM
+                ImageResampler.Method.PROGRESSIVE_BILINEAR),
+        MEDIUM("Balanced (Medium Quality)", 0.6f, 0.75, SCREEN_DPI, // existing MEDIUM
+                ImageResampler.Method.AREA_AVERAGE),
+        MEDIUM_HIGH("Balanced+ (Medium-High Quality)", 0.7f, 0.9, 200, // between MEDIUM and HIGH
+                ImageResampler.Method.AREA_AVERAGE),
+        HIGH("Largest (High Quality)", 0.8f, 1.0, PRINT_DPI, // existing HIGH
+                ImageResampler.Method.AREA_AVERAGE);
 
         private final String displayName;
         private final float jpegQuality;
         private final double scale;
+        private final int targetDpi;
+        private final ImageResampler.Method resampler;
 
-        CompressionLevel(String displayName, float jpegQuality, double scale) {
+        CompressionLevel(String displayName, float jpegQuality, double scale, int targetDpi,
+                ImageResampler.Method resampler) {
             this.displayName = displayName;
             this.jpegQuality = jpegQuality;
             this.scale = scale;
+            this.targetDpi = targetDpi;
+            this.resampler = resampler;
         }
 
         public String getDisplayName() {
@@ -69,10 +161,25 @@ public class PDFCompressionService extends BasePDFService {
             return jpegQuality;
         }
 
+        /**
+         * Blind downscale factor, used for images whose placement is unknown or
+         * when placement-aware downsampling is off
+         */
         public double getScale() {
             return scale;
         }
 
+        /**
+         * Effective resolution placed images are downsampled to
+         */
+        public int getTargetDpi() {
+            return targetDpi;
+        }
+
+        public ImageResampler.Method getResampler() {
+            return resampler;
+        }
+
         /**
          * Choose a starting level based on source file size.
          * For KB-sized files: start from LOW and go upwards.
@@ -115,7 +222,78 @@ public class PDFCompressionService extends BasePDFService {
         }
     }
 
+    /**
+     * What a compression run changes
+     */
+    public enum CompressionMode {
+        /**
+         * Re-encode raster images only
+         */
+        IMAGES(true, false),
+        /**
+         * Lossless structural clean-up only: thumbnails, maximum-Flate streams
+         * and, if enabled, page/XObject metadata; images are kept as they are
+         */
+        STRUCTURE(false, true),
+        /**
+         * Both image re-encoding and structural clean-up
+         */
+        IMAGES_AND_STRUCTURE(true, true);
+
+        private final boolean images;
+        private final boolean structure;
+
+        CompressionMode(boolean images, boolean structure) {
+            this.images = images;
+            this.structure = structure;
+        }
+
+        public boolean includesImages() {
+            return images;
+        }
+
+        public boolean includesStructure() {
+            return structure;
+        }
+    }
+
+    /**
+     * Dictionary entries that affect how an image's bytes decode; part of the
+     * content key used to detect duplicate images
+     */
+    private static final COSName[] IMAGE_KEY_ENTRIES = {
+            COSName.WIDTH, COSName.HEIGHT, COSName.BITS_PER_COMPONENT, COSName.COLORSPACE, COSName.FILTER,
+            COSName.DECODE_PARMS, COSName.DECODE, COSName.IMAGE_MASK
+    };
+
+    private static final COSName ALTERNATES = COSName.getPDFName("Alternates");
+
+    /**
+     * Entries that affect where and how an image is shown rather than how it
+     * decodes, or tie it to other structures (the structure tree of tagged
+     * PDFs, alternate images, measurement data); images differing in any of
+     * them are never merged
+     */
+    private static final COSName[] IMAGE_PRESENTATION_ENTRIES = {
+            COSName.OC, COSName.INTENT, COSName.INTERPOLATE, COSName.METADATA, COSName.STRUCT_PARENT, ALTERNATES,
+            COSName.MEASURE
+    };
+
+    /**
+     * Presentation entries a re-encoded image takes over from its source
+     */
+    private static final COSName[] COPIED_PRESENTATION_ENTRIES = {
+            COSName.OC, COSName.INTERPOLATE, COSName.STRUCT_PARENT, ALTERNATES, COSName.MEASURE
+    };
+
     private CompressionLevel compressionLevel = CompressionLevel.MEDIUM;
+    private CompressionMode compressionMode = CompressionMode.IMAGES;
+    private int encodeParallelism = AUTO_PARALLELISM;
+    private int encodeWorkers = 1;
+    private ImageResampler.Method resampler;
+    private double minImageGain = DEFAULT_MIN_IMAGE_GAIN;
+    private int targetDpi = LEVEL_DPI;
+    private boolean removeObjectMetadata;
 
     public PDFCompressionService() {
         super("Compress PDF", "Compress PDF files to reduce file size");
@@ -130,6 +308,75 @@ public class PDFCompressionService extends BasePDFService {
         this.compressionLevel = compressionLevel;
     }
 
+    /**
+     * Choose whether images, the document structure or both are compressed
+     *
+     * @param compressionMode the mode; null restores {@link CompressionMode#IMAGES}
+     */
+    public void setCompressionMode(CompressionMode compressionMode) {
+        this.compressionMode = compressionMode != null ? compressionMode : CompressionMode.IMAGES;
+    }
+
+    public CompressionMode getCompressionMode() {
+        return compressionMode;
+    }
+
+    /**
+     * Let the structural pass also drop page and XObject metadata (/Metadata,
+     * /PieceInfo, e.g. per-image XMP). Off by default; the document-level
+     * metadata is always kept.
+     *
+     * @param removeObjectMetadata true to remove it
+     */
+    public void setRemoveObjectMetadata(boolean removeObjectMetadata) {
+        this.removeObjectMetadata = removeObjectMetadata;
+    }
+
+    public boolean isRemoveObjectMetadata() {
+        return removeObjectMetadata;
+    }
+
+    /**
+     * Set the effective resolution images are downsampled to, based on the size
+     * they are displayed at on the page. Images already at or below it are not
+     * resampled; images whose placement cannot be determined fall back to the
+     * level's scale.
+     *
+     * @param targetDpi dots per inch (e.g. {@link #SCREEN_DPI} or
+     *                  {@link #PRINT_DPI}); {@link #LEVEL_DPI} (default) uses
+     *                  the compression level's DPI in level mode and no limit
+     *                  in target-size mode; 0 turns placement-aware downsampling
+     *                  off
+     */
+    public void setTargetDpi(int targetDpi) {
+        this.targetDpi = Math.max(LEVEL_DPI, targetDpi);
+    }
+
+    public int getTargetDpi() {
+        return targetDpi;
+    }
+
+    /**
+     * Override the image resampler. By default each compression level uses its
+     * own and target-size mode uses area averaging.
+     *
+     * @param resampler the resampler, or null for the defaults
+     */
+    public void setResampler(ImageResampler.Method resampler) {
+        this.resampler = resampler;
+    }
+
+    /**
+     * Set the minimum size reduction for an image to be replaced. Images whose
+     * re-encoded form would not be at least this much smaller are left as they
+     * are.
+     *
+     * @param minImageGain share of the stored image size, e.g. 0.1 for 10%
+     */
+    public void setMinImageGain(double minImageGain) {
+        this.minImageGain = Math.max(0.0, Math.min(minImageGain, 0.9));
+    }
+
     /**
      * Enable or disable target size mode. If bytes > 0, the service will
      * iteratively search compression parameters to meet the target.
@@ -155,7 +402,7 @@ public class PDFCompressionService extends BasePDFService {
         this.maxJpegQuality = Math.max(this.minJpegQuality, Math.min(maxJpegQ, 0.99f));
         this.minScale = Math.max(0.2, Math.min(minScale, 1.0));
         this.maxScale = Math.max(this.minScale, Math.min(maxScale, 1.0));
-        this.maxIterations = Math.max(2, maxIterations);
+        this.maxIterations = Math.max(1, Math.min(maxIterations, MAX_TARGET_PASSES));
     }
 
     @Override
@@ -163,241 +410,1039 @@ public class PDFCompressionService extends BasePDFService {
         if (!validateInputFiles(inputFiles) || !createOutputDirectory(outputDirectory)) {
             return false;
         }
+        // Files processed side by side encode their images one at a time, so
+        // their decoded images do not multiply
+        encodeWorkers = runsFilesInParallel(inputFiles.size()) ? 1
+                : encodeParallelism < 1 ? Runtime.getRuntime().availableProcessors() : encodeParallelism;
 
-        boolean allSuccessful = true;
-
-        for (File pdfFile : inputFiles) {
+        return processFiles(inputFiles, pdfFile -> {
             try {
-                // Check if file is encrypted but no password provided
-                String password = getPassword(pdfFile);
-                if (PdfSecurityUtils.isPasswordProtected(pdfFile) && (password == null || password.trim().isEmpty())) {
-                    System.err.println("Skipping encrypted file " + pdfFile.getName() + " - no password provided");
-                    allSuccessful = false; // Mark as failed since we couldn't process this file
-                    continue;
+                // Open once; encrypted files without a password are skipped
+                PDDocument doc = openDocument(pdfFile);
+                if (doc == null) {
+                    return false; // Mark as failed since we couldn't process this file
                 }
-
-                if (targetSizeBytes > 0L) {
-                    compressToTargetSize(pdfFile, outputDirectory, targetSizeBytes);
-                } else {
-                    // Choose starting level based on file size rule if the caller left default
-                    CompressionLevel start = compressionLevel;
-                    if (start == null)
-                        start = CompressionLevel.MEDIUM;
-                    // If UI didn't override and we want adaptive start:
-                    if (compressionLevel == CompressionLevel.MEDIUM) {
-                        start = CompressionLevel.startForSize(pdfFile.length());
+                try {
+                    long structureSaved = 0L;
+                    if (compressionMode.includesStructure()) {
+                        structureSaved = optimizeStructure(doc, pdfFile);
+                    }
+                    if (!compressionMode.includesImages()) {
+                        if (targetSizeBytes > 0L) {
+                            log("Structure-only mode ignores the target size");
+                        }
+                        File out = new File(outputDirectory, compressedFileName(pdfFile));
+                        doc.save(out, CompressParameters.DEFAULT_COMPRESSION);
+                        keepSourceIfNotSmaller(doc, pdfFile, out);
+                        System.out.println("Compressed: " + pdfFile.getName() + " -> " + out.getName());
+                    } else if (targetSizeBytes > 0L) {
+                        compressToTargetSize(doc, pdfFile, outputDirectory, targetSizeBytes, structureSaved);
+                    } else {
+                        // Choose starting level based on file size rule if the caller left default
+                        CompressionLevel start = compressionLevel;
+                        if (start == null)
+                            start = CompressionLevel.MEDIUM;
+                        // If UI didn't override and we want adaptive start:
+                        if (compressionLevel == CompressionLevel.MEDIUM) {
+                            start = CompressionLevel.startForSize(pdfFile.length());
+                        }
+                        // Try from start and go upwards until success (here one pass equals success)
+                        // We still write only one output; the first attempt is used.
+                        compressPdf(doc, pdfFile, outputDirectory, start);
                     }
-                    // Try from start and go upwards until success (here one pass equals success)
-                    // We still write only one output; the first attempt is used.
-                    compressPdf(pdfFile, outputDirectory, start);
+                } finally {
+                    doc.close();
                 }
+                return true;
             } catch (Exception e) {
                 System.err.println("Error compressing " + pdfFile.getName() + ": " + e.getMessage());
-                allSuccessful = false;
+                return false;
             }
+        });
+    }
+
+    /**
+     * Run the lossless structural pass on the open document
+     *
+     * @return stored bytes saved by stream recompression
+     */
+    private long optimizeStructure(PDDocument doc, File pdfFile) throws IOException {
+        PdfStructureOptimizer.Result result = PdfStructureOptimizer.optimize(doc, removeObjectMetadata);
+        System.out.println("Structure of " + pdfFile.getName() + ": removed " + result.thumbnailsRemoved()
+                + " thumbnail(s) and " + result.metadataRemoved() + " metadata entries, recompressed "
+                + result.streamsRecompressed() + " stream(s) saving " + (result.bytesSaved() / 1024) + " KB");
+        return result.bytesSaved();
+    }
+
+    private void compressPdf(PDDocument doc, File pdfFile, String outputDirectory, CompressionLevel level)
+            throws IOException {
+        // Downscale/convert raster images to JPEG, once per unique image
+        List<ImageSlot> slots = collectImageSlots(doc);
+        ImageResampler.Method method = resampler != null ? resampler : level.getResampler();
+        int dpi = targetDpi == LEVEL_DPI ? level.getTargetDpi() : targetDpi;
+        EncodeParams params;
+        if (dpi > 0) {
+            // Scale follows placement; the level's ratio only covers unplaced images
+            params = new EncodeParams(level.getJpegQuality(), 1.0, method,
+                    placementScales(doc, slots, dpi, level.getScale()));
+        } else {
+            params = new EncodeParams(level.getJpegQuality(), level.getScale(), method);
+        }
+        int replaced = reencodeSlots(doc, slots, params, null).replaced();
+        System.out.println("Replaced " + replaced + " of " + slots.size() + " image reference(s)");
+
+        // Save to destination (security was already marked for removal on open)
+        File out = new File(outputDirectory, compressedFileName(pdfFile));
+        doc.save(out, CompressParameters.DEFAULT_COMPRESSION);
+        keepSourceIfNotSmaller(doc, pdfFile, out);
+        System.out.println("Compressed: " + pdfFile.getName() + " -> " + out.getName());
+    }
+
+    /**
+     * Replace an output that is not smaller than its source with a copy of the
+     * source. Encrypted sources are never copied: their output is the
+     * decrypted document.
+     */
+    private static void keepSourceIfNotSmaller(PDDocument doc, File pdfFile, File out) throws IOException {
+        if (doc.isEncrypted() || out.length() < pdfFile.length())
+            return;
+        java.nio.file.Files.copy(pdfFile.toPath(), out.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("No size gain for " + pdfFile.getName() + "; kept the original");
+    }
+
+    /**
+     * Scale per image that brings it to the target effective resolution at its
+     * largest placement. Scales never exceed 1; images are not upsampled.
+     *
+     * @param fallback scale for images whose placement is unknown
+     * @return scale per image key
+     */
+    private Map<Object, Double> placementScales(PDDocument doc, List<ImageSlot> slots, int dpi, double fallback) {
+        Map<COSStream, double[]> sizes = new ImagePlacementScanner().scan(doc);
+        Map<Object, Double> scales = new HashMap<>();
+        int placed = 0;
+        int unplaced = 0;
+        for (ImageSlot slot : slots) {
+            PDImageXObject img = slot.original();
+            double[] size = sizes.get(img.getCOSObject());
+            if (size == null || size[0] <= 0 || size[1] <= 0) {
+                unplaced++;
+                continue;
+            }
+            // Keep the axis that needs more pixels, so neither drops below the target
+            double sx = dpi * size[0] / 72.0 / img.getWidth();
+            double sy = dpi * size[1] / 72.0 / img.getHeight();
+            scales.merge(slot.key(), Math.min(1.0, Math.max(sx, sy)), Math::max);
+            placed++;
+        }
+        for (ImageSlot slot : slots) {
+            scales.putIfAbsent(slot.key(), fallback);
         }
+        long downsampled = scales.values().stream().filter(s -> s < 1.0).count();
+        System.out.println("Placement at " + dpi + " DPI: " + placed + " image reference(s) placed, " + unplaced
+                + " without placement, " + downsampled + " unique image(s) above target");
+        return scales;
+    }
 
-        return allSuccessful;
+    private String compressedFileName(File pdfFile) {
+        return pdfFile.getName().replaceAll("(?i)\\.pdf$", "") + "_compressed.pdf";
     }
 
-    private void compressPdf(File pdfFile, String outputDirectory, CompressionLevel level) throws IOException {
-        String password = getPassword(pdfFile);
+    /**
+     * Decode an image for re-encoding. Called by the thread that owns the
+     * document, which hands the decode to the CPU stage and blocks until it is
+     * done, so PDFBox streams are still never read concurrently.
+     *
+     * @return the decoded image, or null if the image should be left as is
+     *         (undecodable, or a tiny icon kept for clarity)
+     */
+    private BufferedImage decodeForReencode(PDImageXObject img) throws IOException {
+        return runCpuBound(() -> {
+            BufferedImage bimg = img.getImage();
+            if (bimg == null)
+                return null;
+
+            // Optional: skip tiny images (icons) to preserve clarity
+            if (bimg.getWidth() < 64 || bimg.getHeight() < 64)
+                return null;
+            return bimg;
+        });
+    }
 
-        PDDocument doc;
-        if (password != null && !password.trim().isEmpty()) {
-            doc = Loader.loadPDF(pdfFile, password);
+    /**
+     * Decode an image through the cache of a target-size run, so each source
+     * image is decoded only once across passes
+     *
+     * @param cache the cache, or null to always decode
+     */
+    private BufferedImage decodeCached(ImageSlot slot, DecodedImageCache cache) throws IOException {
+        if (cache == null)
+            return decodeForReencode(slot.original());
+        if (cache.isSkipped(slot.key()))
+            return null;
+        BufferedImage cached = cache.get(slot.key());
+        if (cached != null)
+            return cached;
+        BufferedImage decoded = decodeForReencode(slot.original());
+        if (decoded == null) {
+            cache.markSkipped(slot.key());
         } else {
-            doc = Loader.loadPDF(pdfFile);
+            cache.put(slot.key(), decoded);
+        }
+        return decoded;
+    }
+
+    /**
+     * Parameters of one re-encoding pass
+     *
+     * @param maxScales per-image upper bound on the scale, keyed like
+     *                  {@link ImageSlot#key()}; images without an entry use
+     *                  scale as is
+     */
+    private record EncodeParams(float jpegQuality, double scale, ImageResampler.Method resampler,
+            Map<Object, Double> maxScales) {
+
+        EncodeParams(float jpegQuality, double scale, ImageResampler.Method resampler) {
+            this(jpegQuality, scale, resampler, Map.of());
+        }
+
+        /**
+         * Parameters for one image, with its scale bound applied
+         */
+        EncodeParams forImage(Object key) {
+            Double max = maxScales.get(key);
+            if (max == null || max >= scale)
+                return this;
+            return new EncodeParams(jpegQuality, max, resampler, Map.of());
+        }
+
+        /**
+         * Downscale a decoded image. Does not touch the document, so it is safe to
+         * run on any thread.
+         */
+        BufferedImage scale(BufferedImage image) {
+            return ImageResampler.scale(image, scale, resampler);
         }
-        try (FileInputStream fis = new FileInputStream(pdfFile)) {
+    }
+
+    /**
+     * Re-encoded form of one image, produced off the owning thread: JPEG bytes,
+     * or a 1-bit image that still has to be CCITT encoded into the document
+     */
+    private record EncodedImage(byte[] jpeg, BufferedImage bilevel) {
+        PDImageXObject toImageXObject(PDDocument doc) throws IOException {
+            return bilevel != null ? CCITTFactory.createFromImage(doc, bilevel)
+                    : JPEGFactory.createFromByteArray(doc, jpeg);
+        }
+    }
 
-            // Iterate all pages and downscale/convert raster images to JPEG
-            for (PDPage page : doc.getPages()) {
-                PDResources resources = page.getResources();
-                if (resources == null)
+    /**
+     * Classify an opaque image and encode it for its colour class. Bilevel
+     * images keep their resolution: G4 size follows edges rather than pixel
+     * count, and downscaled 1-bit text loses legibility first. Does not touch
+     * the document, so it is safe to run on any thread.
+     */
+    private static EncodedImage encodeImage(BufferedImage decoded, EncodeParams params) throws IOException {
+        ImageColorClassifier.Classification cls = ImageColorClassifier.classify(decoded);
+        switch (cls.colorClass()) {
+            case BILEVEL:
+                return new EncodedImage(null, ImageColorClassifier.toBilevel(decoded, cls.threshold()));
+            case GRAY:
+                return new EncodedImage(encodeJpeg(params.scale(ImageColorClassifier.toGray(decoded)),
+                        params.jpegQuality()), null);
+            case COLOR:
+            default:
+                return new EncodedImage(encodeJpeg(params.scale(decoded), params.jpegQuality()), null);
+        }
+    }
+
+    /**
+     * Encode an opaque image as baseline JPEG bytes. Does not touch the
+     * document, so it is safe to run on any thread.
+     */
+    private static byte[] encodeJpeg(BufferedImage image, float jpegQuality) throws IOException {
+        BufferedImage source = image;
+        int type = image.getType();
+        if (type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_3BYTE_BGR
+                && type != BufferedImage.TYPE_BYTE_GRAY) {
+            source = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+            java.awt.Graphics2D g2 = source.createGraphics();
+            g2.drawImage(image, 0, 0, null);
+            g2.dispose();
+        }
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(bytes)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(source, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Set how many images are resampled and encoded concurrently during
+     * compression. Work runs on the shared CPU pool; decoding and writing results
+     * back into the document stay on the thread that owns the document. Only
+     * applies while files are processed one at a time; parallel files each
+     * encode sequentially.
+     *
+     * @param encodeParallelism 1 encodes sequentially; values below 1 use one
+     *                          worker per available processor (default)
+     */
+    public void setEncodeParallelism(int encodeParallelism) {
+        this.encodeParallelism = encodeParallelism;
+    }
+
+    /**
+     * The encode pipeline keeps up to two decoded images per worker
+     */
+    @Override
+    protected int decodedImagesPerFile() {
+        return encodeWorkers <= 1 ? 1 : encodeWorkers * 2;
+    }
+
+    /**
+     * An image reference in a page's resources together with the original image
+     * it pointed to before any re-encoding. References with equal keys share one
+     * source image (same COS stream, or byte-identical content).
+     */
+    private record ImageSlot(int pageIndex, PDResources resources, COSName name, PDImageXObject original,
+            Object key) {
+    }
+
+    /**
+     * Collect every image reference in the document once so that every
+     * target-size iteration re-encodes from the originals of the same open
+     * document. Besides page resources this descends into form XObjects, tiling
+     * patterns, soft mask groups, Type 3 fonts and annotation appearance
+     * streams. Each resource dictionary is visited once, so a form shared by
+     * many pages yields a single set of slots.
+     */
+    private List<ImageSlot> collectImageSlots(PDDocument doc) throws IOException {
+        List<ImageSlot> slots = new ArrayList<>();
+        Map<COSStream, Object> keysByStream = new IdentityHashMap<>();
+        Set<COSDictionary> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        int pageIndex = 0;
+        for (PDPage page : doc.getPages()) {
+            collectImageSlots(page.getResources(), pageIndex, visited, keysByStream, slots);
+            for (PDAnnotation annotation : page.getAnnotations()) {
+                PDAppearanceDictionary appearance = annotation.getAppearance();
+                if (appearance == null)
                     continue;
+                for (PDAppearanceEntry entry : new PDAppearanceEntry[] { appearance.getNormalAppearance(),
+                        appearance.getRolloverAppearance(), appearance.getDownAppearance() }) {
+                    collectAppearanceSlots(entry, pageIndex, visited, keysByStream, slots);
+                }
+            }
+            pageIndex++;
+        }
+        Set<Object> uniqueKeys = new HashSet<>();
+        for (ImageSlot slot : slots) {
+            uniqueKeys.add(slot.key());
+        }
+        System.out.println("Found " + slots.size() + " image reference(s) to " + uniqueKeys.size()
+                + " unique image(s) in " + visited.size() + " resource dictionar"
+                + (visited.size() == 1 ? "y" : "ies"));
+        return slots;
+    }
 
-                for (COSName name : resources.getXObjectNames()) {
-                    PDXObject xobj = resources.getXObject(name);
-                    if (xobj instanceof PDImageXObject img) {
-                        try {
-                            BufferedImage bimg = img.getImage();
-                            if (bimg == null)
-                                continue;
-
-                            // Optional: skip tiny images (icons) to preserve clarity
-                            if (bimg.getWidth() < 64 || bimg.getHeight() < 64)
-                                continue;
-
-                            // Downscale if required
-                            BufferedImage scaled = bimg;
-                            if (level.getScale() < 1.0) {
-                                int newW = Math.max(1, (int) Math.round(bimg.getWidth() * level.getScale()));
-                                int newH = Math.max(1, (int) Math.round(bimg.getHeight() * level.getScale()));
-                                java.awt.Image tmp = bimg.getScaledInstance(newW, newH, java.awt.Image.SCALE_SMOOTH);
-                                BufferedImage resized = new BufferedImage(newW, newH, BufferedImage.TYPE_INT_RGB);
-                                java.awt.Graphics2D g2 = resized.createGraphics();
-                                g2.drawImage(tmp, 0, 0, null);
-                                g2.dispose();
-                                scaled = resized;
-                            }
-
-                            // Re-encode as JPEG with specified quality
-                            PDImageXObject jpegImg = JPEGFactory.createFromImage(doc, scaled, level.getJpegQuality());
-
-                            // Replace in resources
-                            resources.put(name, jpegImg);
-                        } catch (Throwable t) {
-                            // On any image-specific issue, skip and continue to keep process robust
-                            System.err.println("Skipping image compression for one object: " + t.getMessage());
-                        }
+    private void collectAppearanceSlots(PDAppearanceEntry entry, int pageIndex, Set<COSDictionary> visited,
+            Map<COSStream, Object> keysByStream, List<ImageSlot> slots) throws IOException {
+        if (entry == null)
+            return;
+        if (entry.isStream()) {
+            collectImageSlots(entry.getAppearanceStream().getResources(), pageIndex, visited, keysByStream, slots);
+        } else if (entry.isSubDictionary()) {
+            for (PDAppearanceStream stream : entry.getSubDictionary().values()) {
+                collectImageSlots(stream.getResources(), pageIndex, visited, keysByStream, slots);
+            }
+        }
+    }
+
+    /**
+     * Walk one resource dictionary and everything reachable from it
+     */
+    private void collectImageSlots(PDResources resources, int pageIndex, Set<COSDictionary> visited,
+            Map<COSStream, Object> keysByStream, List<ImageSlot> slots) throws IOException {
+        if (resources == null || !visited.add(resources.getCOSObject()))
+            return;
+
+        for (COSName name : resources.getXObjectNames()) {
+            PDXObject xobj;
+            try {
+                xobj = resources.getXObject(name);
+            } catch (IOException e) {
+                System.err.println("Skipping unreadable XObject " + name.getName() + " on page " + (pageIndex + 1)
+                        + ": " + e.getMessage());
+                continue;
+            }
+            if (xobj instanceof PDImageXObject img) {
+                Object key = keysByStream.computeIfAbsent(img.getCOSObject(), this::imageKey);
+                slots.add(new ImageSlot(pageIndex, resources, name, img, key));
+            } else if (xobj instanceof PDFormXObject form) {
+                collectImageSlots(form.getResources(), pageIndex, visited, keysByStream, slots);
+            }
+        }
+
+        for (COSName name : resources.getPatternNames()) {
+            if (resources.getPattern(name) instanceof PDTilingPattern tiling) {
+                collectImageSlots(tiling.getResources(), pageIndex, visited, keysByStream, slots);
+            }
+        }
+
+        for (COSName name : resources.getExtGStateNames()) {
+            PDExtendedGraphicsState gs = resources.getExtGState(name);
+            PDSoftMask softMask = gs != null ? gs.getSoftMask() : null;
+            if (softMask != null && softMask.getGroup() != null) {
+                collectImageSlots(softMask.getGroup().getResources(), pageIndex, visited, keysByStream, slots);
+            }
+        }
+
+        // Type 3 glyphs may paint images; read the font dictionaries directly so
+        // that other fonts are not parsed
+        COSDictionary fonts = resources.getCOSObject().getCOSDictionary(COSName.FONT);
+        if (fonts != null) {
+            for (COSName name : fonts.keySet()) {
+                if (fonts.getDictionaryObject(name) instanceof COSDictionary font
+                        && COSName.TYPE3.equals(font.getCOSName(COSName.SUBTYPE))) {
+                    COSDictionary fontResources = font.getCOSDictionary(COSName.RESOURCES);
+                    if (fontResources != null) {
+                        collectImageSlots(new PDResources(fontResources), pageIndex, visited, keysByStream, slots);
                     }
                 }
             }
+        }
+    }
 
-            // Save to destination
-            String outName = pdfFile.getName().replaceAll("(?i)\\.pdf$", "") + "_compressed.pdf";
-            File out = new File(outputDirectory, outName);
+    /**
+     * Key of byte-identical images: digest of the encoded bytes and decoding
+     * entries, plus the presentation entries. Those are compared as COS
+     * objects, so names and numbers match by value and dictionaries such as an
+     * optional content group only match themselves.
+     */
+    private record ImageContentKey(String digest, List<COSBase> presentation) {
+    }
 
-            // Remove encryption dictionary if the original was encrypted
-            if (password != null && !password.trim().isEmpty()) {
-                doc.setAllSecurityToBeRemoved(true);
+    /**
+     * Identity of an image's source data. Unmasked images are keyed by a digest
+     * of their encoded bytes and decoding parameters so that identical copies
+     * stored as separate objects collapse into one, as long as their
+     * presentation entries (optional content, intent, interpolation, metadata,
+     * structure parent, alternates, measure) match too; anything else (masked images, unreadable streams) is keyed by
+     * the stream object itself.
+     */
+    private Object imageKey(COSStream stream) {
+        if (stream.containsKey(COSName.SMASK) || stream.containsKey(COSName.MASK)) {
+            return stream;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (COSName key : IMAGE_KEY_ENTRIES) {
+                COSBase value = stream.getDictionaryObject(key);
+                digest.update((key.getName() + "=" + value + ";").getBytes(StandardCharsets.UTF_8));
+            }
+            byte[] buffer = new byte[8192];
+            try (InputStream in = stream.createRawInputStream()) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
             }
+            List<COSBase> presentation = new ArrayList<>(IMAGE_PRESENTATION_ENTRIES.length);
+            for (COSName key : IMAGE_PRESENTATION_ENTRIES) {
+                presentation.add(stream.getDictionaryObject(key));
+            }
+            return new ImageContentKey(HexFormat.of().formatHex(digest.digest()), presentation);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            return stream;
+        }
+    }
 
-            doc.save(out);
-            System.out.println("Compressed: " + pdfFile.getName() + " -> " + out.getName());
-        } finally {
-            doc.close();
+    /**
+     * Outcome of one re-encoding pass
+     *
+     * @param replaced number of image references now pointing to a re-encoded
+     *                 image
+     * @param images   the re-encoded images created by the pass
+     */
+    private record ReencodeResult(int replaced, Collection<PDImageXObject> images) {
+        /**
+         * Free the stream data of the pass's images (and their soft masks) held
+         * by the document's stream cache. Only valid once every reference has
+         * been rewired by a later pass or the document is no longer saved.
+         */
+        void release() {
+            for (PDImageXObject image : images) {
+                COSStream stream = image.getCOSObject();
+                try {
+                    if (stream.getDictionaryObject(COSName.SMASK) instanceof COSStream smask) {
+                        smask.close();
+                    }
+                    stream.close();
+                } catch (IOException e) {
+                    // nothing left to free
+                }
+            }
         }
     }
 
     /**
-     * Iteratively try to reach a target size by adjusting JPEG quality and scale.
-     * Heuristic approach:
-     * - Start from medium settings and binary-search quality
-     * - If still larger than target, reduce scale and retry
+     * Re-encode every unique image once and point all references to the shared
+     * result. Duplicates left unchanged are still rewired to a single original.
      */
-    private void compressToTargetSize(File pdfFile, String outputDirectory, long targetBytes) throws IOException {
-        log("Target-size mode enabled. Target: " + targetBytes + " bytes (" + (targetBytes / 1024) + " KB)");
-        log("Search bounds: quality=[" + minJpegQuality + "," + maxJpegQuality + "] scale=[" + minScale + "," + maxScale
-                + "], maxIter=" + maxIterations);
+    private ReencodeResult reencodeSlots(PDDocument doc, List<ImageSlot> slots, EncodeParams params,
+            DecodedImageCache cache) {
+        // Unique source images in first-use order
+        Map<Object, ImageSlot> unique = new LinkedHashMap<>();
+        for (ImageSlot slot : slots) {
+            unique.putIfAbsent(slot.key(), slot);
+        }
 
-        float lowQ = minJpegQuality;
-        float highQ = maxJpegQuality;
-        double lowScale = minScale;
-        double highScale = maxScale;
+        Map<Object, PDImageXObject> results = encodeUniqueImages(doc, unique, params, cache);
+        for (Map.Entry<Object, PDImageXObject> result : results.entrySet()) {
+            copyPresentationEntries(unique.get(result.getKey()).original(), result.getValue());
+        }
 
-        float curQ = 0.35f; // seed: LOW
-        double curScale = 0.5;
-        curQ = Math.max(lowQ, Math.min(curQ, highQ));
-        curScale = Math.max(lowScale, Math.min(curScale, highScale));
-        log(String.format("Seed params -> quality=%.3f, scale=%.2f", curQ, curScale));
+        // Write back on the owning thread
+        int replaced = 0;
+        for (ImageSlot slot : slots) {
+            PDImageXObject result = results.get(slot.key());
+            if (result != null) {
+                slot.resources().put(slot.name(), result);
+                replaced++;
+            } else {
+                // Keep the original when the image is skipped at these params
+                slot.resources().put(slot.name(), unique.get(slot.key()).original());
+            }
+        }
+        System.out.println("Re-encoded " + results.size() + " unique image(s) for " + slots.size()
+                + " reference(s)");
+        return new ReencodeResult(replaced, results.values());
+    }
 
-        File bestFile = null;
-        long bestDelta = Long.MAX_VALUE;
+    /**
+     * Keep a re-encoded image in the same optional content group, structure
+     * tree entry and with the same interpolation flag as its source
+     */
+    private static void copyPresentationEntries(PDImageXObject original, PDImageXObject result) {
+        COSStream source = original.getCOSObject();
+        for (COSName key : COPIED_PRESENTATION_ENTRIES) {
+            COSBase value = source.getItem(key);
+            if (value != null) {
+                result.getCOSObject().setItem(key, value);
+            }
+        }
+    }
 
-        for (int iter = 1; iter <= maxIterations; iter++) {
-            log(String.format("Iter %d/%d: trying quality=%.3f, scale=%.2f ...", iter, maxIterations, curQ, curScale));
-            File candidate = compressWithParams(pdfFile, outputDirectory, curQ, curScale);
-            long size = candidate.length();
-            long sizeKB = Math.round(size / 1024.0);
-            long delta = Math.abs(size - targetBytes);
-            long deltaKB = Math.round(delta / 1024.0);
-            log(String.format(" -> result size: %d KB (delta=%d KB)", sizeKB, deltaKB));
-
-            if (delta < bestDelta) {
-                bestDelta = delta;
-                bestFile = candidate;
-                log(" -> new best candidate");
-            } else {
-                deleteQuietly(candidate);
-                log(" -> worse than best; discarded");
+    /**
+     * Re-encode unique images as a pipeline: the owning thread decodes images
+     * one after another while resampling and JPEG encoding run on the shared CPU
+     * pool. Finished encodes are written back as PDImageXObjects on the owning
+     * thread as soon as they are at the head of the queue, and at most two
+     * images per worker are decoded, encoding or waiting to be written back at
+     * any time to bound memory.
+     *
+     * @return replacement image per key; keys without an entry keep the original
+     */
+    private Map<Object, PDImageXObject> encodeUniqueImages(PDDocument doc, Map<Object, ImageSlot> unique,
+            EncodeParams params, DecodedImageCache cache) {
+        int workers = encodeWorkers;
+        int maxPending = workers * 2;
+        Map<Object, PDImageXObject> results = new HashMap<>();
+        Map<Object, Future<EncodedImage>> pending = new LinkedHashMap<>();
+        int noGain = 0;
+        try {
+            for (Map.Entry<Object, ImageSlot> entry : unique.entrySet()) {
+                ImageSlot slot = entry.getValue();
+                EncodeParams imageParams = params.forImage(entry.getKey());
+                try {
+                    // Leave images alone that cannot get meaningfully smaller
+                    if (!isReencodable(slot.original()))
+                        continue;
+                    if (!worthReencoding(slot.original(), imageParams)) {
+                        noGain++;
+                        continue;
+                    }
+                    // Make room before decoding the next image
+                    noGain += writeBackPending(doc, unique, pending, results, maxPending - 1);
+                    BufferedImage decoded = decodeCached(slot, cache);
+                    if (decoded == null)
+                        continue;
+
+                    // Resampling keeps alpha, so transparent images take this path at any scale
+                    boolean alpha = decoded.getColorModel().hasAlpha();
+                    if (workers <= 1 || alpha) {
+                        PDImageXObject result;
+                        if (alpha) {
+                            // JPEGFactory splits alpha into a soft mask, which needs the document
+                            result = runCpuBound(() -> JPEGFactory.createFromImage(doc, imageParams.scale(decoded),
+                                    imageParams.jpegQuality()));
+                        } else {
+                            result = runCpuBound(() -> encodeImage(decoded, imageParams).toImageXObject(doc));
+                        }
+                        if (hasEnoughGain(slot.original(), encodedLength(result))) {
+                            results.put(entry.getKey(), result);
+                        } else {
+                            noGain++;
+                        }
+                        continue;
+                    }
+
+                    pending.put(entry.getKey(), submitCpuBound(() -> encodeImage(decoded, imageParams)));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return results;
+                } catch (Throwable t) {
+                    // On any image-specific issue, skip and continue to keep process robust
+                    System.err.println("Skipping image compression on page " + (slot.pageIndex() + 1) + ": "
+                            + t.getMessage());
+                }
+            }
+            noGain += writeBackPending(doc, unique, pending, results, 0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return results;
+        } finally {
+            for (Future<EncodedImage> future : pending.values()) {
+                future.cancel(true);
             }
+        }
+        if (noGain > 0) {
+            System.out.println("Kept " + noGain + " image(s) unchanged: re-encoding would save less than "
+                    + Math.round(minImageGain * 100) + "%");
+        }
+        return results;
+    }
 
-            long tol = Math.max(10_000, Math.round(targetBytes * 0.08)); // 10KB or 8%
-            if (size == targetBytes || delta <= tol) {
-                log("Stopping early: within tolerance (" + (tol / 1024) + " KB)");
+    /**
+     * Write back pending encodes in submission order: every finished one at the
+     * head of the queue, and beyond that the oldest ones, waiting for them,
+     * until at most maxPending remain. Bilevel results are CCITT encoded here,
+     * which releases their full-resolution raster.
+     *
+     * @return number of images kept unchanged for lack of gain
+     */
+    private int writeBackPending(PDDocument doc, Map<Object, ImageSlot> unique,
+            Map<Object, Future<EncodedImage>> pending, Map<Object, PDImageXObject> results, int maxPending)
+            throws InterruptedException {
+        int noGain = 0;
+        Iterator<Map.Entry<Object, Future<EncodedImage>>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Object, Future<EncodedImage>> entry = it.next();
+            if (pending.size() <= maxPending && !entry.getValue().isDone())
                 break;
+            it.remove();
+            try {
+                EncodedImage encoded = entry.getValue().get();
+                PDImageXObject original = unique.get(entry.getKey()).original();
+                // JPEG size is known before touching the document; CCITT is encoded here
+                if (encoded.jpeg() != null && !hasEnoughGain(original, encoded.jpeg().length)) {
+                    noGain++;
+                    continue;
+                }
+                PDImageXObject result = runCpuBound(() -> encoded.toImageXObject(doc));
+                if (hasEnoughGain(original, encodedLength(result))) {
+                    results.put(entry.getKey(), result);
+                } else {
+                    noGain++;
+                }
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Throwable t) {
+                Throwable cause = t instanceof ExecutionException && t.getCause() != null ? t.getCause() : t;
+                System.err.println("Skipping image compression on page "
+                        + (unique.get(entry.getKey()).pageIndex() + 1) + ": " + cause.getMessage());
+            }
+        }
+        return noGain;
+    }
+
+    /**
+     * Parameter-independent check for images that re-encoding can only make
+     * worse: tiny icons, stencil masks, and scans already stored as CCITT/JBIG2
+     */
+    private static boolean isReencodable(PDImageXObject img) {
+        if (img.getWidth() < 64 || img.getHeight() < 64)
+            return false;
+        if (img.isStencil())
+            return false;
+        COSBase filters = img.getCOSObject().getFilters();
+        if (filters instanceof COSName name) {
+            return !isBilevelFilter(name);
+        }
+        if (filters instanceof COSArray array) {
+            for (int i = 0; i < array.size(); i++) {
+                if (array.getObject(i) instanceof COSName name && isBilevelFilter(name))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isBilevelFilter(COSName filter) {
+        return COSName.CCITTFAX_DECODE.equals(filter) || COSName.JBIG2_DECODE.equals(filter);
+    }
+
+    /**
+     * Cheap pre-decode estimate of whether re-encoding can reach the minimum
+     * gain. The JPEG size estimate is deliberately optimistic so only images
+     * that are clearly not worth decoding are skipped; the exact check happens
+     * after encoding in {@link #hasEnoughGain}.
+     */
+    private boolean worthReencoding(PDImageXObject img, EncodeParams params) {
+        if (!isReencodable(img))
+            return false;
+        long current = encodedLength(img);
+        // 1-bit sources become CCITT, which the JPEG estimate does not cover
+        if (current <= 0 || img.getBitsPerComponent() == 1)
+            return true;
+        int components = 3;
+        try {
+            components = img.getColorSpace().getNumberOfComponents();
+        } catch (IOException e) {
+            // keep the color estimate
+        }
+        double pixels = (double) img.getWidth() * img.getHeight() * params.scale() * params.scale();
+        double bits = jpegBitsPerPixel(params.jpegQuality()) * (components == 1 ? GRAY_JPEG_FACTOR : 1.0);
+        double optimistic = pixels * bits / 8 * OPTIMISTIC_ESTIMATE_FACTOR;
+        return optimistic < current * (1 - minImageGain);
+    }
+
+    /**
+     * Typical baseline JPEG bits per pixel of a color image at a quality setting
+     */
+    private static double jpegBitsPerPixel(float quality) {
+        for (int i = 1; i < JPEG_BPP_CURVE.length; i++) {
+            if (quality <= JPEG_BPP_CURVE[i][0]) {
+                double[] lo = JPEG_BPP_CURVE[i - 1];
+                double[] hi = JPEG_BPP_CURVE[i];
+                double t = Math.max(0.0, (quality - lo[0]) / (hi[0] - lo[0]));
+                return lo[1] + (hi[1] - lo[1]) * t;
             }
+        }
+        return JPEG_BPP_CURVE[JPEG_BPP_CURVE.length - 1][1];
+    }
+
+    private boolean hasEnoughGain(PDImageXObject original, long newLength) {
+        return newLength < encodedLength(original) * (1 - minImageGain);
+    }
 
-            if (size > targetBytes) {
-                // Too big -> decrease quality first
-                highQ = curQ;
-                curQ = (lowQ + highQ) / 2f;
-                log(String.format(" size>target -> lower quality: new quality=%.3f (bounds [%.3f, %.3f])", curQ, lowQ,
-                        highQ));
+    /**
+     * Stored size of an image including its soft mask
+     */
+    private static long encodedLength(PDImageXObject img) {
+        COSStream stream = img.getCOSObject();
+        long length = stream.getLength();
+        if (stream.getDictionaryObject(COSName.SMASK) instanceof COSStream smask) {
+            length += smask.getLength();
+        }
+        return length;
+    }
 
-                if ((highQ - lowQ) < 0.03f) {
-                    highScale = curScale;
-                    curScale = (lowScale + highScale) / 2.0;
-                    log(String.format(" quality converged -> reduce scale: new scale=%.2f (bounds [%.2f, %.2f])",
-                            curScale, lowScale, highScale));
+    /**
+     * Source-size model of one document for target-size mode
+     *
+     * @param predictor  fitted bytes-per-pixel curves
+     * @param fixedBytes bytes not affected by re-encoding (everything except the
+     *                   images re-encoded as JPEG)
+     * @param scaleCaps  scale bounds of the image groups (1 for uncapped
+     *                   images), rounded to hundredths
+     * @param pixels     total source pixels of the unique re-encoded images
+     *                   with the scale bound at the same index
+     */
+    private record SizeModel(TargetSizePredictor predictor, long fixedBytes, double[] scaleCaps, long[] pixels) {
+        long predict(float quality, double scale, double calibration) {
+            long imageBytes = 0;
+            for (int i = 0; i < pixels.length; i++) {
+                // Images are encoded at their own bound when it is below the pass scale
+                imageBytes += predictor.predictBytes(pixels[i], quality, Math.min(scale, scaleCaps[i]));
+            }
+            return fixedBytes + Math.round(imageBytes * calibration);
+        }
+    }
+
+    /**
+     * Reach a target size with a fitted size model instead of a blind search.
+     * A few sample images are encoded at a grid of quality/scale points, the
+     * output size is predicted from the non-image bytes plus the predicted image
+     * bytes, and the best parameters are encoded and saved once for
+     * verification. If the verified size misses the tolerance, the model is
+     * recalibrated with the measured size and another pass is made (at most
+     * maxIterations passes in total, two by default). Each pass's re-encoded
+     * streams are released once its candidate is saved, so memory does not grow
+     * with the number of passes.
+     */
+    private void compressToTargetSize(PDDocument doc, File pdfFile, String outputDirectory, long targetBytes,
+            long structureSaved) throws IOException {
+        log("Target-size mode enabled. Target: " + targetBytes + " bytes (" + (targetBytes / 1024) + " KB)");
+        log("Search bounds: quality=[" + minJpegQuality + "," + maxJpegQuality + "] scale=[" + minScale + "," + maxScale
+                + "], maxIter=" + maxIterations);
+
+        List<ImageSlot> slots = collectImageSlots(doc);
+        // An explicit DPI caps the searched scale per image; unplaced images are not capped
+        Map<Object, Double> maxScales = targetDpi > 0 ? placementScales(doc, slots, targetDpi, 1.0) : Map.of();
+        long candidateReservation = reserveCandidateBuffers(Math.max(targetBytes, pdfFile.length()));
+        boolean inMemory = candidateReservation >= 0;
+        Candidate best = null;
+        // The cache budget is shared by all concurrent runs (see DecodedImageCache)
+        try (DecodedImageCache cache = new DecodedImageCache(DecodedImageCache.defaultBudgetBytes())) {
+            // Bytes already saved by the structural pass are not part of the fixed size
+            SizeModel model = buildSizeModel(slots, pdfFile.length() - structureSaved, maxScales, cache);
+            long tol = Math.max(10_000, Math.round(targetBytes * 0.08)); // 10KB or 8%
+
+            long bestDelta = Long.MAX_VALUE;
+            double calibration = 1.0;
+            float lastQ = -1f;
+            double lastScale = -1.0;
+
+            for (int pass = 1; pass <= maxIterations; pass++) {
+                float curQ;
+                double curScale;
+                if (model.predictor().hasSamples()) {
+                    double[] params = chooseParams(model, targetBytes, calibration, tol);
+                    curQ = (float) params[0];
+                    curScale = params[1];
+                } else {
+                    log("No re-encodable images sampled; using LOW preset");
+                    curQ = CompressionLevel.LOW.getJpegQuality();
+                    curScale = CompressionLevel.LOW.getScale();
                 }
-            } else {
-                // Too small -> increase quality first
-                lowQ = curQ;
-                curQ = (lowQ + highQ) / 2f;
-                log(String.format(" size<target -> raise quality: new quality=%.3f (bounds [%.3f, %.3f])", curQ, lowQ,
-                        highQ));
-
-                if ((highQ - lowQ) < 0.03f) {
-                    lowScale = curScale;
-                    curScale = Math.min(1.0, (lowScale + highScale) / 2.0);
-                    log(String.format(" quality converged -> increase scale: new scale=%.2f (bounds [%.2f, %.2f])",
-                            curScale, lowScale, highScale));
+                if (curQ == lastQ && curScale == lastScale) {
+                    log("Model converged on the same parameters; stopping");
+                    break;
+                }
+                lastQ = curQ;
+                lastScale = curScale;
+
+                long predicted = model.predict(curQ, curScale, calibration);
+                log(String.format("Pass %d/%d: quality=%.3f, scale=%.2f, predicted %d KB", pass, maxIterations, curQ,
+                        curScale, Math.round(predicted / 1024.0)));
+                Candidate candidate = compressWithParams(doc, slots, pdfFile, outputDirectory,
+                        new EncodeParams(curQ, curScale, targetResampler(), maxScales), cache, inMemory);
+                long size = candidate.size();
+                long delta = Math.abs(size - targetBytes);
+                log(String.format(" -> verified size: %d KB (delta=%d KB)", Math.round(size / 1024.0),
+                        Math.round(delta / 1024.0)));
+
+                if (delta < bestDelta) {
+                    if (best != null)
+                        best.discard();
+                    bestDelta = delta;
+                    best = candidate;
+                } else {
+                    candidate.discard();
+                }
+
+                if (delta <= tol || !model.predictor().hasSamples()) {
+                    break;
+                }
+
+                // Recalibrate the image part of the prediction with the measured size
+                long predictedImages = predicted - model.fixedBytes();
+                long actualImages = size - model.fixedBytes();
+                if (predictedImages <= 0 || actualImages <= 0) {
+                    break;
                 }
+                calibration *= Math.max(0.25, Math.min(4.0, actualImages / (double) predictedImages));
+                log(String.format(" outside tolerance -> calibration factor %.3f", calibration));
+            }
+
+            log("Best candidate: " + Math.round(best.size() / 1024.0) + " KB (delta="
+                    + Math.round(bestDelta / 1024.0) + " KB)");
+
+            File finalOut = new File(outputDirectory, compressedFileName(pdfFile));
+            best.writeTo(finalOut);
+            best = null;
+            keepSourceIfNotSmaller(doc, pdfFile, finalOut);
+            log("Final output: " + finalOut.length() / 1024 + " KB");
+        } finally {
+            if (best != null)
+                best.discard();
+            if (candidateReservation > 0 && admissionController != null)
+                admissionController.release(candidateReservation);
+        }
+    }
+
+    /**
+     * Reserve heap for in-memory candidates: the best and the current one are
+     * held at once, and a growing buffer may take twice its final size. The
+     * file's own reservation is already held, so this does not wait.
+     *
+     * @param candidateBytes expected size of one candidate
+     * @return the reserved bytes, or -1 if candidates must go to temporary files
+     */
+    private long reserveCandidateBuffers(long candidateBytes) {
+        if (candidateBytes > IN_MEMORY_CANDIDATE_LIMIT)
+            return -1L;
+        return admissionController == null ? 0L : admissionController.tryAcquire(4 * candidateBytes);
+    }
+
+    private ImageResampler.Method targetResampler() {
+        return resampler != null ? resampler : ImageResampler.Method.AREA_AVERAGE;
+    }
+
+    /**
+     * Fit the size model: measure the bytes held by the images a pass
+     * re-encodes as JPEG and encode a spread of sample images (largest first)
+     * at a 3x3 grid of quality/scale points. Images that never become JPEG
+     * (bilevel images, which are stored as CCITT, and images not worth
+     * re-encoding even at the lowest quality and scale) keep their stored size
+     * in the fixed bytes. The pixels of the others are grouped by their scale
+     * bound.
+     */
+    private SizeModel buildSizeModel(List<ImageSlot> slots, long fileSize, Map<Object, Double> maxScales,
+            DecodedImageCache cache) throws IOException {
+        float midQ = (minJpegQuality + maxJpegQuality) / 2f;
+        double midScale = (minScale + maxScale) / 2.0;
+        TargetSizePredictor predictor = new TargetSizePredictor(
+                new float[] { minJpegQuality, midQ, maxJpegQuality },
+                new double[] { minScale, midScale, maxScale });
+
+        Map<Object, ImageSlot> unique = new LinkedHashMap<>();
+        Map<COSStream, Boolean> counted = new IdentityHashMap<>();
+        long imageBytes = 0;
+        for (ImageSlot slot : slots) {
+            PDImageXObject img = slot.original();
+            if (!isReencodable(img))
+                continue;
+            if (counted.put(img.getCOSObject(), Boolean.TRUE) == null) {
+                imageBytes += img.getCOSObject().getLength();
             }
+            unique.putIfAbsent(slot.key(), slot);
         }
 
-        if (bestFile != null) {
-            long bestKB = Math.round(bestFile.length() / 1024.0);
-            log("Best candidate after search: " + bestKB + " KB (delta="
-                    + Math.round(Math.abs(bestFile.length() - targetBytes) / 1024.0) + " KB)");
+        // Duplicates are rewired to one original, which keeps its stored size
+        EncodeParams smallest = new EncodeParams(minJpegQuality, minScale, targetResampler(), maxScales);
+        List<ImageSlot> candidates = new ArrayList<>();
+        Map<Double, Long> pixelsByCap = new TreeMap<>();
+        long keptBytes = 0;
+        int bilevel = 0;
+        int noGain = 0;
+        for (Map.Entry<Object, ImageSlot> entry : unique.entrySet()) {
+            PDImageXObject img = entry.getValue().original();
+            if (!worthReencoding(img, smallest.forImage(entry.getKey()))) {
+                keptBytes += img.getCOSObject().getLength();
+                noGain++;
+                continue;
+            }
+            if (isBilevel(entry.getValue(), cache)) {
+                keptBytes += img.getCOSObject().getLength();
+                bilevel++;
+                continue;
+            }
+            candidates.add(entry.getValue());
+            Double cap = maxScales.get(entry.getKey());
+            double bucket = cap == null ? 1.0 : Math.min(1.0, Math.round(cap * 100.0) / 100.0);
+            pixelsByCap.merge(bucket, (long) img.getWidth() * img.getHeight(), Long::sum);
+        }
+        candidates.sort((a, b) -> Long.compare((long) b.original().getWidth() * b.original().getHeight(),
+                (long) a.original().getWidth() * a.original().getHeight()));
 
-            // Safety compare with LOW preset
-            File lowCandidate = null;
+        int sampleCount = Math.min(PREDICTOR_SAMPLE_IMAGES, candidates.size());
+        for (int i = 0; i < sampleCount; i++) {
+            int index = sampleCount == 1 ? 0 : i * (candidates.size() - 1) / (sampleCount - 1);
+            ImageSlot slot = candidates.get(index);
             try {
-                long bestDeltaKB = Math.round(bestDelta / 1024.0);
-                if (bestDelta > Math.max(10_000, Math.round(targetBytes * 0.10))) {
-                    log("Creating LOW preset candidate for comparison...");
-                    lowCandidate = compressWithParams(pdfFile, outputDirectory, 0.35f, 0.5);
-                    long lowDelta = Math.abs(lowCandidate.length() - targetBytes);
-                    long lowKB = Math.round(lowCandidate.length() / 1024.0);
-                    log("LOW candidate: " + lowKB + " KB (delta=" + Math.round(lowDelta / 1024.0) + " KB)");
-                    if (lowDelta < bestDelta) {
-                        deleteQuietly(bestFile);
-                        bestFile = lowCandidate;
-                        bestDelta = lowDelta;
-                        lowCandidate = null;
-                        log("LOW candidate selected as better match to target");
-                    } else {
-                        log("Original best candidate retained");
-                    }
-                }
-            } finally {
-                if (lowCandidate != null)
-                    deleteQuietly(lowCandidate);
+                sampleImage(predictor, slot, cache);
+            } catch (Exception e) {
+                System.err.println("[CompressTarget] Sample image skipped: " + e.getMessage());
             }
+        }
+
+        double[] scaleCaps = new double[pixelsByCap.size()];
+        long[] pixels = new long[pixelsByCap.size()];
+        int i = 0;
+        for (Map.Entry<Double, Long> group : pixelsByCap.entrySet()) {
+            scaleCaps[i] = group.getKey();
+            pixels[i++] = group.getValue();
+        }
+        long fixedBytes = Math.max(0L, fileSize - imageBytes + keptBytes);
+        log("Size model: " + candidates.size() + " JPEG image(s) (" + bilevel + " bilevel, " + noGain
+                + " without gain kept), " + sampleCount + " sampled, fixed bytes ~" + (fixedBytes / 1024) + " KB");
+        return new SizeModel(predictor, fixedBytes, scaleCaps, pixels);
+    }
+
+    /**
+     * Whether an image is stored as CCITT by a pass: 1-bit sources, and
+     * decoded images classified as bilevel. Decoded images stay in the cache
+     * for the passes.
+     */
+    private boolean isBilevel(ImageSlot slot, DecodedImageCache cache) {
+        if (slot.original().getBitsPerComponent() == 1)
+            return true;
+        try {
+            BufferedImage decoded = decodeCached(slot, cache);
+            return decoded != null && ImageColorClassifier.classify(decoded)
+                    .colorClass() == ImageColorClassifier.ColorClass.BILEVEL;
+        } catch (IOException e) {
+            return false;
+        }
+    }
 
-            String outName = pdfFile.getName().replaceAll("(?i)\\.pdf$", "") + "_compressed.pdf";
-            File finalOut = new File(outputDirectory, outName);
-            deleteQuietly(finalOut);
-            if (!bestFile.renameTo(finalOut)) {
-                java.nio.file.Files.copy(bestFile.toPath(), finalOut.toPath(),
-                        java.nio.file.StandardCopyOption.REPLACE_EXISTING);
-                deleteQuietly(bestFile);
+    /**
+     * Decode one image and encode it at every grid point on the CPU pool
+     */
+    private void sampleImage(TargetSizePredictor predictor, ImageSlot slot, DecodedImageCache cache)
+            throws IOException {
+        BufferedImage decoded = decodeCached(slot, cache);
+        if (decoded == null)
+            return;
+        float[] qualities = predictor.getQualities();
+        double[] scales = predictor.getScales();
+        List<Future<byte[]>> futures = new ArrayList<>();
+        for (float q : qualities) {
+            for (double scale : scales) {
+                futures.add(submitCpuBound(
+                        () -> encodeJpeg(ImageResampler.scale(decoded, scale, targetResampler()), q)));
+            }
+        }
+        long[][] bytes = new long[qualities.length][scales.length];
+        int f = 0;
+        for (int i = 0; i < qualities.length; i++) {
+            for (int j = 0; j < scales.length; j++) {
+                bytes[i][j] = awaitCpuBound(futures.get(f++)).length;
             }
-            log("Final output: " + finalOut.length() / 1024 + " KB");
-        } else {
-            log("No valid candidate produced; falling back to LOW preset compression");
-            compressPdf(pdfFile, outputDirectory, CompressionLevel.LOW);
         }
+        predictor.addSample((long) decoded.getWidth() * decoded.getHeight(), bytes);
+    }
+
+    /**
+     * Pick the parameters whose predicted size is closest to the target,
+     * preferring larger scale and then higher quality among those within half
+     * the tolerance.
+     *
+     * @return {quality, scale}
+     */
+    private double[] chooseParams(SizeModel model, long targetBytes, double calibration, long tol) {
+        double[] best = { minJpegQuality, minScale };
+        long bestDelta = Long.MAX_VALUE;
+        for (double scale = maxScale; scale >= minScale - 1e-9; scale -= 0.05) {
+            double s = Math.max(minScale, Math.round(scale * 100.0) / 100.0);
+            for (float q = maxJpegQuality; q >= minJpegQuality - 1e-6f; q -= 0.01f) {
+                float quality = Math.max(minJpegQuality, Math.round(q * 1000f) / 1000f);
+                long delta = Math.abs(model.predict(quality, s, calibration) - targetBytes);
+                if (delta <= tol / 2) {
+                    return new double[] { quality, s };
+                }
+                if (delta < bestDelta) {
+                    bestDelta = delta;
+                    best = new double[] { quality, s };
+                }
+            }
+        }
+        return best;
     }
 
     /**
      * Quietly delete a file if it exists (no exception if it fails).
      */
-    private void deleteQuietly(File f) {
+    private static void deleteQuietly(File f) {
         if (f == null)
             return;
         try {
@@ -413,85 +1458,59 @@ public class PDFCompressionService extends BasePDFService {
     }
 
     /**
-     * Create a compressed output using explicit JPEG quality and scale.
-     * Returns the temporary output File created.
+     * A verified target-size candidate, held in memory or in a temporary file
      */
-    private File compressWithParams(File pdfFile, String outputDirectory, float jpegQuality, double scale)
-            throws IOException {
-        File out;
-        String password = getPassword(pdfFile);
-
-        // Check if file is encrypted but no password provided
-        if (PdfSecurityUtils.isPasswordProtected(pdfFile) && (password == null || password.trim().isEmpty())) {
-            System.err.println("Skipping encrypted file " + pdfFile.getName() + " - no password provided");
-            throw new IOException("Cannot compress encrypted file without password: " + pdfFile.getName());
+    private record Candidate(ByteArrayOutputStream bytes, File file) {
+        long size() {
+            return bytes != null ? bytes.size() : file.length();
         }
 
-        PDDocument doc;
-        if (password != null && !password.trim().isEmpty()) {
-            doc = Loader.loadPDF(pdfFile, password);
-        } else {
-            doc = Loader.loadPDF(pdfFile);
-        }
-        try (FileInputStream fis = new FileInputStream(pdfFile)) {
-            int pageIndex = 0;
-            for (PDPage page : doc.getPages()) {
-                PDResources resources = page.getResources();
-                if (resources == null) {
-                    pageIndex++;
-                    continue;
+        void writeTo(File out) throws IOException {
+            if (bytes != null) {
+                try (java.io.OutputStream os = new java.io.FileOutputStream(out)) {
+                    bytes.writeTo(os);
                 }
-
-                int replacedOnPage = 0;
-                for (COSName name : resources.getXObjectNames()) {
-                    PDXObject xobj = resources.getXObject(name);
-                    if (xobj instanceof PDImageXObject img) {
-                        try {
-                            BufferedImage bimg = img.getImage();
-                            if (bimg == null)
-                                continue;
-                            if (bimg.getWidth() < 64 || bimg.getHeight() < 64)
-                                continue;
-
-                            BufferedImage scaled = bimg;
-                            if (scale < 1.0) {
-                                int newW = Math.max(1, (int) Math.round(bimg.getWidth() * scale));
-                                int newH = Math.max(1, (int) Math.round(bimg.getHeight() * scale));
-                                java.awt.Image tmp = bimg.getScaledInstance(newW, newH, java.awt.Image.SCALE_SMOOTH);
-                                BufferedImage resized = new BufferedImage(newW, newH, BufferedImage.TYPE_INT_RGB);
-                                java.awt.Graphics2D g2 = resized.createGraphics();
-                                g2.drawImage(tmp, 0, 0, null);
-                                g2.dispose();
-                                scaled = resized;
-                            }
-
-                            PDImageXObject jpegImg = JPEGFactory.createFromImage(doc, scaled, jpegQuality);
-                            resources.put(name, jpegImg);
-                            replacedOnPage++;
-                        } catch (Throwable t) {
-                            System.err.println(
-                                    "[CompressTarget] Page " + pageIndex + " image re-encode skip: " + t.getMessage());
-                        }
-                    }
-                }
-                log("Page " + pageIndex + ": replaced " + replacedOnPage + " image(s)");
-                pageIndex++;
+                return;
             }
+            java.nio.file.Files.move(file.toPath(), out.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        }
 
-            String base = pdfFile.getName().replaceAll("(?i)\\.pdf$", "");
-            out = File.createTempFile(base + "_cand_", ".pdf", new File(outputDirectory));
+        void discard() {
+            deleteQuietly(file);
+        }
+    }
 
-            // Remove encryption dictionary if the original was encrypted
-            if (password != null && !password.trim().isEmpty()) {
-                doc.setAllSecurityToBeRemoved(true);
-            }
+    /**
+     * Create a compressed candidate using explicit JPEG quality and scale.
+     * Images are re-encoded from their originals in the already open document;
+     * decoded originals come from the cache of this run. The re-encoded
+     * streams are released after saving: the next pass rewires every
+     * reference again, and the candidate already holds the result.
+     *
+     * @param inMemory save into a memory buffer instead of a temporary file
+     */
+    private Candidate compressWithParams(PDDocument doc, List<ImageSlot> slots, File pdfFile, String outputDirectory,
+            EncodeParams params, DecodedImageCache cache, boolean inMemory) throws IOException {
+        ReencodeResult pass = reencodeSlots(doc, slots, params, cache);
+        log("Replaced " + pass.replaced() + " of " + slots.size() + " image(s)");
 
-            doc.save(out);
+        Candidate candidate;
+        try {
+            if (inMemory) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                doc.save(bytes, CompressParameters.DEFAULT_COMPRESSION);
+                candidate = new Candidate(bytes, null);
+            } else {
+                String base = pdfFile.getName().replaceAll("(?i)\\.pdf$", "");
+                File out = File.createTempFile(base + "_cand_", ".pdf", new File(outputDirectory));
+                doc.save(out, CompressParameters.DEFAULT_COMPRESSION);
+                candidate = new Candidate(null, out);
+            }
         } finally {
-            doc.close();
+            pass.release();
         }
-        log("Candidate written: " + (out.length() / 1024) + " KB with params quality=" + jpegQuality + ", scale="
-                + scale);
-        return out;
+        log("Candidate evaluated: " + (candidate.size() / 1024) + " KB with params quality=" + params.jpegQuality()
+                + ", scale=" + params.scale());
+        return candidate;
     }
 }
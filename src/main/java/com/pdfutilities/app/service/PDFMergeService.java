@@ -1,7 +1,6 @@
 package com.pdfutilities.app.service;
 
 import org.apache.pdfbox.multipdf.PDFMergerUtility;
-import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.pdmodel.PDDocument;
 
 import java.io.File;
@@ -24,71 +23,81 @@ public class PDFMergeService extends BasePDFService {
             return false;
         }
 
-        // Filter out encrypted files without passwords before processing
-        List<File> processableFiles = new ArrayList<>();
-        for (File file : inputFiles) {
-            String password = getPassword(file);
-            if (PdfSecurityUtils.isPasswordProtected(file) && (password == null || password.trim().isEmpty())) {
-                System.err.println("Skipping encrypted file " + file.getName() + " - no password provided");
-            } else {
-                processableFiles.add(file);
+        // Files reported as started that still await their finish notification
+        List<File> started = new ArrayList<>();
+        List<PDDocument> sources = new ArrayList<>();
+        try {
+            // Open every file once; encrypted files without a password are skipped
+            for (File file : inputFiles) {
+                notifyFileStarted(file);
+                started.add(file);
+                PDDocument source = openDocument(file);
+                if (source == null) {
+                    started.remove(file);
+                    notifyFileFinished(file, false);
+                    continue;
+                }
+                sources.add(source);
             }
-        }
 
-        // Check if we still have enough files to merge
-        if (processableFiles.size() < 2) {
-            System.err.println(
-                    "Not enough processable files for merge (need at least 2, got " + processableFiles.size() + ")");
-            return false;
-        }
+            // Check if we still have enough files to merge
+            if (sources.size() < 2) {
+                System.err.println(
+                        "Not enough processable files for merge (need at least 2, got " + sources.size() + ")");
+                notifyFinished(started, false);
+                return false;
+            }
 
-        try {
-            mergeWithPDFMergerUtility(processableFiles, outputDirectory);
+            mergeWithPDFMergerUtility(sources, outputDirectory);
+            notifyFinished(started, true);
             return true;
         } catch (Exception e) {
             System.err.println("Error merging PDFs: " + e.getMessage());
+            notifyFinished(started, false);
             return false;
+        } finally {
+            for (PDDocument source : sources) {
+                closeQuietly(source);
+            }
         }
     }
 
+    private void notifyFinished(List<File> files, boolean success) {
+        for (File file : files) {
+            notifyFileFinished(file, success);
+        }
+        files.clear();
+    }
+
     /**
      * Merge using PDFMergerUtility to safely copy pages and resources.
      * Avoids COSStream lifecycle issues seen with manual PDPage reuse.
+     *
+     * Sources come from {@link #openDocument(File)}, so encrypted ones are
+     * already decrypted in memory and marked for security removal. They must
+     * stay open until the destination is saved because appended pages still
+     * read their streams.
      */
-    private void mergeWithPDFMergerUtility(List<File> inputFiles, String outputDirectory) throws IOException {
+    private void mergeWithPDFMergerUtility(List<PDDocument> sources, String outputDirectory) throws IOException {
         String outputFileName = "merged_" + System.currentTimeMillis() + ".pdf";
         File outputFile = new File(outputDirectory, outputFileName);
 
         PDFMergerUtility merger = new PDFMergerUtility();
-        merger.setDestinationFileName(outputFile.getAbsolutePath());
-
-        // Load each PDF with password if available and add to merger
-        for (File file : inputFiles) {
-            String password = getPassword(file);
-
-            if (password != null && !password.trim().isEmpty()) {
-                // For password-protected files, we need to load them first and save to temp
-                // file
-                PDDocument doc = Loader.loadPDF(file, password);
-                try {
-                    // Remove encryption dictionary before saving
-                    doc.setAllSecurityToBeRemoved(true);
-
-                    // Create a temporary file for the decrypted PDF
-                    File tempFile = File.createTempFile("temp_merge_", ".pdf");
-                    tempFile.deleteOnExit();
-                    doc.save(tempFile);
-                    merger.addSource(tempFile);
-                } finally {
-                    doc.close();
-                }
-            } else {
-                // For non-password protected files, use the simpler approach
-                merger.addSource(file);
+        try (PDDocument destination = newDocument()) {
+            for (PDDocument source : sources) {
+                merger.appendDocument(destination, source);
             }
+            destination.save(outputFile);
         }
-        merger.mergeDocuments(null); // Use default memory settings
 
-        System.out.println("Merged " + inputFiles.size() + " PDF files into " + outputFile.getName());
+        System.out.println("Merged " + sources.size() + " PDF files into " + outputFile.getName());
+    }
+
+    private static void closeQuietly(PDDocument doc) {
+        try {
+            doc.close();
+        } catch (IOException e) {
+            System.err.println("Error closing merge source: " + e.getMessage());
+        }
     }
 }
@@ -1,12 +1,25 @@
 package com.pdfutilities.app.service;
 
-import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSBase;
 import org.apache.pdfbox.multipdf.Splitter;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Service for splitting PDF files into multiple smaller PDF files
@@ -29,9 +42,22 @@ public class PDFSplitService extends BasePDFService {
         }
     }
 
+    /**
+     * Pages exported per Splitter run when splitting every page; bounds the
+     * number of output documents open at once
+     */
+    private static final int EVERY_PAGE_BATCH = 32;
+
+    /**
+     * Re-plans from the measured ratio before an oversized chunk is halved
+     * instead; bounds the saves spent on one chunk
+     */
+    private static final int MAX_REPLANS = 2;
+
     private SplitMode splitMode = SplitMode.EVERY_PAGE;
     private String customRange = "";
     private long maxSizeInBytes = 0;
+    private int writeParallelism = 1;
 
     public PDFSplitService() {
         super("Split PDF", "Split PDF files into multiple documents");
@@ -54,6 +80,25 @@ public class PDFSplitService extends BasePDFService {
         this.maxSizeInBytes = maxSizeInBytes;
     }
 
+    /**
+     * Set how many output chunks of one file are written concurrently. Every
+     * writer beyond the first opens its own copy of the source, since PDFBox
+     * documents must not be shared between threads; copies are only opened
+     * while the admission controller has room for them. Output names stay
+     * baseName-N.pdf in page order whatever the thread count.
+     *
+     * @param writeParallelism 1 (default) writes sequentially on the calling
+     *                         thread; {@link #AUTO_PARALLELISM} uses up to one
+     *                         writer per available processor
+     */
+    public void setWriteParallelism(int writeParallelism) {
+        this.writeParallelism = writeParallelism;
+    }
+
+    public int getWriteParallelism() {
+        return writeParallelism;
+    }
+
     @Override
     public boolean execute(List<File> inputFiles, String outputDirectory) {
         if (!validateInputFiles(inputFiles) || inputFiles == null || inputFiles.isEmpty()
@@ -61,18 +106,15 @@ public class PDFSplitService extends BasePDFService {
             return false;
         }
 
-        boolean allSuccessful = true;
-
-        for (File pdfFile : inputFiles) {
+        return processFiles(inputFiles, pdfFile -> {
             try {
                 splitPdf(pdfFile, outputDirectory);
+                return true;
             } catch (Exception e) {
                 System.err.println("Error splitting " + pdfFile.getName() + ": " + e.getMessage());
-                allSuccessful = false;
+                return false;
             }
-        }
-
-        return allSuccessful;
+        });
     }
 
     /**
@@ -83,22 +125,11 @@ public class PDFSplitService extends BasePDFService {
      * @throws IOException if an I/O error occurs
      */
     private void splitPdf(File pdfFile, String outputDirectory) throws IOException {
-        String password = getPassword(pdfFile);
-
-        // Check if file is encrypted but no password provided
-        if (PdfSecurityUtils.isPasswordProtected(pdfFile) && (password == null || password.trim().isEmpty())) {
-            System.err.println("Skipping encrypted file " + pdfFile.getName() + " - no password provided");
+        // Open once; encryption status comes from the same parse
+        PDDocument document = openDocument(pdfFile);
+        if (document == null) {
             throw new IOException("Cannot split encrypted file without password: " + pdfFile.getName());
         }
-
-        PDDocument document;
-        if (password != null && !password.trim().isEmpty()) {
-            document = Loader.loadPDF(pdfFile, password);
-            // Remove encryption dictionary for splitting
-            document.setAllSecurityToBeRemoved(true);
-        } else {
-            document = Loader.loadPDF(pdfFile);
-        }
         try {
 
             switch (splitMode) {
@@ -123,6 +154,11 @@ public class PDFSplitService extends BasePDFService {
 
     /**
      * Split PDF into one file per page
+     *
+     * Pages are exported in batches of {@value #EVERY_PAGE_BATCH}: each batch's
+     * documents are saved and closed before the next batch is split, so memory
+     * use does not grow with the page count (Splitter.split over the whole
+     * document would keep every page document alive until the end).
      * 
      * @param document        the PDF document
      * @param originalFile    the original file
@@ -130,24 +166,78 @@ public class PDFSplitService extends BasePDFService {
      * @throws IOException if an I/O error occurs
      */
     private void splitEveryPage(PDDocument document, File originalFile, String outputDirectory) throws IOException {
-        Splitter splitter = new Splitter();
-        List<PDDocument> splitDocuments = splitter.split(document);
-
         String originalName = originalFile.getName();
         String baseName = originalName.endsWith(".pdf") ? originalName.substring(0, originalName.length() - 4)
                 : originalName;
 
-        for (int i = 0; i < splitDocuments.size(); i++) {
-            PDDocument splitDoc = splitDocuments.get(i);
-            // Name files as filename-{number}.pdf in order of split (1-based)
-            String outputFileName = baseName + "-" + (i + 1) + ".pdf";
-            File outputFile = new File(outputDirectory, outputFileName);
-            splitDoc.save(outputFile);
-            splitDoc.close();
-            System.out.println("Created " + outputFile.getName());
+        int totalPages = document.getNumberOfPages();
+        if (resolveWriteParallelism(totalPages) > 1) {
+            List<int[]> ranges = new ArrayList<>(totalPages);
+            for (int p = 0; p < totalPages; p++) {
+                ranges.add(new int[] { p, p + 1 });
+            }
+            writeChunks(originalFile, document, ranges, outputFiles(outputDirectory, baseName, 1, totalPages));
+            System.out.println("Split " + originalFile.getName() + " into " + totalPages + " pages");
+            return;
+        }
+
+        for (int start = 0; start < totalPages; start += EVERY_PAGE_BATCH) {
+            int end = Math.min(totalPages, start + EVERY_PAGE_BATCH);
+            List<PDDocument> pages = exportPages(document, start, end, 1);
+            try {
+                // Name files as filename-{number}.pdf in order of split (1-based)
+                for (int i = 0; i < pages.size(); i++) {
+                    File outputFile = new File(outputDirectory, baseName + "-" + (start + i + 1) + ".pdf");
+                    pages.get(i).save(outputFile);
+                    System.out.println("Created " + outputFile.getName());
+                }
+            } finally {
+                closeAll(pages);
+            }
+        }
+
+        System.out.println("Split " + originalFile.getName() + " into " + totalPages + " pages");
+    }
+
+    /**
+     * Export pages [start, end) with PDFBox's Splitter, one document per
+     * splitLength pages. Splitter clones annotations and the structure tree
+     * (the source document is not modified), and keeps links whose target
+     * page is in the same output while clearing the others. Resources a page
+     * does not use are then left out (see {@link ResourcePruner}).
+     *
+     * @return the output documents; the caller saves and closes them
+     */
+    private List<PDDocument> exportPages(PDDocument document, int start, int end, int splitLength)
+            throws IOException {
+        Splitter splitter = new Splitter();
+        splitter.setStreamCacheCreateFunction(streamCacheFunction());
+        splitter.setStartPage(start + 1);
+        splitter.setEndPage(end);
+        splitter.setSplitAtPage(splitLength);
+        List<PDDocument> documents = splitter.split(document);
+        try {
+            for (PDDocument out : documents) {
+                for (PDPage page : out.getPages()) {
+                    // Shared or inherited resources would otherwise pull in everything they list
+                    ResourcePruner.prune(page);
+                }
+            }
+        } catch (RuntimeException e) {
+            closeAll(documents);
+            throw e;
         }
+        return documents;
+    }
 
-        System.out.println("Split " + originalFile.getName() + " into " + splitDocuments.size() + " pages");
+    private static void closeAll(List<PDDocument> documents) {
+        for (PDDocument doc : documents) {
+            try {
+                doc.close();
+            } catch (IOException e) {
+                System.err.println("Error closing split document: " + e.getMessage());
+            }
+        }
     }
 
     /**
@@ -173,7 +263,7 @@ public class PDFSplitService extends BasePDFService {
         }
 
         String[] segments = customRange.split(",");
-        int fileIndex = 1;
+        List<int[]> ranges = new ArrayList<>();
         for (String seg : segments) {
             String s = seg.trim();
             if (s.isEmpty())
@@ -207,21 +297,24 @@ public class PDFSplitService extends BasePDFService {
             if (start > end)
                 continue;
 
-            // Create a new document for this segment
-            try (PDDocument out = new PDDocument()) {
-                for (int p = start; p <= end; p++) {
-                    out.addPage(document.getPage(p - 1)); // PDFBox pages are 0-based
-                }
-                String outputFileName = baseName + "-" + (fileIndex++) + ".pdf";
-                File outputFile = new File(outputDirectory, outputFileName);
-                out.save(outputFile);
-                System.out.println("Created " + outputFile.getName() + " for range " + start + "-" + end);
-            }
+            ranges.add(new int[] { start - 1, end }); // PDFBox pages are 0-based
         }
+
+        // One output document per segment, written concurrently when enabled
+        writeChunks(originalFile, document, ranges, outputFiles(outputDirectory, baseName, 1, ranges.size()));
     }
 
     /**
      * Split PDF by size
+     *
+     * Chunk boundaries come from per-page footprints (see
+     * {@link PageFootprintEstimator}): each page's objects are measured once
+     * and a chunk counts objects shared between its pages only once. Every chunk
+     * is saved a single time to its output file, which verifies the estimate.
+     * The ratio of saved to estimated page bytes calibrates the following
+     * chunks (the fixed document overhead is not scaled). A chunk that still
+     * exceeds the limit is re-planned with the corrected ratio up to
+     * {@value #MAX_REPLANS} times, then halved until it fits.
      * 
      * @param document        the PDF document
      * @param originalFile    the original file
@@ -246,56 +339,288 @@ public class PDFSplitService extends BasePDFService {
             return;
         }
 
-        int fileIndex = 1;
-        int currentStart = 0; // 0-based inclusive
-        while (currentStart < totalPages) {
-            // Start with at least one page in the chunk
-            int currentEnd = currentStart; // 0-based inclusive
-            long estimatedSize = 0L;
-
-            // Greedily try to add pages while size stays under threshold
-            while (currentEnd < totalPages) {
-                long sizeIfAdded;
-                // Estimate size by actually saving to a temp in-memory buffer for accuracy
-                try (PDDocument temp = new PDDocument()) {
-                    for (int p = currentStart; p <= currentEnd; p++) {
-                        temp.addPage(document.getPage(p));
-                    }
-                    java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
-                    temp.save(baos);
-                    sizeIfAdded = baos.size();
+        List<Map<COSBase, Long>> footprints = new ArrayList<>(totalPages);
+        for (PDPage page : document.getPages()) {
+            footprints.add(PageFootprintEstimator.footprint(page));
+        }
+
+        SizeSplitState state = new SizeSplitState();
+        if (resolveWriteParallelism(totalPages) <= 1) {
+            writeSizeBasedChunks(document, footprints, 0, totalPages, Integer.MAX_VALUE, state, outputDirectory,
+                    baseName);
+            return;
+        }
+
+        // The first chunk is written here to calibrate the size model; the rest is
+        // planned from it and written concurrently to temporary names
+        int from = writeSizeBasedChunks(document, footprints, 0, totalPages, 1, state, outputDirectory, baseName);
+        List<int[]> ranges = new ArrayList<>();
+        while (from < totalPages) {
+            int end = chunkEnd(footprints, from, totalPages, state.ratio, maxSizeInBytes);
+            ranges.add(new int[] { from, end });
+            from = end;
+        }
+        List<File> parts = new ArrayList<>(ranges.size());
+        for (File out : outputFiles(outputDirectory, baseName, state.fileIndex, ranges.size())) {
+            parts.add(new File(out.getParentFile(), out.getName() + ".part"));
+        }
+        try {
+            // writeChunks returns only after every writer has stopped
+            long[] sizes = writeChunks(originalFile, document, ranges, parts);
+
+            // Verify in page order; chunks over the limit are re-split on this thread
+            for (int i = 0; i < ranges.size(); i++) {
+                int[] range = ranges.get(i);
+                File part = parts.get(i);
+                if (sizes[i] <= maxSizeInBytes || range[1] - range[0] == 1) {
+                    File outputFile = new File(outputDirectory, baseName + "-" + (state.fileIndex++) + ".pdf");
+                    Files.move(part.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    continue;
+                }
+                Files.deleteIfExists(part.toPath());
+                state.ratio = calibrate(sizes[i], estimateChunk(footprints, range[0], range[1]));
+                writeSizeBasedChunks(document, footprints, range[0], range[1], Integer.MAX_VALUE, state,
+                        outputDirectory, baseName);
+            }
+        } finally {
+            // Parts not yet moved to their final name
+            for (File part : parts) {
+                try {
+                    Files.deleteIfExists(part.toPath());
+                } catch (IOException e) {
+                    System.err.println("Error deleting " + part.getName() + ": " + e.getMessage());
                 }
+            }
+        }
+    }
 
-                if (sizeIfAdded <= maxSizeInBytes || currentEnd == currentStart) {
-                    // Accept this end; keep trying to expand
-                    estimatedSize = sizeIfAdded;
-                    currentEnd++;
+    /**
+     * Progress of a size-based split: calibration ratio (saved bytes per
+     * estimated byte) and the next output number
+     */
+    private static final class SizeSplitState {
+        double ratio = 1.0;
+        int fileIndex = 1;
+    }
+
+    /**
+     * Plan, save and verify chunks sequentially within pages [from, to)
+     *
+     * @param maxChunks stop after this many chunks
+     * @return the first page not yet written
+     */
+    private int writeSizeBasedChunks(PDDocument document, List<Map<COSBase, Long>> footprints, int from, int to,
+            int maxChunks, SizeSplitState state, String outputDirectory, String baseName) throws IOException {
+        int currentStart = from; // 0-based inclusive
+        for (int chunk = 0; chunk < maxChunks && currentStart < to; chunk++) {
+            int end = chunkEnd(footprints, currentStart, to, state.ratio, maxSizeInBytes); // exclusive
+            File outputFile = new File(outputDirectory, baseName + "-" + state.fileIndex + ".pdf");
+            long estimated = estimateChunk(footprints, currentStart, end);
+            long predicted = predictSize(estimated, state.ratio);
+            long actual = saveChunk(document, currentStart, end, outputFile);
+
+            // A single page larger than the limit is kept as its own chunk
+            for (int replans = 0; actual > maxSizeInBytes && end - currentStart > 1; replans++) {
+                state.ratio = calibrate(actual, estimated);
+                if (replans < MAX_REPLANS) {
+                    end = Math.min(end - 1, chunkEnd(footprints, currentStart, to, state.ratio, maxSizeInBytes));
                 } else {
-                    // Exceeded size and we already have at least one page -> stop expansion
-                    break;
+                    // The estimate keeps missing; halving bounds the remaining saves
+                    end = currentStart + (end - currentStart) / 2;
                 }
+                estimated = estimateChunk(footprints, currentStart, end);
+                predicted = predictSize(estimated, state.ratio);
+                actual = saveChunk(document, currentStart, end, outputFile);
             }
+            state.ratio = calibrate(actual, estimated);
+
+            System.out.println("Created " + outputFile.getName() + " pages " + (currentStart + 1) + "-" + end
+                    + " size " + actual + "B (predicted " + predicted + "B)");
+            state.fileIndex++;
+            currentStart = end;
+        }
+        return currentStart;
+    }
 
-            // currentEnd was incremented past last accepted page; adjust to last included
-            int lastIncluded = Math.min(currentEnd - 1, totalPages - 1);
-            if (lastIncluded < currentStart) {
-                // Safety (shouldn't happen due to single-page acceptance)
-                lastIncluded = currentStart;
+    /**
+     * Last page (exclusive) of the chunk starting at a page, taking pages while
+     * the predicted size stays within the limit; at least one page
+     */
+    static int chunkEnd(List<Map<COSBase, Long>> footprints, int start, int limit, double ratio, long maxSize) {
+        Set<COSBase> inChunk = Collections.newSetFromMap(new IdentityHashMap<>());
+        long pageBytes = 0;
+        int p = start;
+        while (p < limit) {
+            long added = newBytes(footprints.get(p), inChunk);
+            if (p > start && predictSize(pageBytes + added, ratio) > maxSize)
+                break;
+            inChunk.addAll(footprints.get(p).keySet());
+            pageBytes += added;
+            p++;
+        }
+        return p;
+    }
+
+    /**
+     * Uncalibrated page bytes of a chunk [start, end), counting objects shared
+     * between its pages once; excludes the document overhead
+     */
+    static long estimateChunk(List<Map<COSBase, Long>> footprints, int start, int end) {
+        Set<COSBase> inChunk = Collections.newSetFromMap(new IdentityHashMap<>());
+        long bytes = 0;
+        for (int p = start; p < end; p++) {
+            bytes += newBytes(footprints.get(p), inChunk);
+            inChunk.addAll(footprints.get(p).keySet());
+        }
+        return bytes;
+    }
+
+    /**
+     * Bytes of a page's objects not already in the chunk
+     */
+    private static long newBytes(Map<COSBase, Long> footprint, Set<COSBase> inChunk) {
+        long added = 0;
+        for (Map.Entry<COSBase, Long> entry : footprint.entrySet()) {
+            if (!inChunk.contains(entry.getKey())) {
+                added += entry.getValue();
             }
+        }
+        return added;
+    }
 
-            // Save the chunk [currentStart, lastIncluded]
-            try (PDDocument out = new PDDocument()) {
-                for (int p = currentStart; p <= lastIncluded; p++) {
-                    out.addPage(document.getPage(p));
-                }
-                String outputFileName = baseName + "-" + (fileIndex++) + ".pdf";
-                File outputFile = new File(outputDirectory, outputFileName);
-                out.save(outputFile);
-                System.out.println("Created " + outputFile.getName() + " pages " + (currentStart + 1) + "-"
-                        + (lastIncluded + 1) + " size~" + estimatedSize + "B");
+    /**
+     * Predicted saved size of a chunk: the fixed document overhead plus the
+     * calibrated page bytes
+     */
+    static long predictSize(long pageBytes, double ratio) {
+        return PageFootprintEstimator.DOCUMENT_OVERHEAD_BYTES + Math.round(pageBytes * ratio);
+    }
+
+    /**
+     * Ratio of saved to estimated page bytes, the inverse of
+     * {@link #predictSize(long, double)}
+     */
+    static double calibrate(long savedBytes, long pageBytes) {
+        long saved = Math.max(1L, savedBytes - PageFootprintEstimator.DOCUMENT_OVERHEAD_BYTES);
+        return clampRatio(saved / (double) Math.max(1L, pageBytes));
+    }
+
+    private static double clampRatio(double ratio) {
+        return Math.max(0.05, Math.min(ratio, 20.0));
+    }
+
+    /**
+     * Save pages [start, end) of a document to a file
+     *
+     * @return the saved file size
+     */
+    private long saveChunk(PDDocument document, int start, int end, File outputFile) throws IOException {
+        List<PDDocument> chunk = exportPages(document, start, end, end - start);
+        try {
+            chunk.get(0).save(outputFile);
+        } finally {
+            closeAll(chunk);
+        }
+        return outputFile.length();
+    }
+
+    private static List<File> outputFiles(String outputDirectory, String baseName, int firstIndex, int count) {
+        List<File> files = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            files.add(new File(outputDirectory, baseName + "-" + (firstIndex + i) + ".pdf"));
+        }
+        return files;
+    }
+
+    private int resolveWriteParallelism(int chunkCount) {
+        int workers = writeParallelism < 1 ? Runtime.getRuntime().availableProcessors() : writeParallelism;
+        return Math.max(1, Math.min(workers, chunkCount));
+    }
+
+    /**
+     * Write page ranges to output files, concurrently if enabled. The calling
+     * thread writes from the open document; every further writer imports pages
+     * from its own copy of the source file, opened with the same password.
+     * Each copy is reserved with the admission controller first and only the
+     * copies that fit in the memory budget are opened, so a tight budget falls
+     * back to fewer writers. Workers take the next unwritten chunk until none
+     * are left. All writers have stopped when this method returns or throws.
+     *
+     * @param source   the source file
+     * @param document the open source document
+     * @param ranges   page ranges [start, end), 0-based
+     * @param outputs  output file per range
+     * @return saved size per range
+     */
+    private long[] writeChunks(File source, PDDocument document, List<int[]> ranges, List<File> outputs)
+            throws IOException {
+        long[] sizes = new long[ranges.size()];
+        List<Long> reservations = reserveCopies(source, resolveWriteParallelism(ranges.size()) - 1);
+        if (reservations.isEmpty()) {
+            for (int i = 0; i < ranges.size(); i++) {
+                sizes[i] = writeChunk(document, ranges.get(i), outputs.get(i));
+            }
+            return sizes;
+        }
+
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(reservations.size(), r -> {
+            Thread t = new Thread(r, "pdf-split-writer-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<Void>> results = new ArrayList<>(reservations.size());
+            for (int w = 0; w < reservations.size(); w++) {
+                results.add(pool.submit(() -> {
+                    try (PDDocument view = loadDocument(source, getPassword(source))) {
+                        if (view.isEncrypted()) {
+                            view.setAllSecurityToBeRemoved(true);
+                        }
+                        writeNextChunks(view, ranges, outputs, sizes, next);
+                    }
+                    return null;
+                }));
+            }
+            writeNextChunks(document, ranges, outputs, sizes, next);
+            for (Future<Void> result : results) {
+                awaitCpuBound(result);
+            }
+        } finally {
+            pool.shutdownNow();
+            try {
+                // Writers may still be saving after a failure; wait so callers can clean up
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
+            releaseCopies(reservations);
+        }
+        return sizes;
+    }
 
-            currentStart = lastIncluded + 1;
+    /**
+     * Write chunks from a document until none are left; on failure the other
+     * writers stop taking new chunks
+     */
+    private void writeNextChunks(PDDocument document, List<int[]> ranges, List<File> outputs, long[] sizes,
+            AtomicInteger next) throws IOException {
+        try {
+            int i;
+            while ((i = next.getAndIncrement()) < ranges.size()) {
+                sizes[i] = writeChunk(document, ranges.get(i), outputs.get(i));
+            }
+        } catch (IOException | RuntimeException e) {
+            next.set(ranges.size());
+            throw e;
         }
     }
+
+    private long writeChunk(PDDocument document, int[] range, File outputFile) throws IOException {
+        long size = saveChunk(document, range[0], range[1], outputFile);
+        String pages = range[1] - range[0] == 1 ? "page " + range[1] : "pages " + (range[0] + 1) + "-" + range[1];
+        System.out.println("Created " + outputFile.getName() + " for " + pages);
+        return size;
+    }
 }
@@ -1,7 +1,8 @@
 package com.pdfutilities.app.service;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.rendering.ImageType;
 import org.apache.pdfbox.rendering.PDFRenderer;
 
@@ -9,7 +10,11 @@ import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Service for converting PDF pages to images (PNG/JPG) with configurable DPI
@@ -47,11 +52,17 @@ public class PDFToImageService extends BasePDFService {
         }
     }
 
+    /**
+     * Largest width/height a baseline JPEG can hold
+     */
+    private static final int MAX_JPEG_DIMENSION = 65535;
+
     private ImageFormat imageFormat = ImageFormat.PNG;
     private int dpi = 150;
     private ColorMode colorMode = ColorMode.COLOR;
     private boolean eachPageToSingleImage = true; // true: each page to separate image; false: entire PDF to one long
                                                   // image
+    private int renderParallelism = 1;
 
     public PDFToImageService() {
         super("Convert to Image", "Convert PDF pages into image files");
@@ -81,26 +92,38 @@ public class PDFToImageService extends BasePDFService {
         this.eachPageToSingleImage = eachPageToSingleImage;
     }
 
+    /**
+     * Set how many workers render the pages of one document concurrently in
+     * each-page mode. Every worker beyond the first holds its own copy of the
+     * document; copies are only opened while the admission controller has
+     * room for them, otherwise fewer workers are used.
+     *
+     * @param renderParallelism 1 renders pages sequentially (default); values
+     *                          below 1 use one worker per available processor
+     */
+    public void setRenderParallelism(int renderParallelism) {
+        this.renderParallelism = renderParallelism;
+    }
+
     @Override
     public boolean execute(List<File> inputFiles, String outputDirectory) {
         if (!validateInputFiles(inputFiles) || !createOutputDirectory(outputDirectory)) {
             return false;
         }
 
-        boolean allSuccessful = true;
-        for (File pdf : inputFiles) {
+        return processFiles(inputFiles, pdf -> {
             try {
                 if (eachPageToSingleImage) {
                     convertEachPage(pdf, outputDirectory);
                 } else {
                     convertEntirePdfToSingleImage(pdf, outputDirectory);
                 }
+                return true;
             } catch (Exception e) {
                 System.err.println("Error converting " + pdf.getName() + " to images: " + e.getMessage());
-                allSuccessful = false;
+                return false;
             }
-        }
-        return allSuccessful;
+        });
     }
 
     /**
@@ -109,29 +132,37 @@ public class PDFToImageService extends BasePDFService {
     private void convertEachPage(File pdfFile, String outputDirectory) throws IOException {
         String password = getPassword(pdfFile);
 
-        // Check if file is encrypted but no password provided
-        if (PdfSecurityUtils.isPasswordProtected(pdfFile) && (password == null || password.trim().isEmpty())) {
-            System.err.println("Skipping encrypted file " + pdfFile.getName() + " - no password provided");
+        // Open once; encryption status comes from the same parse
+        PDDocument document = openDocument(pdfFile);
+        if (document == null) {
             throw new IOException("Cannot convert encrypted file without password: " + pdfFile.getName());
         }
-
-        PDDocument document;
-        if (password != null && !password.trim().isEmpty()) {
-            document = Loader.loadPDF(pdfFile, password);
-            // Remove encryption dictionary for image conversion
-            document.setAllSecurityToBeRemoved(true);
-        } else {
-            document = Loader.loadPDF(pdfFile);
-        }
         try {
-            PDFRenderer renderer = new PDFRenderer(document);
             String base = stripPdfExt(pdfFile.getName());
+            int pageCount = document.getNumberOfPages();
+            // Every worker beyond the first parses its own copy; only copies that
+            // fit in the memory budget are opened
+            List<Long> reservations = reserveCopies(pdfFile, resolveRenderWorkers(pageCount) - 1);
+            if (!reservations.isEmpty()) {
+                try {
+                    renderPagesInParallel(document, pdfFile, password, base, outputDirectory, pageCount,
+                            reservations.size() + 1);
+                } finally {
+                    releaseCopies(reservations);
+                }
+                return;
+            }
 
-            for (int page = 0; page < document.getNumberOfPages(); page++) {
-                BufferedImage image = renderer.renderImageWithDPI(page, dpi, colorMode.getImageType());
-                String outName = String.format("%s_page_%d.%s", base, page + 1, imageFormat.getExt());
-                File outFile = new File(outputDirectory, outName);
-                writeImage(image, outFile);
+            PDFRenderer renderer = new PDFRenderer(document);
+            for (int page = 0; page < pageCount; page++) {
+                final int pageIndex = page;
+                File outFile = pageOutputFile(base, page, outputDirectory);
+                // Rendering and encoding are CPU-bound
+                runCpuBound(() -> {
+                    BufferedImage image = renderer.renderImageWithDPI(pageIndex, dpi, colorMode.getImageType());
+                    writeImage(image, outFile);
+                    return null;
+                });
                 System.out.println("Saved image: " + outFile.getName());
             }
         } finally {
@@ -139,61 +170,213 @@ public class PDFToImageService extends BasePDFService {
         }
     }
 
+    private int resolveRenderWorkers(int pageCount) {
+        int workers = renderParallelism < 1 ? Runtime.getRuntime().availableProcessors() : renderParallelism;
+        return Math.max(1, Math.min(workers, pageCount));
+    }
+
     /**
-     * Render the entire PDF into one vertically concatenated image.
-     * Note: This can be memory intensive for large documents; keep DPI reasonable.
+     * Render contiguous page slices concurrently on the shared CPU pool, so
+     * rendering and encoding count against the same per-processor cap as every
+     * other CPU-bound stage. PDFBox documents and renderers are not thread-safe,
+     * so the first slice uses the already open document and every other slice
+     * opens its own PDDocument/PDFRenderer. When a slice fails the others stop
+     * at their next page, and this method returns only after every slice has
+     * stopped, so the caller may close the document.
      */
-    private void convertEntirePdfToSingleImage(File pdfFile, String outputDirectory) throws IOException {
-        String password = getPassword(pdfFile);
+    private void renderPagesInParallel(PDDocument document, File pdfFile, String password, String base,
+            String outputDirectory, int pageCount, int workers) throws IOException {
+        AtomicBoolean stop = new AtomicBoolean();
+        int sliceSize = (pageCount + workers - 1) / workers;
+        List<Future<Void>> slices = new ArrayList<>();
+        for (int start = 0; start < pageCount; start += sliceSize) {
+            final int from = start;
+            final int to = Math.min(pageCount, start + sliceSize);
+            slices.add(submitCpuBound(() -> {
+                try {
+                    if (from == 0) {
+                        renderSlice(document, base, outputDirectory, from, to, stop);
+                    } else {
+                        try (PDDocument own = loadDocument(pdfFile, password)) {
+                            renderSlice(own, base, outputDirectory, from, to, stop);
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    stop.set(true);
+                    throw e;
+                }
+                return null;
+            }));
+        }
 
-        // Check if file is encrypted but no password provided
-        if (PdfSecurityUtils.isPasswordProtected(pdfFile) && (password == null || password.trim().isEmpty())) {
-            System.err.println("Skipping encrypted file " + pdfFile.getName() + " - no password provided");
-            throw new IOException("Cannot convert encrypted file without password: " + pdfFile.getName());
+        // Wait for every slice even after a failure: the first one renders from
+        // the caller's document
+        IOException failure = null;
+        boolean interrupted = false;
+        for (Future<Void> slice : slices) {
+            while (true) {
+                try {
+                    slice.get();
+                    break;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (failure == null) {
+                        failure = cause instanceof IOException io ? io
+                                : new IOException("Page rendering failed for " + pdfFile.getName(), cause);
+                    }
+                    break;
+                } catch (InterruptedException e) {
+                    stop.set(true);
+                    interrupted = true;
+                    if (failure == null) {
+                        failure = new IOException("Interrupted while rendering " + pdfFile.getName(), e);
+                    }
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
         }
+        if (failure != null) {
+            throw failure;
+        }
+    }
 
-        PDDocument document;
-        if (password != null && !password.trim().isEmpty()) {
-            document = Loader.loadPDF(pdfFile, password);
-            // Remove encryption dictionary for image conversion
-            document.setAllSecurityToBeRemoved(true);
-        } else {
-            document = Loader.loadPDF(pdfFile);
+    /**
+     * Render pages [from, to) to files until done or until stop is set
+     */
+    private void renderSlice(PDDocument document, String base, String outputDirectory, int from, int to,
+            AtomicBoolean stop) throws IOException {
+        PDFRenderer renderer = new PDFRenderer(document);
+        for (int page = from; page < to && !stop.get(); page++) {
+            BufferedImage image = renderer.renderImageWithDPI(page, dpi, colorMode.getImageType());
+            File outFile = pageOutputFile(base, page, outputDirectory);
+            writeImage(image, outFile);
+            System.out.println("Saved image: " + outFile.getName());
+        }
+    }
+
+    private File pageOutputFile(String base, int pageIndex, String outputDirectory) {
+        String outName = String.format("%s_page_%d.%s", base, pageIndex + 1, imageFormat.getExt());
+        return new File(outputDirectory, outName);
+    }
+
+    /**
+     * Render the entire PDF into one vertically concatenated image.
+     * PNG output is streamed page by page; JPEG output is limited to 65535 px
+     * per side and built in memory.
+     */
+    private void convertEntirePdfToSingleImage(File pdfFile, String outputDirectory) throws IOException {
+        // Open once; encryption status comes from the same parse
+        PDDocument document = openDocument(pdfFile);
+        if (document == null) {
+            throw new IOException("Cannot convert encrypted file without password: " + pdfFile.getName());
         }
         try {
             PDFRenderer renderer = new PDFRenderer(document);
+            int pageCount = document.getNumberOfPages();
 
-            BufferedImage[] pages = new BufferedImage[document.getNumberOfPages()];
-            int totalHeight = 0;
+            // Output dimensions come from the page boxes, so nothing has to be
+            // rendered (or kept) before the output is started
+            int[] pageHeights = new int[pageCount];
+            long totalHeight = 0;
             int maxWidth = 0;
+            for (int page = 0; page < pageCount; page++) {
+                int[] size = renderedPageSize(document.getPage(page));
+                maxWidth = Math.max(maxWidth, size[0]);
+                pageHeights[page] = size[1];
+                totalHeight += size[1];
+            }
 
-            for (int page = 0; page < document.getNumberOfPages(); page++) {
-                BufferedImage img = renderer.renderImageWithDPI(page, dpi, colorMode.getImageType());
-                pages[page] = img;
-                totalHeight += img.getHeight();
-                maxWidth = Math.max(maxWidth, img.getWidth());
+            String base = stripPdfExt(pdfFile.getName());
+            File outFile = new File(outputDirectory, base + "_all." + imageFormat.getExt());
+            if (imageFormat == ImageFormat.PNG) {
+                writeCombinedPng(renderer, pageHeights, maxWidth, totalHeight, outFile);
+            } else {
+                writeCombinedImage(renderer, pageHeights, maxWidth, totalHeight, outFile);
             }
+            System.out.println("Saved combined image: " + outFile.getName());
+        } finally {
+            document.close();
+        }
+    }
 
-            // Compose into one long image
-            BufferedImage combined = new BufferedImage(maxWidth, totalHeight, determineBufferedImageType());
-            java.awt.Graphics2D g = combined.createGraphics();
-            g.setBackground(new java.awt.Color(255, 255, 255));
-            g.clearRect(0, 0, maxWidth, totalHeight);
+    /**
+     * Stream pages into a PNG one at a time; peak memory is a single rendered
+     * page regardless of document length. If a page fails, no partial image is
+     * left behind.
+     */
+    private void writeCombinedPng(PDFRenderer renderer, int[] pageHeights, int width, long totalHeight,
+            File outFile) throws IOException {
+        if (totalHeight > Integer.MAX_VALUE) {
+            throw new IOException("Combined image height " + totalHeight + " px exceeds the PNG limit; lower the DPI");
+        }
+        try (StreamingPngWriter png = new StreamingPngWriter(outFile, width, (int) totalHeight,
+                colorMode == ColorMode.GRAYSCALE)) {
+            for (int page = 0; page < pageHeights.length; page++) {
+                final int pageIndex = page;
+                final int expected = pageHeights[page];
+                // Render and encode are CPU-bound
+                runCpuBound(() -> {
+                    BufferedImage img = renderer.renderImageWithDPI(pageIndex, dpi, colorMode.getImageType());
+                    int rows = Math.min(expected, img.getHeight());
+                    png.writeRows(img, 0, rows);
+                    png.writeBlankRows(expected - rows);
+                    return null;
+                });
+            }
+            png.finish();
+        }
+    }
 
+    /**
+     * JPEG cannot be written incrementally with the standard ImageIO writers, so
+     * pages are drawn into the combined image as they are rendered (no per-page
+     * copies are retained).
+     */
+    private void writeCombinedImage(PDFRenderer renderer, int[] pageHeights, int width, long totalHeight,
+            File outFile) throws IOException {
+        if (totalHeight > MAX_JPEG_DIMENSION || width > MAX_JPEG_DIMENSION) {
+            throw new IOException("Combined image " + width + "x" + totalHeight
+                    + " px exceeds the JPEG limit of " + MAX_JPEG_DIMENSION + " px; use PNG or lower the DPI");
+        }
+        BufferedImage combined = new BufferedImage(width, (int) totalHeight, determineBufferedImageType());
+        java.awt.Graphics2D g = combined.createGraphics();
+        try {
+            g.setBackground(new java.awt.Color(255, 255, 255));
+            g.clearRect(0, 0, width, (int) totalHeight);
             int y = 0;
-            for (BufferedImage img : pages) {
-                g.drawImage(img, 0, y, null);
-                y += img.getHeight();
+            for (int page = 0; page < pageHeights.length; page++) {
+                final int pageIndex = page;
+                BufferedImage img = runCpuBound(
+                        () -> renderer.renderImageWithDPI(pageIndex, dpi, colorMode.getImageType()));
+                g.drawImage(img, 0, y, width, y + pageHeights[page], 0, 0, width, pageHeights[page], null);
+                y += pageHeights[page];
             }
+        } finally {
             g.dispose();
-
-            String base = stripPdfExt(pdfFile.getName());
-            File outFile = new File(outputDirectory, base + "_all." + imageFormat.getExt());
+        }
+        runCpuBound(() -> {
             writeImage(combined, outFile);
-            System.out.println("Saved combined image: " + outFile.getName());
-        } finally {
-            document.close();
+            return null;
+        });
+    }
+
+    /**
+     * Pixel size of a page as produced by {@link PDFRenderer#renderImageWithDPI}
+     *
+     * @return array of {width, height}
+     */
+    private int[] renderedPageSize(PDPage page) {
+        PDRectangle cropBox = page.getCropBox();
+        float scale = dpi / 72f;
+        int widthPx = (int) Math.max(Math.floor(cropBox.getWidth() * scale), 1);
+        int heightPx = (int) Math.max(Math.floor(cropBox.getHeight() * scale), 1);
+        int rotation = page.getRotation();
+        if (rotation == 90 || rotation == 270) {
+            return new int[] { heightPx, widthPx };
         }
+        return new int[] { widthPx, heightPx };
     }
 
     private int determineBufferedImageType() {
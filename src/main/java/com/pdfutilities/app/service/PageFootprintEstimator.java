@@ -0,0 +1,140 @@
+package com.pdfutilities.app.service;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Estimates the bytes a page contributes to a saved document without saving
+ * it
+ *
+ * A page's footprint is the set of objects reachable from its dictionary
+ * (content streams, the resources it uses, annotations), each with an
+ * approximate serialised size: stored stream length plus dictionary syntax.
+ * Objects are keyed by identity, so a chunk can count a font or image shared
+ * by several pages only once by summing footprints over a set.
+ */
+final class PageFootprintEstimator {
+
+    /**
+     * Header, catalog, page tree, trailer and cross-reference data of a saved
+     * document
+     */
+    static final long DOCUMENT_OVERHEAD_BYTES = 1024;
+
+    /**
+     * "n 0 obj ... endobj" plus the cross-reference entry of an indirect object
+     */
+    private static final long INDIRECT_OBJECT_BYTES = 32;
+    private static final long STREAM_KEYWORD_BYTES = 18;
+    private static final long REFERENCE_BYTES = 8;
+    private static final long SCALAR_BYTES = 6;
+
+    private PageFootprintEstimator() {
+    }
+
+    /**
+     * Objects reachable from a page and their estimated sizes. Links back into
+     * the page tree (/Parent, /P) and other pages reached through destinations
+     * are not followed.
+     *
+     * @param page the page
+     * @return estimated bytes per object, keyed by identity
+     */
+    static Map<COSBase, Long> footprint(PDPage page) {
+        Map<COSBase, Long> objects = new IdentityHashMap<>();
+        COSDictionary pageDict = page.getCOSObject();
+        Deque<COSBase> pending = new ArrayDeque<>();
+        // Measure the resources the page keeps after pruning; inherited ones are
+        // included, since the page tree is not followed
+        COSDictionary resources = ResourcePruner.prunedResources(page);
+        if (resources == null && page.getResources() != null) {
+            resources = page.getResources().getCOSObject();
+        }
+        pending.push(pageDict);
+        if (resources != null) {
+            pending.push(resources);
+        }
+        while (!pending.isEmpty()) {
+            COSBase obj = pending.pop();
+            if (objects.containsKey(obj))
+                continue;
+            if (obj != pageDict && obj instanceof COSDictionary node && isPageTreeNode(node))
+                continue;
+            long bytes = INDIRECT_OBJECT_BYTES;
+            if (obj == pageDict) {
+                bytes += dictionarySize(pageDict, COSName.RESOURCES, pending);
+            } else {
+                bytes += obj instanceof COSDictionary dict ? dictionarySize(dict, null, pending)
+                        : directSize(obj, pending);
+            }
+            if (obj instanceof COSStream stream) {
+                bytes += stream.getLength() + STREAM_KEYWORD_BYTES;
+            }
+            objects.put(obj, bytes);
+        }
+        return objects;
+    }
+
+    /**
+     * Approximate serialised size of an object's direct part; indirect
+     * references are queued for the caller instead of being descended into
+     */
+    private static long directSize(COSBase base, Deque<COSBase> pending) {
+        if (base instanceof COSObject ref) {
+            COSBase target = ref.getObject();
+            if (target != null) {
+                pending.push(target);
+            }
+            return REFERENCE_BYTES;
+        }
+        if (base instanceof COSName name)
+            return name.getName().length() + 1;
+        if (base instanceof COSString string)
+            return string.getBytes().length + 2;
+        if (base instanceof COSArray array) {
+            long size = 2;
+            for (int i = 0; i < array.size(); i++) {
+                size += directSize(array.get(i), pending) + 1;
+            }
+            return size;
+        }
+        if (base instanceof COSStream stream) {
+            // Streams are always written as indirect objects
+            pending.push(stream);
+            return REFERENCE_BYTES;
+        }
+        if (base instanceof COSDictionary dict)
+            return dictionarySize(dict, null, pending);
+        return SCALAR_BYTES;
+    }
+
+    /**
+     * @param skip a key measured separately, or null
+     */
+    private static long dictionarySize(COSDictionary dict, COSName skip, Deque<COSBase> pending) {
+        long size = 4;
+        for (Map.Entry<COSName, COSBase> entry : dict.entrySet()) {
+            COSName key = entry.getKey();
+            if (COSName.PARENT.equals(key) || COSName.P.equals(key) || key.equals(skip))
+                continue;
+            size += key.getName().length() + 2 + directSize(entry.getValue(), pending);
+        }
+        return size;
+    }
+
+    private static boolean isPageTreeNode(COSDictionary dict) {
+        COSName type = dict.getCOSName(COSName.TYPE);
+        return COSName.PAGE.equals(type) || COSName.PAGES.equals(type);
+    }
+}
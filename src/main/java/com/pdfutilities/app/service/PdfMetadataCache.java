@@ -0,0 +1,267 @@
+package com.pdfutilities.app.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentInformation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent cache of per-file PDF facts (encryption status, page count, basic
+ * metadata) keyed by canonical path and validated against size and
+ * last-modified time. Stored next to the saved passwords under ~/.pdfutilities
+ * and bounded by LRU eviction.
+ */
+public class PdfMetadataCache {
+
+    private static final String CACHE_FILE = "pdf_metadata_cache.dat";
+    private static final String APP_DATA_DIR = System.getProperty("user.home") + File.separator + ".pdfutilities";
+
+    /**
+     * Default maximum number of cached files
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 5000;
+
+    /**
+     * Application-wide cache, loaded from the user's home directory on first
+     * use only
+     */
+    private static final class SharedHolder {
+        private static final PdfMetadataCache SHARED = new PdfMetadataCache(Paths.get(APP_DATA_DIR, CACHE_FILE),
+                DEFAULT_MAX_ENTRIES);
+    }
+
+    private final Path cacheFilePath;
+    private final Map<String, PdfFileInfo> entries;
+    private int maxEntries;
+    private boolean dirty;
+
+    /**
+     * Constructor
+     *
+     * @param cacheFilePath file used for persistence
+     * @param maxEntries    maximum number of cached files
+     */
+    public PdfMetadataCache(Path cacheFilePath, int maxEntries) {
+        this.cacheFilePath = cacheFilePath;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PdfFileInfo> eldest) {
+                return size() > PdfMetadataCache.this.maxEntries;
+            }
+        };
+        load();
+    }
+
+    /**
+     * Get the application-wide cache
+     *
+     * @return the shared cache
+     */
+    public static PdfMetadataCache shared() {
+        return SharedHolder.SHARED;
+    }
+
+    /**
+     * Change the size cap; least recently used entries are evicted first
+     *
+     * @param maxEntries maximum number of cached files
+     */
+    public synchronized void setMaxEntries(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+        var it = entries.entrySet().iterator();
+        while (entries.size() > this.maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+            dirty = true;
+        }
+    }
+
+    /**
+     * Get cached facts for a file if the cached entry is still valid
+     *
+     * @param file the PDF file
+     * @return cached info, or null if unknown or stale
+     */
+    public synchronized PdfFileInfo lookup(File file) {
+        String key = keyFor(file);
+        if (key == null)
+            return null;
+        PdfFileInfo info = entries.get(key);
+        if (info == null)
+            return null;
+        if (info.size != file.length() || info.lastModified != file.lastModified()) {
+            entries.remove(key);
+            dirty = true;
+            return null;
+        }
+        return info;
+    }
+
+    /**
+     * Returns true if the file is password protected, probing the file only on a
+     * cache miss
+     *
+     * @param file the PDF file
+     * @return true if encrypted
+     */
+    public boolean isPasswordProtected(File file) {
+        PdfFileInfo cached = lookup(file);
+        if (cached != null) {
+            return cached.encrypted;
+        }
+        boolean encrypted = PdfSecurityUtils.isPasswordProtected(file);
+        synchronized (this) {
+            PdfFileInfo info = newInfo(file);
+            if (info != null) {
+                info.encrypted = encrypted;
+                store(file, info);
+            }
+        }
+        return encrypted;
+    }
+
+    /**
+     * Record facts from a document that a service has opened anyway; title and
+     * author are only kept for unencrypted documents
+     *
+     * @param file     the source file
+     * @param document the open document
+     */
+    public void recordDocument(File file, PDDocument document) {
+        PdfFileInfo info = newInfo(file);
+        if (info == null)
+            return;
+        info.encrypted = document.isEncrypted();
+        info.pageCount = document.getNumberOfPages();
+        PDDocumentInformation docInfo = document.getDocumentInformation();
+        // Metadata of password protected documents must not end up on disk in
+        // plain text
+        if (docInfo != null && !document.isEncrypted()) {
+            info.title = docInfo.getTitle();
+            info.author = docInfo.getAuthor();
+        }
+        synchronized (this) {
+            store(file, info);
+        }
+    }
+
+    /**
+     * Record that a file is encrypted and could not be opened without a password
+     *
+     * @param file the source file
+     */
+    public synchronized void recordEncrypted(File file) {
+        PdfFileInfo cached = lookup(file);
+        PdfFileInfo info = cached != null ? cached : newInfo(file);
+        if (info == null)
+            return;
+        info.encrypted = true;
+        store(file, info);
+    }
+
+    /**
+     * Persist the cache if it changed since the last save
+     */
+    public synchronized void save() {
+        if (!dirty)
+            return;
+        try {
+            Files.createDirectories(cacheFilePath.getParent());
+            List<PdfFileInfo> data = new ArrayList<>(entries.values());
+            try (ObjectOutputStream oos = new ObjectOutputStream(Files.newOutputStream(cacheFilePath))) {
+                oos.writeObject(data);
+            }
+            dirty = false;
+        } catch (Exception e) {
+            System.err.println("Error saving PDF metadata cache: " + e.getMessage());
+        }
+    }
+
+    private void load() {
+        try {
+            if (Files.exists(cacheFilePath)) {
+                try (ObjectInputStream ois = new ObjectInputStream(Files.newInputStream(cacheFilePath))) {
+                    @SuppressWarnings("unchecked")
+                    List<PdfFileInfo> data = (List<PdfFileInfo>) ois.readObject();
+                    for (PdfFileInfo info : data) {
+                        entries.put(info.path, info);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Error loading PDF metadata cache: " + e.getMessage());
+            entries.clear();
+        }
+    }
+
+    private void store(File file, PdfFileInfo info) {
+        entries.put(info.path, info);
+        dirty = true;
+    }
+
+    private static PdfFileInfo newInfo(File file) {
+        String key = keyFor(file);
+        if (key == null)
+            return null;
+        PdfFileInfo info = new PdfFileInfo();
+        info.path = key;
+        info.size = file.length();
+        info.lastModified = file.lastModified();
+        return info;
+    }
+
+    private static String keyFor(File file) {
+        if (file == null)
+            return null;
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Cached facts about one PDF file
+     */
+    public static class PdfFileInfo implements Serializable {
+        private static final long serialVersionUID = 1L;
+        String path;
+        long size;
+        long lastModified;
+        boolean encrypted;
+        int pageCount = -1;
+        String title;
+        String author;
+
+        public boolean isEncrypted() {
+            return encrypted;
+        }
+
+        /**
+         * @return the page count, or -1 if not known yet
+         */
+        public int getPageCount() {
+            return pageCount;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public String getAuthor() {
+            return author;
+        }
+    }
+}
@@ -2,6 +2,12 @@ package com.pdfutilities.app.service;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.pdmodel.PDDocument;
@@ -11,16 +17,60 @@ import org.apache.pdfbox.pdmodel.PDDocument;
  */
 public final class PdfSecurityUtils {
 
+    /**
+     * Bytes read from the end of the file to locate startxref and the trailer
+     */
+    private static final int TAIL_WINDOW = 16 * 1024;
+
+    /**
+     * Bytes read at the startxref offset to inspect an xref stream dictionary
+     */
+    private static final int XREF_WINDOW = 8 * 1024;
+
+    /**
+     * Cross-reference sections followed through startxref and /Prev before
+     * giving up
+     */
+    private static final int MAX_SECTIONS = 16;
+
+    /**
+     * Classic xref subsections skipped while looking for the trailer
+     */
+    private static final int MAX_SUBSECTIONS = 1024;
+
+    /**
+     * Size of a classic xref table entry, including its end of line
+     */
+    private static final int XREF_ENTRY_BYTES = 20;
+
+    private static final Pattern XREF_STREAM_HEADER = Pattern.compile("^\\s*\\d+\\s+\\d+\\s+obj\\b");
+    private static final Pattern SUBSECTION_HEADER = Pattern.compile("^\\s*(\\d+)\\s+(\\d+)\\s");
+
+    enum ProbeResult {
+        ENCRYPTED, NOT_ENCRYPTED, UNKNOWN
+    }
+
     private PdfSecurityUtils() {
     }
 
     /**
      * Returns true if the given PDF file is password protected (requires a password
      * to open).
+     * The trailer / xref stream dictionary is probed for an /Encrypt entry with a
+     * bounded read from the end of the file; the document is only fully parsed
+     * when the probe cannot decide (e.g. damaged files).
      */
     public static boolean isPasswordProtected(File pdfFile) {
         if (pdfFile == null)
             return false;
+        ProbeResult probe = probeEncryption(pdfFile);
+        if (probe != ProbeResult.UNKNOWN) {
+            return probe == ProbeResult.ENCRYPTED;
+        }
+        return isPasswordProtectedByFullLoad(pdfFile);
+    }
+
+    private static boolean isPasswordProtectedByFullLoad(File pdfFile) {
         try (PDDocument document = Loader.loadPDF(pdfFile)) {
             return document.isEncrypted();
         } catch (IOException e) {
@@ -31,4 +81,147 @@ public final class PdfSecurityUtils {
             return false;
         }
     }
+
+    /**
+     * Look for /Encrypt in the trailer dictionary of the latest revision: the
+     * trailer right before the last startxref, the classic xref table or
+     * cross-reference stream that startxref points to, and their /Prev
+     * sections. A dictionary only decides the result once it is complete
+     * (has /Root); linearized files end with a bare {@code << /Size n >>}
+     * trailer whose startxref points back to the first-page section holding
+     * /Root and /Encrypt.
+     */
+    static ProbeResult probeEncryption(File pdfFile) {
+        try (RandomAccessFile raf = new RandomAccessFile(pdfFile, "r")) {
+            long length = raf.length();
+            if (length == 0)
+                return ProbeResult.UNKNOWN;
+
+            int tailSize = (int) Math.min(length, TAIL_WINDOW);
+            String tail = read(raf, length - tailSize, tailSize);
+
+            int startxref = tail.lastIndexOf("startxref");
+            if (startxref < 0)
+                return ProbeResult.UNKNOWN;
+            long xrefOffset = parseOffset(tail, startxref + "startxref".length());
+            if (xrefOffset < 0 || xrefOffset >= length)
+                return ProbeResult.UNKNOWN;
+
+            // Classic xref table: the trailer sits right before startxref (and must
+            // belong to the same, latest revision)
+            int trailer = tail.lastIndexOf("trailer", startxref);
+            if (trailer >= 0 && tail.indexOf("startxref", trailer) == startxref) {
+                ProbeResult result = decide(tail.substring(trailer, startxref));
+                if (result != ProbeResult.UNKNOWN)
+                    return result;
+            }
+
+            // Follow the chain of sections from the startxref offset
+            Set<Long> visited = new HashSet<>();
+            long offset = xrefOffset;
+            while (offset >= 0 && offset < length && visited.size() < MAX_SECTIONS && visited.add(offset)) {
+                String dict = sectionDictionary(raf, offset, length);
+                if (dict == null)
+                    return ProbeResult.UNKNOWN;
+                ProbeResult result = decide(dict);
+                if (result != ProbeResult.UNKNOWN)
+                    return result;
+                offset = prevOffset(dict);
+            }
+            return ProbeResult.UNKNOWN;
+        } catch (IOException | RuntimeException e) {
+            return ProbeResult.UNKNOWN;
+        }
+    }
+
+    /**
+     * ENCRYPTED or NOT_ENCRYPTED for a complete trailer dictionary, UNKNOWN
+     * when it lacks /Root
+     */
+    private static ProbeResult decide(String dict) {
+        if (containsKey(dict, "/Encrypt"))
+            return ProbeResult.ENCRYPTED;
+        return containsKey(dict, "/Root") ? ProbeResult.NOT_ENCRYPTED : ProbeResult.UNKNOWN;
+    }
+
+    /**
+     * Text of the trailer or cross-reference stream dictionary of the section
+     * starting at offset, or null if no section starts there
+     */
+    private static String sectionDictionary(RandomAccessFile raf, long offset, long length) throws IOException {
+        String window = read(raf, offset, (int) Math.min(length - offset, XREF_WINDOW));
+        String trimmed = window.stripLeading();
+        if (trimmed.startsWith("xref")) {
+            long pos = offset + window.indexOf("xref") + "xref".length();
+            for (int i = 0; i < MAX_SUBSECTIONS && pos < length; i++) {
+                window = read(raf, pos, (int) Math.min(length - pos, XREF_WINDOW));
+                // Entries are digits only, so the first trailer keyword ends this table
+                int trailer = window.indexOf("trailer");
+                if (trailer >= 0) {
+                    String dict = read(raf, pos + trailer, (int) Math.min(length - pos - trailer, XREF_WINDOW));
+                    int end = dict.indexOf("startxref");
+                    return end >= 0 ? dict.substring(0, end) : dict;
+                }
+                // Skip a subsection too long to hold the trailer in this window
+                Matcher header = SUBSECTION_HEADER.matcher(window);
+                if (!header.find())
+                    return null;
+                long count = Long.parseLong(header.group(2));
+                pos += header.end() + count * XREF_ENTRY_BYTES;
+            }
+            return null;
+        }
+        if (XREF_STREAM_HEADER.matcher(window).find() && window.contains("/XRef")) {
+            int stream = window.indexOf("stream");
+            return stream >= 0 ? window.substring(0, stream) : null;
+        }
+        return null;
+    }
+
+    /**
+     * Offset in a /Prev entry, or -1
+     */
+    private static long prevOffset(String dict) {
+        int idx = keyIndex(dict, "/Prev");
+        return idx >= 0 ? parseOffset(dict, idx + "/Prev".length()) : -1;
+    }
+
+    private static String read(RandomAccessFile raf, long offset, int size) throws IOException {
+        byte[] buffer = new byte[size];
+        raf.seek(offset);
+        raf.readFully(buffer);
+        return new String(buffer, StandardCharsets.ISO_8859_1);
+    }
+
+    private static long parseOffset(String text, int from) {
+        int i = from;
+        while (i < text.length() && Character.isWhitespace(text.charAt(i)))
+            i++;
+        int start = i;
+        while (i < text.length() && Character.isDigit(text.charAt(i)))
+            i++;
+        if (i == start || i - start > 18)
+            return -1;
+        return Long.parseLong(text.substring(start, i));
+    }
+
+    /**
+     * True if the dictionary text holds the key (not e.g. /EncryptMetadata for
+     * /Encrypt)
+     */
+    private static boolean containsKey(String dict, String key) {
+        return keyIndex(dict, key) >= 0;
+    }
+
+    private static int keyIndex(String dict, String key) {
+        int idx = dict.indexOf(key);
+        while (idx >= 0) {
+            int end = idx + key.length();
+            if (end >= dict.length() || !Character.isLetterOrDigit(dict.charAt(end))) {
+                return idx;
+            }
+            idx = dict.indexOf(key, end);
+        }
+        return -1;
+    }
 }
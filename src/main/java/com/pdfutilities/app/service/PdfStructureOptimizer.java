@@ -0,0 +1,249 @@
+package com.pdfutilities.app.service;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSDocument;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Lossless structural clean-up before a compressed save
+ *
+ * - Removes embedded page thumbnails.
+ * - Optionally removes page/XObject level metadata (/Metadata, /PieceInfo),
+ * e.g. per-image XMP. The document-level XMP metadata is always kept.
+ * - Re-deflates uncompressed or weakly compressed non-image streams (content
+ * streams, forms, fonts, ...) at the maximum Flate level when that is smaller.
+ *
+ * Only objects reachable from the trailer are visited, so unreferenced
+ * objects (and the thumbnails dropped here) are never loaded. They need no
+ * separate pass either: a full save only writes reachable objects.
+ */
+final class PdfStructureOptimizer {
+
+    private static final COSName THUMB = COSName.getPDFName("Thumb");
+    private static final COSName PIECE_INFO = COSName.getPDFName("PieceInfo");
+
+    /**
+     * Filters that are decoded and replaced by Flate. Lossy and bilevel image
+     * codecs (DCT, JPX, CCITT, JBIG2) and encryption filters are left alone.
+     */
+    private static final Set<COSName> RECOMPRESSIBLE_FILTERS = Set.of(COSName.FLATE_DECODE, COSName.LZW_DECODE,
+            COSName.RUN_LENGTH_DECODE, COSName.ASCII_HEX_DECODE, COSName.ASCII85_DECODE);
+
+    /**
+     * Streams stored larger than this are not recompressed; the deflated copy
+     * is held in memory and never exceeds the stored size
+     */
+    private static final long MAX_RECOMPRESS_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Decoding stops (and the stream is kept) past this many bytes, so a
+     * highly compressible stream cannot expand without bound
+     */
+    private static final long MAX_DECODED_BYTES = 512L * 1024 * 1024;
+
+    /**
+     * Outcome of one optimisation pass
+     *
+     * @param thumbnailsRemoved   page thumbnails dropped
+     * @param metadataRemoved     page/XObject metadata entries dropped (0
+     *                            unless requested)
+     * @param streamsRecompressed streams rewritten with maximum Flate
+     * @param bytesSaved          stored stream bytes saved by recompression
+     */
+    record Result(int thumbnailsRemoved, int metadataRemoved, int streamsRecompressed, long bytesSaved) {
+    }
+
+    private PdfStructureOptimizer() {
+    }
+
+    /**
+     * Optimise an open document in place
+     *
+     * @param doc                  the document
+     * @param removeObjectMetadata also drop /Metadata and /PieceInfo of pages
+     *                             and XObjects
+     * @return what was changed
+     */
+    static Result optimize(PDDocument doc, boolean removeObjectMetadata) throws IOException {
+        int thumbnails = 0;
+        int metadata = 0;
+        for (PDPage page : doc.getPages()) {
+            COSDictionary dict = page.getCOSObject();
+            if (dict.containsKey(THUMB)) {
+                dict.removeItem(THUMB);
+                thumbnails++;
+            }
+            if (removeObjectMetadata) {
+                metadata += removeMetadata(dict);
+            }
+        }
+
+        int recompressed = 0;
+        long saved = 0;
+        byte[] input = new byte[64 * 1024];
+        byte[] buffer = new byte[64 * 1024];
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            for (COSStream stream : streams(doc.getDocument())) {
+                if (removeObjectMetadata && isXObject(stream)) {
+                    metadata += removeMetadata(stream);
+                }
+                if (!isRecompressible(stream))
+                    continue;
+                try {
+                    long gain = recompress(stream, deflater, input, buffer);
+                    if (gain > 0) {
+                        recompressed++;
+                        saved += gain;
+                    }
+                } catch (IOException e) {
+                    // A stream that cannot be decoded is kept as stored
+                    System.err.println("Keeping stream as is: " + e.getMessage());
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+        return new Result(thumbnails, metadata, recompressed, saved);
+    }
+
+    /**
+     * Collect the streams reachable from the trailer. Objects are dereferenced
+     * as they are reached, so objects that are no longer referenced are never
+     * parsed.
+     */
+    private static List<COSStream> streams(COSDocument cosDoc) {
+        List<COSStream> streams = new ArrayList<>();
+        Set<COSBase> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<COSBase> pending = new ArrayDeque<>();
+        pending.push(cosDoc.getTrailer());
+        while (!pending.isEmpty()) {
+            COSBase base = pending.pop();
+            if (base instanceof COSObject obj) {
+                base = obj.getObject();
+            }
+            if (base == null || !visited.add(base))
+                continue;
+            if (base instanceof COSDictionary dict) {
+                if (dict instanceof COSStream stream) {
+                    streams.add(stream);
+                }
+                for (COSBase value : dict.getValues()) {
+                    if (value != null) {
+                        pending.push(value);
+                    }
+                }
+            } else if (base instanceof COSArray array) {
+                for (COSBase value : array) {
+                    if (value != null) {
+                        pending.push(value);
+                    }
+                }
+            }
+        }
+        return streams;
+    }
+
+    private static int removeMetadata(COSDictionary dict) {
+        int removed = 0;
+        if (dict.containsKey(COSName.METADATA)) {
+            dict.removeItem(COSName.METADATA);
+            removed++;
+        }
+        if (dict.containsKey(PIECE_INFO)) {
+            dict.removeItem(PIECE_INFO);
+            removed++;
+        }
+        return removed;
+    }
+
+    private static boolean isXObject(COSStream stream) {
+        COSName subtype = stream.getCOSName(COSName.SUBTYPE);
+        return COSName.IMAGE.equals(subtype) || COSName.FORM.equals(subtype);
+    }
+
+    private static boolean isRecompressible(COSStream stream) {
+        COSName type = stream.getCOSName(COSName.TYPE);
+        if (COSName.XREF.equals(type) || COSName.OBJ_STM.equals(type) || COSName.METADATA.equals(type))
+            return false;
+        // Images are handled by the image pass
+        if (COSName.IMAGE.equals(stream.getCOSName(COSName.SUBTYPE)))
+            return false;
+        if (stream.getLength() > MAX_RECOMPRESS_BYTES)
+            return false;
+        COSBase filters = stream.getFilters();
+        if (filters == null)
+            return true;
+        if (filters instanceof COSName name)
+            return RECOMPRESSIBLE_FILTERS.contains(name);
+        if (filters instanceof COSArray array) {
+            for (int i = 0; i < array.size(); i++) {
+                if (!(array.getObject(i) instanceof COSName name) || !RECOMPRESSIBLE_FILTERS.contains(name))
+                    return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Decode a stream and store it with maximum Flate if that is smaller. The
+     * decoded data is streamed through the deflater, so only the deflated copy
+     * (bounded by the stored size) is held in memory.
+     *
+     * @return bytes saved, or 0 if the stream was kept
+     */
+    private static long recompress(COSStream stream, Deflater deflater, byte[] input, byte[] buffer)
+            throws IOException {
+        long before = stream.getLength();
+        deflater.reset();
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream((int) Math.min(before, buffer.length));
+        long decoded = 0;
+        try (InputStream in = stream.createInputStream()) {
+            int n;
+            while ((n = in.read(input)) != -1) {
+                decoded += n;
+                if (decoded > MAX_DECODED_BYTES)
+                    return 0L;
+                deflater.setInput(input, 0, n);
+                while (!deflater.needsInput()) {
+                    deflated.write(buffer, 0, deflater.deflate(buffer));
+                    if (deflated.size() >= before)
+                        return 0L; // no gain; stop early
+                }
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflated.write(buffer, 0, deflater.deflate(buffer));
+            if (deflated.size() >= before)
+                return 0L;
+        }
+
+        try (OutputStream out = stream.createRawOutputStream()) {
+            deflated.writeTo(out);
+        }
+        stream.setItem(COSName.FILTER, COSName.FLATE_DECODE);
+        stream.removeItem(COSName.DECODE_PARMS);
+        return before - deflated.size();
+    }
+}
@@ -0,0 +1,25 @@
+package com.pdfutilities.app.service;
+
+import java.io.File;
+
+/**
+ * Callback interface for per-file progress reported by PDF services
+ * Implementations may be invoked from worker threads
+ */
+public interface ProgressListener {
+
+    /**
+     * Called when processing of a file starts
+     *
+     * @param file the file being processed
+     */
+    void fileStarted(File file);
+
+    /**
+     * Called when processing of a file has finished
+     *
+     * @param file    the processed file
+     * @param success true if the file was processed successfully
+     */
+    void fileFinished(File file, boolean success);
+}
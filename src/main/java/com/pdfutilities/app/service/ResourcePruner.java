@@ -0,0 +1,234 @@
+package com.pdfutilities.app.service;
+
+import org.apache.pdfbox.contentstream.PDContentStream;
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotation;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Drops resources a page's content never uses, so a page copied out of a
+ * document with shared or inherited resource dictionaries does not drag every
+ * font and image of the source along
+ *
+ * The content stream is tokenised (not interpreted) and every name operand is
+ * treated as used, whatever its operator. Streams without their own resources
+ * draw from the page's and are scanned as well: forms, Type3 glyph procedures,
+ * soft-mask groups and annotation appearances. The source
+ * dictionaries are never modified: pruning builds a new resource dictionary
+ * whose entries still point to the original objects.
+ */
+final class ResourcePruner {
+
+    /**
+     * Resource categories whose entries are looked up by name from content
+     */
+    private static final Set<COSName> NAMED_CATEGORIES = Set.of(COSName.FONT, COSName.XOBJECT, COSName.EXT_G_STATE,
+            COSName.COLORSPACE, COSName.PATTERN, COSName.SHADING, COSName.PROPERTIES);
+
+    private ResourcePruner() {
+    }
+
+    /**
+     * Replace a page's resources with only the entries its content uses
+     *
+     * @param page the page, typically just imported into an output document
+     * @return number of entries dropped; 0 if the content could not be read
+     */
+    static int prune(PDPage page) {
+        PDResources resources = page.getResources();
+        COSDictionary pruned = prunedResources(page);
+        if (resources == null || pruned == null)
+            return 0;
+        int dropped = countEntries(resources.getCOSObject()) - countEntries(pruned);
+        page.getCOSObject().setItem(COSName.RESOURCES, pruned);
+        return dropped;
+    }
+
+    /**
+     * Build the resource dictionary a page actually needs without changing the
+     * page
+     *
+     * @param page the page
+     * @return the pruned dictionary, or null if the page has no resources or its
+     *         content could not be read
+     */
+    static COSDictionary prunedResources(PDPage page) {
+        PDResources resources = page.getResources();
+        if (resources == null)
+            return null;
+        Set<COSName> used = new HashSet<>();
+        try {
+            Set<COSStream> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+            collectNames(page, resources, used, visited);
+            for (PDAnnotation annotation : page.getAnnotations()) {
+                collectAppearanceNames(annotation.getCOSObject().getCOSDictionary(COSName.AP), resources, used,
+                        visited);
+            }
+        } catch (IOException e) {
+            System.err.println("Keeping all resources of a page: " + e.getMessage());
+            return null;
+        }
+
+        COSDictionary pruned = new COSDictionary();
+        for (Map.Entry<COSName, COSBase> entry : resources.getCOSObject().entrySet()) {
+            COSBase value = entry.getValue();
+            COSBase resolved = value instanceof COSObject ref ? ref.getObject() : value;
+            if (NAMED_CATEGORIES.contains(entry.getKey()) && resolved instanceof COSDictionary category
+                    && !(resolved instanceof COSStream)) {
+                COSDictionary kept = new COSDictionary();
+                for (Map.Entry<COSName, COSBase> item : category.entrySet()) {
+                    if (used.contains(item.getKey())) {
+                        kept.setItem(item.getKey(), item.getValue());
+                    }
+                }
+                if (kept.size() > 0) {
+                    pruned.setItem(entry.getKey(), kept);
+                }
+            } else {
+                // ProcSet and anything unknown is kept as is
+                pruned.setItem(entry.getKey(), value);
+            }
+        }
+        return pruned;
+    }
+
+    /**
+     * Collect every name operand of a content stream, following forms that
+     * inherit the given resources
+     */
+    private static void collectNames(PDContentStream content, PDResources resources, Set<COSName> used,
+            Set<COSStream> visitedForms) throws IOException {
+        PDFStreamParser parser = new PDFStreamParser(content);
+        COSName lastName = null;
+        Object token;
+        while ((token = parser.parseNextToken()) != null) {
+            if (token instanceof COSName name) {
+                used.add(name);
+                lastName = name;
+            } else if (token instanceof Operator operator) {
+                if (operator.getImageParameters() != null) {
+                    // Inline images may name a colour space resource
+                    for (COSBase value : operator.getImageParameters().getValues()) {
+                        if (value instanceof COSName name) {
+                            used.add(name);
+                        }
+                    }
+                }
+                if (lastName != null) {
+                    switch (operator.getName()) {
+                        case "Do" -> {
+                            PDXObject xobj = resources.getXObject(lastName);
+                            if (xobj instanceof PDFormXObject form) {
+                                collectInherited(form.getCOSObject(), resources, used, visitedForms);
+                            }
+                        }
+                        case "Tf" -> collectGlyphNames(resource(resources, COSName.FONT, lastName), resources,
+                                used, visitedForms);
+                        case "gs" -> collectSoftMaskNames(resource(resources, COSName.EXT_G_STATE, lastName),
+                                resources, used, visitedForms);
+                        default -> {
+                        }
+                    }
+                }
+                lastName = null;
+            }
+        }
+    }
+
+    /**
+     * Scan the glyph procedures of a Type3 font that has no resources of its
+     * own
+     */
+    private static void collectGlyphNames(COSDictionary font, PDResources resources, Set<COSName> used,
+            Set<COSStream> visitedForms) throws IOException {
+        if (font == null || !COSName.TYPE3.equals(font.getCOSName(COSName.SUBTYPE))
+                || font.getItem(COSName.RESOURCES) != null)
+            return;
+        COSDictionary charProcs = font.getCOSDictionary(COSName.CHAR_PROCS);
+        if (charProcs == null)
+            return;
+        for (COSBase value : charProcs.getValues()) {
+            COSBase resolved = value instanceof COSObject ref ? ref.getObject() : value;
+            if (resolved instanceof COSStream proc) {
+                collectInherited(proc, resources, used, visitedForms);
+            }
+        }
+    }
+
+    /**
+     * Scan the transparency group of a soft mask set by a graphics state
+     */
+    private static void collectSoftMaskNames(COSDictionary extGState, PDResources resources, Set<COSName> used,
+            Set<COSStream> visitedForms) throws IOException {
+        COSDictionary softMask = extGState != null ? extGState.getCOSDictionary(COSName.SMASK) : null;
+        if (softMask != null) {
+            collectInherited(softMask.getCOSStream(COSName.G), resources, used, visitedForms);
+        }
+    }
+
+    /**
+     * Scan the normal, rollover and down appearances of an annotation; each is
+     * either a stream or a dictionary of streams by appearance state
+     */
+    private static void collectAppearanceNames(COSDictionary appearance, PDResources resources, Set<COSName> used,
+            Set<COSStream> visitedForms) throws IOException {
+        if (appearance == null)
+            return;
+        for (COSName key : List.of(COSName.N, COSName.R, COSName.D)) {
+            COSBase entry = appearance.getDictionaryObject(key);
+            if (entry instanceof COSStream stream) {
+                collectInherited(stream, resources, used, visitedForms);
+            } else if (entry instanceof COSDictionary states) {
+                for (COSBase value : states.getValues()) {
+                    COSBase resolved = value instanceof COSObject ref ? ref.getObject() : value;
+                    if (resolved instanceof COSStream stream) {
+                        collectInherited(stream, resources, used, visitedForms);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Scan a content stream that has no resources of its own, once
+     */
+    private static void collectInherited(COSStream stream, PDResources resources, Set<COSName> used,
+            Set<COSStream> visitedForms) throws IOException {
+        if (stream != null && stream.getItem(COSName.RESOURCES) == null && visitedForms.add(stream)) {
+            collectNames(new PDFormXObject(stream), resources, used, visitedForms);
+        }
+    }
+
+    private static COSDictionary resource(PDResources resources, COSName category, COSName name) {
+        COSDictionary entries = resources.getCOSObject().getCOSDictionary(category);
+        return entries != null ? entries.getCOSDictionary(name) : null;
+    }
+
+    private static int countEntries(COSDictionary resources) {
+        int count = 0;
+        for (COSName category : NAMED_CATEGORIES) {
+            if (resources.getDictionaryObject(category) instanceof COSDictionary dict
+                    && !(dict instanceof COSStream)) {
+                count += dict.size();
+            }
+        }
+        return count;
+    }
+}
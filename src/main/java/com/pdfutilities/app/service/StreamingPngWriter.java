@@ -0,0 +1,331 @@
+package com.pdfutilities.app.service;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * PNG encoder that accepts the image row by row, so an arbitrarily tall image
+ * can be written without ever holding it in memory. Dimensions are fixed up
+ * front; rows are filtered (None/Sub/Up, chosen per row), deflated and emitted
+ * as a sequence of IDAT chunks.
+ *
+ * The image is only completed by {@link #finish()}; closing the writer without
+ * finishing it (e.g. after a rendering error) deletes the partial file.
+ */
+final class StreamingPngWriter implements Closeable {
+
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+    private static final int IDAT_CHUNK_SIZE = 64 * 1024;
+    private static final int WHITE = 0xFF;
+
+    private final File file;
+    private final DataOutputStream out;
+    private final int width;
+    private final int height;
+    private final int channels;
+    private final Deflater deflater;
+    private final DeflaterOutputStream idat;
+
+    private byte[] previousRow;
+    private byte[] currentRow;
+    private final byte[] candidate;
+    private final byte[] best;
+    private int[] samples;
+    private int rowsWritten;
+    private boolean finished;
+    private boolean closed;
+
+    /**
+     * Create the file and write the PNG header
+     *
+     * @param file      output file
+     * @param width     image width in pixels
+     * @param height    image height in pixels
+     * @param grayscale true for 8-bit gray, false for 8-bit RGB
+     * @throws IOException if the file cannot be written
+     */
+    StreamingPngWriter(File file, int width, int height, boolean grayscale) throws IOException {
+        if (width < 1 || height < 1) {
+            throw new IOException("Invalid PNG dimensions: " + width + "x" + height);
+        }
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.channels = grayscale ? 1 : 3;
+        long stride = (long) width * channels;
+        if (stride + 1 > Integer.MAX_VALUE - 8) {
+            throw new IOException("Image too wide for PNG output: " + width + " px");
+        }
+        this.previousRow = new byte[(int) stride];
+        this.currentRow = new byte[(int) stride];
+        this.candidate = new byte[(int) stride + 1];
+        this.best = new byte[(int) stride + 1];
+
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), IDAT_CHUNK_SIZE));
+        boolean ok = false;
+        try {
+            out.write(SIGNATURE);
+            DataChunkBuffer ihdr = new DataChunkBuffer(13);
+            ihdr.writeInt(width);
+            ihdr.writeInt(height);
+            ihdr.write(8); // bit depth
+            ihdr.write(grayscale ? 0 : 2); // color type
+            ihdr.write(0); // compression
+            ihdr.write(0); // filter method
+            ihdr.write(0); // no interlace
+            writeChunk("IHDR", ihdr.bytes(), ihdr.length());
+            ok = true;
+        } finally {
+            if (!ok) {
+                out.close();
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        this.idat = new DeflaterOutputStream(new IdatOutputStream(), deflater, IDAT_CHUNK_SIZE);
+    }
+
+    /**
+     * Append rows of an image. Images narrower than the PNG are padded with
+     * white on the right; wider ones are cropped.
+     *
+     * @param image the source image
+     * @param fromY first source row
+     * @param rows  number of rows to append
+     * @throws IOException on write errors or if more rows than the height are
+     *                     written
+     */
+    void writeRows(BufferedImage image, int fromY, int rows) throws IOException {
+        Raster raster = image.getRaster();
+        int copyWidth = Math.min(width, image.getWidth());
+        boolean rawSamples = raster.getNumBands() == channels && image.getColorModel().getPixelSize() == channels * 8;
+        if (samples == null || samples.length < copyWidth * channels) {
+            samples = new int[copyWidth * channels];
+        }
+        for (int y = fromY; y < fromY + rows; y++) {
+            if (rawSamples) {
+                raster.getPixels(0, y, copyWidth, 1, samples);
+                for (int i = 0; i < copyWidth * channels; i++) {
+                    currentRow[i] = (byte) samples[i];
+                }
+            } else {
+                image.getRGB(0, y, copyWidth, 1, samples, 0, copyWidth);
+                for (int x = 0; x < copyWidth; x++) {
+                    int rgb = samples[x];
+                    if (channels == 1) {
+                        int r = (rgb >> 16) & 0xFF, g = (rgb >> 8) & 0xFF, b = rgb & 0xFF;
+                        currentRow[x] = (byte) ((r * 77 + g * 150 + b * 29) >> 8);
+                    } else {
+                        currentRow[x * 3] = (byte) (rgb >> 16);
+                        currentRow[x * 3 + 1] = (byte) (rgb >> 8);
+                        currentRow[x * 3 + 2] = (byte) rgb;
+                    }
+                }
+            }
+            Arrays.fill(currentRow, copyWidth * channels, currentRow.length, (byte) WHITE);
+            emitRow();
+        }
+    }
+
+    /**
+     * Append white rows
+     *
+     * @param rows number of rows
+     * @throws IOException on write errors
+     */
+    void writeBlankRows(int rows) throws IOException {
+        for (int i = 0; i < rows; i++) {
+            Arrays.fill(currentRow, (byte) WHITE);
+            emitRow();
+        }
+    }
+
+    /**
+     * Pad any missing rows with white, finish the compressed data, write the
+     * trailer and close the file
+     *
+     * @throws IOException on write errors; the partial file is deleted
+     */
+    void finish() throws IOException {
+        if (closed) {
+            throw new IOException("PNG writer is already closed");
+        }
+        try {
+            if (rowsWritten < height) {
+                writeBlankRows(height - rowsWritten);
+            }
+            idat.finish();
+            idat.flush();
+            writeChunk("IEND", new byte[0], 0);
+            out.flush();
+            finished = true;
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Release the writer; unless {@link #finish()} completed, the partial file
+     * is deleted rather than left behind looking like a valid image
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        deflater.end();
+        try {
+            out.close();
+        } finally {
+            if (!finished) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    private void emitRow() throws IOException {
+        if (rowsWritten >= height) {
+            throw new IOException("More rows written than the declared PNG height " + height);
+        }
+        int stride = currentRow.length;
+        // Filter type 0 (None)
+        best[0] = 0;
+        System.arraycopy(currentRow, 0, best, 1, stride);
+        long bestScore = score(best, stride);
+
+        // Filter type 1 (Sub)
+        candidate[0] = 1;
+        for (int i = 0; i < stride; i++) {
+            int left = i >= channels ? currentRow[i - channels] & 0xFF : 0;
+            candidate[i + 1] = (byte) ((currentRow[i] & 0xFF) - left);
+        }
+        long subScore = score(candidate, stride);
+        if (subScore < bestScore) {
+            bestScore = subScore;
+            System.arraycopy(candidate, 0, best, 0, stride + 1);
+        }
+
+        // Filter type 2 (Up)
+        if (rowsWritten > 0) {
+            candidate[0] = 2;
+            for (int i = 0; i < stride; i++) {
+                candidate[i + 1] = (byte) ((currentRow[i] & 0xFF) - (previousRow[i] & 0xFF));
+            }
+            if (score(candidate, stride) < bestScore) {
+                System.arraycopy(candidate, 0, best, 0, stride + 1);
+            }
+        }
+
+        idat.write(best, 0, stride + 1);
+        byte[] swap = previousRow;
+        previousRow = currentRow;
+        currentRow = swap;
+        rowsWritten++;
+    }
+
+    /**
+     * Minimum sum of absolute differences heuristic from the PNG specification
+     */
+    private static long score(byte[] filtered, int stride) {
+        long sum = 0;
+        for (int i = 1; i <= stride; i++) {
+            sum += Math.abs((int) filtered[i]);
+        }
+        return sum;
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Collects deflated bytes and emits them as IDAT chunks of bounded size
+     */
+    private final class IdatOutputStream extends OutputStream {
+        private final byte[] buffer = new byte[IDAT_CHUNK_SIZE];
+        private int count;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length)
+                flushChunk();
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length)
+                    flushChunk();
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushChunk();
+        }
+
+        private void flushChunk() throws IOException {
+            if (count > 0) {
+                writeChunk("IDAT", buffer, count);
+                count = 0;
+            }
+        }
+    }
+
+    /**
+     * Small big-endian buffer for chunk payloads
+     */
+    private static final class DataChunkBuffer {
+        private final byte[] data;
+        private int length;
+
+        DataChunkBuffer(int capacity) {
+            data = new byte[capacity];
+        }
+
+        void write(int b) {
+            data[length++] = (byte) b;
+        }
+
+        void writeInt(int v) {
+            write(v >>> 24);
+            write(v >>> 16);
+            write(v >>> 8);
+            write(v);
+        }
+
+        byte[] bytes() {
+            return data;
+        }
+
+        int length() {
+            return length;
+        }
+    }
+}
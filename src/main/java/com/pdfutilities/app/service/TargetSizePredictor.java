@@ -0,0 +1,114 @@
+package com.pdfutilities.app.service;
+
+/**
+ * Size model for target-size compression
+ *
+ * Sample images are encoded at a small grid of JPEG quality / scale points.
+ * For every grid point the model keeps the encoded bytes per source pixel,
+ * summed over all samples. Predictions interpolate linearly in quality and,
+ * after normalising by scale squared (the pixel count), linearly in scale.
+ */
+final class TargetSizePredictor {
+
+    private final float[] qualities;
+    private final double[] scales;
+    private final long[][] sampleBytes;
+    private long samplePixels;
+
+    /**
+     * Constructor
+     *
+     * @param qualities ascending JPEG qualities of the grid
+     * @param scales    ascending scales of the grid
+     */
+    TargetSizePredictor(float[] qualities, double[] scales) {
+        this.qualities = qualities.clone();
+        this.scales = scales.clone();
+        this.sampleBytes = new long[qualities.length][scales.length];
+    }
+
+    float[] getQualities() {
+        return qualities.clone();
+    }
+
+    double[] getScales() {
+        return scales.clone();
+    }
+
+    /**
+     * Add one sample image
+     *
+     * @param pixels       source pixel count of the sample
+     * @param encodedBytes encoded size per [quality][scale] grid point
+     */
+    void addSample(long pixels, long[][] encodedBytes) {
+        samplePixels += pixels;
+        for (int i = 0; i < qualities.length; i++) {
+            for (int j = 0; j < scales.length; j++) {
+                sampleBytes[i][j] += encodedBytes[i][j];
+            }
+        }
+    }
+
+    boolean hasSamples() {
+        return samplePixels > 0;
+    }
+
+    /**
+     * Predict the encoded size of images totalling the given source pixels
+     *
+     * @param pixels  total source pixel count
+     * @param quality JPEG quality
+     * @param scale   downscale factor
+     * @return predicted bytes
+     */
+    long predictBytes(long pixels, float quality, double scale) {
+        if (!hasSamples() || pixels <= 0)
+            return 0L;
+        return Math.round(bytesPerPixel(quality, scale) * pixels);
+    }
+
+    private double bytesPerPixel(float quality, double scale) {
+        int qi = lowerIndex(qualities, quality);
+        int si = lowerIndex(scales, scale);
+        double qt = fraction(qualities[qi], qualities[Math.min(qi + 1, qualities.length - 1)], quality);
+        double st = fraction(scales[si], scales[Math.min(si + 1, scales.length - 1)], scale);
+
+        double low = lerp(normalised(qi, si), normalised(qi, Math.min(si + 1, scales.length - 1)), st);
+        double high = lerp(normalised(Math.min(qi + 1, qualities.length - 1), si),
+                normalised(Math.min(qi + 1, qualities.length - 1), Math.min(si + 1, scales.length - 1)), st);
+        return lerp(low, high, qt) * scale * scale;
+    }
+
+    /**
+     * Bytes per output pixel at a grid point
+     */
+    private double normalised(int qi, int si) {
+        double s = scales[si];
+        return sampleBytes[qi][si] / (double) samplePixels / (s * s);
+    }
+
+    private static int lowerIndex(float[] grid, float value) {
+        int idx = 0;
+        while (idx < grid.length - 2 && value > grid[idx + 1])
+            idx++;
+        return idx;
+    }
+
+    private static int lowerIndex(double[] grid, double value) {
+        int idx = 0;
+        while (idx < grid.length - 2 && value > grid[idx + 1])
+            idx++;
+        return idx;
+    }
+
+    private static double fraction(double from, double to, double value) {
+        if (to <= from)
+            return 0.0;
+        return Math.max(0.0, Math.min(1.0, (value - from) / (to - from)));
+    }
+
+    private static double lerp(double a, double b, double t) {
+        return a + (b - a) * t;
+    }
+}
@@ -1,16 +1,17 @@
 package com.pdfutilities.app.service;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
 import org.apache.pdfbox.text.PDFTextStripper;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.List;
 
 /**
@@ -45,39 +46,24 @@ public class TextExtractionService extends BasePDFService {
             return false;
         }
 
-        boolean allSuccessful = true;
-
-        for (File pdfFile : inputFiles) {
+        return processFiles(inputFiles, pdfFile -> {
             try {
-                String password = getPassword(pdfFile);
-
-                // Check if file is encrypted but no password provided
-                if (PdfSecurityUtils.isPasswordProtected(pdfFile) && (password == null || password.trim().isEmpty())) {
-                    System.err.println("Skipping encrypted file " + pdfFile.getName() + " - no password provided");
-                    allSuccessful = false;
-                    continue; // Skip this file instead of failing
-                }
-
-                PDDocument document;
-                if (password != null && !password.trim().isEmpty()) {
-                    document = Loader.loadPDF(pdfFile, password);
-                    // Remove encryption dictionary for text extraction
-                    document.setAllSecurityToBeRemoved(true);
-                } else {
-                    document = Loader.loadPDF(pdfFile);
+                // Open once; encrypted files without a password are skipped
+                PDDocument document = openDocument(pdfFile);
+                if (document == null) {
+                    return false; // Skip this file instead of failing
                 }
                 try {
                     extractContent(pdfFile, outputDirectory, document);
                 } finally {
                     document.close();
                 }
+                return true;
             } catch (Exception e) {
                 System.err.println("Error extracting from " + pdfFile.getName() + ": " + e.getMessage());
-                allSuccessful = false;
+                return false;
             }
-        }
-
-        return allSuccessful;
+        });
     }
 
     /**
@@ -112,7 +98,7 @@ public class TextExtractionService extends BasePDFService {
      */
     private void extractText(PDDocument document, String baseName, String outputDirectory) throws IOException {
         PDFTextStripper stripper = new PDFTextStripper();
-        String text = stripper.getText(document);
+        String text = runCpuBound(() -> stripper.getText(document));
 
         // Save text to file
         String outputFileName = baseName + "_extracted.txt";
@@ -144,13 +130,20 @@ public class TextExtractionService extends BasePDFService {
                     if (xobject instanceof PDImageXObject) {
                         PDImageXObject image = (PDImageXObject) xobject;
                         imageCount++;
-                        BufferedImage bufferedImage = image.getImage();
+
+                        // Decode and PNG-encode on the CPU stage, write on the calling thread
+                        byte[] pngBytes = runCpuBound(() -> {
+                            BufferedImage bufferedImage = image.getImage();
+                            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                            ImageIO.write(bufferedImage, "PNG", baos);
+                            return baos.toByteArray();
+                        });
 
                         // Save image to file
                         String imageFileName = baseName + "_image_" + imageCount + ".png";
                         File imageFile = new File(outputDirectory, imageFileName);
 
-                        ImageIO.write(bufferedImage, "PNG", imageFile);
+                        Files.write(imageFile.toPath(), pngBytes);
                         System.out.println("Extracted image to " + imageFile.getName());
                     }
                 }
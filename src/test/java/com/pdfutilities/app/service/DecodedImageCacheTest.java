@@ -0,0 +1,54 @@
+package com.pdfutilities.app.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+class DecodedImageCacheTest {
+
+    // 100 x 100 TYPE_INT_RGB
+    private static final long IMAGE_BYTES = 100 * 100 * 4;
+
+    @Test
+    void heapUseIsCountedAcrossCaches() throws IOException {
+        long before = DecodedImageCache.sharedHeapBytes();
+        try (DecodedImageCache first = new DecodedImageCache(Long.MAX_VALUE);
+                DecodedImageCache second = new DecodedImageCache(Long.MAX_VALUE)) {
+            first.put("a", image(0x112233));
+            second.put("b", image(0x445566));
+            assertEquals(before + 2 * IMAGE_BYTES, DecodedImageCache.sharedHeapBytes());
+        }
+        assertEquals(before, DecodedImageCache.sharedHeapBytes());
+    }
+
+    @Test
+    void imagesBeyondTheBudgetAreSpilledAndReloaded() throws IOException {
+        long before = DecodedImageCache.sharedHeapBytes();
+        try (DecodedImageCache cache = new DecodedImageCache(IMAGE_BYTES)) {
+            cache.put("a", image(0x112233));
+            cache.put("b", image(0x445566));
+            // Only the latest image stays on the heap
+            assertEquals(before + IMAGE_BYTES, DecodedImageCache.sharedHeapBytes());
+
+            BufferedImage reloaded = cache.get("a");
+            assertNotNull(reloaded);
+            assertEquals(0x112233, reloaded.getRGB(50, 50) & 0xFFFFFF);
+            assertEquals(before + IMAGE_BYTES, DecodedImageCache.sharedHeapBytes());
+        }
+        assertEquals(before, DecodedImageCache.sharedHeapBytes());
+    }
+
+    private static BufferedImage image(int rgb) {
+        BufferedImage image = new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 100; y++) {
+            for (int x = 0; x < 100; x++) {
+                image.setRGB(x, y, rgb);
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,153 @@
+package com.pdfutilities.app.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.Test;
+
+import com.pdfutilities.app.service.ImageColorClassifier.ColorClass;
+
+class ImageColorClassifierTest {
+
+    @Test
+    void twoLevelImageIsBilevelWithTheThresholdInTheGap() {
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_BYTE_GRAY);
+        for (int y = 0; y < 64; y++) {
+            for (int x = 0; x < 64; x++) {
+                image.getRaster().setSample(x, y, 0, (x / 8 + y / 8) % 2 == 0 ? 30 : 220);
+            }
+        }
+        ImageColorClassifier.Classification result = ImageColorClassifier.classify(image);
+        assertEquals(ColorClass.BILEVEL, result.colorClass());
+        // Every threshold from 30 to 219 separates the classes equally well
+        assertEquals((30 + 219) / 2, result.threshold());
+    }
+
+    @Test
+    void unevenClassesMoveTheOtsuThreshold() {
+        BufferedImage image = new BufferedImage(100, 1, BufferedImage.TYPE_BYTE_GRAY);
+        for (int x = 0; x < 100; x++) {
+            // Mostly paper at 250, some ink at 10 and a faint 40 smudge
+            image.getRaster().setSample(x, 0, 0, x < 10 ? 10 : x < 20 ? 40 : 250);
+        }
+        ImageColorClassifier.Classification result = ImageColorClassifier.classify(image);
+        assertEquals(ColorClass.BILEVEL, result.colorClass());
+        assertEquals((40 + 249) / 2, result.threshold());
+    }
+
+    @Test
+    void antiAliasedEdgesStayBilevelButMidtonesMakeItGray() {
+        assertEquals(ColorClass.BILEVEL, ImageColorClassifier.classify(withMidtones(1)).colorClass());
+        assertEquals(ColorClass.GRAY, ImageColorClassifier.classify(withMidtones(5)).colorClass());
+    }
+
+    @Test
+    void scannerFringesAreToleratedInAGrayImage() {
+        // 4 chromatic samples in 1000 (0.4%) stay within the tolerance, 6 do not
+        assertEquals(ColorClass.GRAY, ImageColorClassifier.classify(grayWithColorPixels(4)).colorClass());
+        assertEquals(ColorClass.COLOR, ImageColorClassifier.classify(grayWithColorPixels(6)).colorClass());
+    }
+
+    @Test
+    void imageWithAlphaIsColor() {
+        BufferedImage image = new BufferedImage(8, 8, BufferedImage.TYPE_INT_ARGB);
+        assertEquals(ColorClass.COLOR, ImageColorClassifier.classify(image).colorClass());
+    }
+
+    @Test
+    void singlePixelImageIsClassified() {
+        BufferedImage image = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, 0xFFFFFF);
+        assertEquals(ColorClass.BILEVEL, ImageColorClassifier.classify(image).colorClass());
+        image.setRGB(0, 0, 0xFF0000);
+        assertEquals(ColorClass.COLOR, ImageColorClassifier.classify(image).colorClass());
+    }
+
+    @Test
+    void largeImagesAreSampledOnAGrid() {
+        // 1024 x 1024 exceeds the sample cap, so every second row and column
+        // is read. Colour only on the skipped pixels goes unnoticed.
+        BufferedImage image = new BufferedImage(1024, 1024, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 1024; y++) {
+            for (int x = 0; x < 1024; x++) {
+                boolean sampled = x % 2 == 0 && y % 2 == 0;
+                image.setRGB(x, y, sampled ? (x < 512 ? 0x000000 : 0xFFFFFF) : 0xFF0000);
+            }
+        }
+        assertEquals(ColorClass.BILEVEL, ImageColorClassifier.classify(image).colorClass());
+
+        // Colour on a sampled pixel row is found
+        for (int x = 0; x < 1024; x += 2) {
+            image.setRGB(x, 0, 0x0000FF);
+            image.setRGB(x, 2, 0x0000FF);
+            image.setRGB(x, 4, 0x0000FF);
+        }
+        assertEquals(ColorClass.COLOR, ImageColorClassifier.classify(image).colorClass());
+    }
+
+    @Test
+    void grayViewOfAWiderImageIsReadRowByRow() {
+        BufferedImage parent = new BufferedImage(40, 10, BufferedImage.TYPE_BYTE_GRAY);
+        for (int y = 0; y < 10; y++) {
+            for (int x = 0; x < 40; x++) {
+                parent.getRaster().setSample(x, y, 0, x < 20 ? 128 : (x + y) % 2 == 0 ? 0 : 255);
+            }
+        }
+        // The right half is black and white only; the left half is mid gray
+        assertEquals(ColorClass.BILEVEL,
+                ImageColorClassifier.classify(parent.getSubimage(20, 0, 20, 10)).colorClass());
+    }
+
+    @Test
+    void conversionsFollowTheThreshold() {
+        BufferedImage image = new BufferedImage(3, 1, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, 0x101010);
+        image.setRGB(1, 0, 0x808080);
+        image.setRGB(2, 0, 0xF0F0F0);
+
+        BufferedImage gray = ImageColorClassifier.toGray(image);
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, gray.getType());
+        assertEquals(0x80, gray.getRaster().getSample(1, 0, 0));
+        assertSame(gray, ImageColorClassifier.toGray(gray));
+
+        BufferedImage bilevel = ImageColorClassifier.toBilevel(image, 0x80);
+        assertEquals(BufferedImage.TYPE_BYTE_BINARY, bilevel.getType());
+        assertEquals(0, bilevel.getRaster().getSample(0, 0, 0));
+        // Values equal to the threshold become black
+        assertEquals(0, bilevel.getRaster().getSample(1, 0, 0));
+        assertEquals(1, bilevel.getRaster().getSample(2, 0, 0));
+    }
+
+    /**
+     * Black and white halves with a given percentage of mid-gray samples
+     */
+    private static BufferedImage withMidtones(int percent) {
+        BufferedImage image = new BufferedImage(100, 10, BufferedImage.TYPE_BYTE_GRAY);
+        for (int y = 0; y < 10; y++) {
+            for (int x = 0; x < 100; x++) {
+                int value = x < percent ? 128 : x < 50 ? 0 : 255;
+                image.getRaster().setSample(x, y, 0, value);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * 1000 gray samples of which a given number are saturated red
+     */
+    private static BufferedImage grayWithColorPixels(int colored) {
+        BufferedImage image = new BufferedImage(100, 10, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 10; y++) {
+            for (int x = 0; x < 100; x++) {
+                int v = (x * 255) / 99;
+                image.setRGB(x, y, v << 16 | v << 8 | v);
+            }
+        }
+        for (int i = 0; i < colored; i++) {
+            image.setRGB(i * 10, i % 10, 0xFF0000);
+        }
+        return image;
+    }
+}
@@ -0,0 +1,111 @@
+package com.pdfutilities.app.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDFormContentStream;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.util.Matrix;
+import org.junit.jupiter.api.Test;
+
+class ImagePlacementScannerTest {
+
+    private static final double DELTA = 1e-3;
+
+    @Test
+    void plainPlacement() throws IOException {
+        assertArrayEquals(new double[] { 100, 50 }, placedSize(new Matrix(100, 0, 0, 50, 10, 10)), DELTA);
+    }
+
+    @Test
+    void mirroredPlacementKeepsItsSize() throws IOException {
+        // -1 0 0 1 mirror combined with the image size
+        assertArrayEquals(new double[] { 100, 50 }, placedSize(new Matrix(-100, 0, 0, 50, 200, 10)), DELTA);
+    }
+
+    @Test
+    void flippedPlacementKeepsItsSize() throws IOException {
+        assertArrayEquals(new double[] { 100, 50 }, placedSize(new Matrix(100, 0, 0, -50, 10, 200)), DELTA);
+    }
+
+    @Test
+    void rotatedPlacementMeasuresTheImageAxes() throws IOException {
+        // Rotated by 90 degrees: the image x axis points up the page
+        assertArrayEquals(new double[] { 100, 50 }, placedSize(new Matrix(0, 100, -50, 0, 300, 10)), DELTA);
+    }
+
+    @Test
+    void largestPlacementWinsPerAxis() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDImageXObject image = image(doc);
+            PDPage page = new PDPage();
+            doc.addPage(page);
+            try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                cs.drawImage(image, new Matrix(100, 0, 0, 50, 0, 0));
+                cs.drawImage(image, new Matrix(-200, 0, 0, 20, 400, 100));
+            }
+            assertArrayEquals(new double[] { 200, 50 }, scan(doc).get(image.getCOSObject()), DELTA);
+        }
+    }
+
+    @Test
+    void placementInsideFormUsesTheFormMatrix() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDImageXObject image = image(doc);
+            PDFormXObject form = new PDFormXObject(doc);
+            form.setBBox(new PDRectangle(100, 100));
+            form.setResources(new PDResources());
+            form.setMatrix(new Matrix(-2, 0, 0, 2, 0, 0).createAffineTransform());
+            try (PDFormContentStream cs = new PDFormContentStream(form)) {
+                cs.drawImage(image, new Matrix(10, 0, 0, 10, 0, 0));
+            }
+            PDPage page = new PDPage();
+            doc.addPage(page);
+            try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                cs.drawForm(form);
+            }
+            assertArrayEquals(new double[] { 20, 20 }, scan(doc).get(image.getCOSObject()), DELTA);
+        }
+    }
+
+    @Test
+    void unusedImageIsNotReported() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDImageXObject image = image(doc);
+            doc.addPage(new PDPage());
+            assertNull(scan(doc).get(image.getCOSObject()));
+        }
+    }
+
+    private static double[] placedSize(Matrix placement) throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDImageXObject image = image(doc);
+            PDPage page = new PDPage();
+            doc.addPage(page);
+            try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                cs.drawImage(image, placement);
+            }
+            return scan(doc).get(image.getCOSObject());
+        }
+    }
+
+    private static Map<COSStream, double[]> scan(PDDocument doc) {
+        return new ImagePlacementScanner().scan(doc);
+    }
+
+    private static PDImageXObject image(PDDocument doc) throws IOException {
+        return LosslessFactory.createFromImage(doc, new BufferedImage(4, 2, BufferedImage.TYPE_INT_RGB));
+    }
+}
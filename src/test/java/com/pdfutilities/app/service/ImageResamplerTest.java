@@ -0,0 +1,139 @@
+package com.pdfutilities.app.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.Test;
+
+import com.pdfutilities.app.service.ImageResampler.Method;
+
+class ImageResamplerTest {
+
+    @Test
+    void fractionalCoverageIsWeightedByArea() {
+        // 3 -> 2 pixels: each output covers 1.5 source pixels
+        BufferedImage source = gray(3, 1, 0, 90, 180);
+        BufferedImage result = ImageResampler.resize(source, 2, 1, Method.AREA_AVERAGE);
+        assertEquals(30, result.getRaster().getSample(0, 0, 0)); // (0 * 1 + 90 * 0.5) / 1.5
+        assertEquals(150, result.getRaster().getSample(1, 0, 0)); // (90 * 0.5 + 180 * 1) / 1.5
+    }
+
+    @Test
+    void weightsSumToOneForOddSizes() {
+        for (int src = 1; src <= 23; src++) {
+            for (int dst = 1; dst <= src; dst++) {
+                BufferedImage source = solid(src, src, 0xC86432);
+                BufferedImage result = ImageResampler.resize(source, dst, Math.max(1, dst - 1), Method.AREA_AVERAGE);
+                for (int y = 0; y < result.getHeight(); y++) {
+                    for (int x = 0; x < result.getWidth(); x++) {
+                        assertEquals(0xC86432, result.getRGB(x, y) & 0xFFFFFF, src + " -> " + dst + " at " + x + "," + y);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void everyMethodProducesTheRequestedSize() {
+        BufferedImage source = solid(101, 37, 0x808080);
+        for (Method method : Method.values()) {
+            BufferedImage result = ImageResampler.resize(source, 13, 5, method);
+            assertEquals(13, result.getWidth(), method.name());
+            assertEquals(5, result.getHeight(), method.name());
+        }
+    }
+
+    @Test
+    void grayStaysGrayAndColorBecomesRgb() {
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY,
+                ImageResampler.scale(gray(8, 1, 0, 0, 0, 0, 0, 0, 0, 0), 0.5, Method.AREA_AVERAGE).getType());
+        BufferedImage rgb = new BufferedImage(8, 8, BufferedImage.TYPE_3BYTE_BGR);
+        assertEquals(BufferedImage.TYPE_INT_RGB, ImageResampler.scale(rgb, 0.5, Method.AREA_AVERAGE).getType());
+    }
+
+    @Test
+    void alphaIsPreserved() {
+        BufferedImage source = new BufferedImage(2, 2, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 2; x++) {
+                source.setRGB(x, y, 0x80FFFFFF);
+            }
+        }
+        BufferedImage result = ImageResampler.resize(source, 1, 1, Method.AREA_AVERAGE);
+        assertEquals(BufferedImage.TYPE_INT_ARGB, result.getType());
+        assertEquals(0x80FFFFFF, result.getRGB(0, 0));
+    }
+
+    @Test
+    void transparentNeighboursDoNotDarkenOpaquePixels() {
+        // Opaque white next to fully transparent black
+        BufferedImage source = new BufferedImage(2, 1, BufferedImage.TYPE_INT_ARGB);
+        source.setRGB(0, 0, 0xFFFFFFFF);
+        source.setRGB(1, 0, 0x00000000);
+        BufferedImage result = ImageResampler.resize(source, 1, 1, Method.AREA_AVERAGE);
+        assertEquals(128, result.getRGB(0, 0) >>> 24);
+        assertEquals(0xFFFFFF, result.getRGB(0, 0) & 0xFFFFFF);
+    }
+
+    @Test
+    void everyMethodKeepsAlpha() {
+        BufferedImage source = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < 64; y++) {
+            for (int x = 0; x < 64; x++) {
+                source.setRGB(x, y, x < 32 ? 0x00000000 : 0xFF3366CC);
+            }
+        }
+        for (Method method : Method.values()) {
+            BufferedImage result = ImageResampler.resize(source, 16, 16, method);
+            assertEquals(BufferedImage.TYPE_INT_ARGB, result.getType(), method.name());
+            assertEquals(0, result.getRGB(0, 8) >>> 24, method.name());
+            assertEquals(0xFF3366CC, result.getRGB(15, 8), method.name());
+        }
+    }
+
+    @Test
+    void subimagesOfWiderImagesAreReadRowByRow() {
+        // Left half black, right half white; the subimage is the black half
+        BufferedImage wideGray = new BufferedImage(8, 4, BufferedImage.TYPE_BYTE_GRAY);
+        BufferedImage wideRgb = new BufferedImage(8, 4, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 8; x++) {
+                wideGray.getRaster().setSample(x, y, 0, x < 4 ? 0 : 255);
+                wideRgb.setRGB(x, y, x < 4 ? 0 : 0xFFFFFF);
+            }
+        }
+        for (BufferedImage wide : new BufferedImage[] { wideGray, wideRgb }) {
+            BufferedImage result = ImageResampler.resize(wide.getSubimage(0, 0, 4, 4), 2, 2, Method.AREA_AVERAGE);
+            for (int y = 0; y < 2; y++) {
+                for (int x = 0; x < 2; x++) {
+                    assertEquals(0, result.getRGB(x, y) & 0xFFFFFF, "type " + wide.getType() + " at " + x + "," + y);
+                }
+            }
+        }
+    }
+
+    @Test
+    void noUpscaling() {
+        BufferedImage source = solid(4, 4, 0);
+        assertSame(source, ImageResampler.scale(source, 1.0, Method.AREA_AVERAGE));
+        assertSame(source, ImageResampler.resize(source, 8, 4, Method.PROGRESSIVE_BILINEAR));
+    }
+
+    private static BufferedImage gray(int width, int height, int... samples) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        image.getRaster().setSamples(0, 0, width, height, 0, samples);
+        return image;
+    }
+
+    private static BufferedImage solid(int width, int height, int rgb) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, rgb);
+            }
+        }
+        return image;
+    }
+}
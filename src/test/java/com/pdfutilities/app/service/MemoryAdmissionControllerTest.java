@@ -0,0 +1,121 @@
+package com.pdfutilities.app.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MemoryAdmissionControllerTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void streamsCachedOnDiskLowerTheEstimate() throws IOException {
+        File file = tempDir.resolve("big.pdf").toFile();
+        Files.write(file.toPath(), new byte[8 * 1024 * 1024]);
+        long heap = MemoryAdmissionController.estimateCost(file, 1, Long.MAX_VALUE);
+        long mixed = MemoryAdmissionController.estimateCost(file, 1, 1024 * 1024);
+        long disk = MemoryAdmissionController.estimateCost(file, 1, 0);
+
+        assertEquals(heap, MemoryAdmissionController.estimateCost(file));
+        assertEquals(file.length() - 1024 * 1024, heap - mixed);
+        assertEquals(file.length(), heap - disk);
+        assertTrue(disk < mixed);
+    }
+
+    @Test
+    void smallJobIsAdmittedWhileALargerOneWaits() throws Exception {
+        MemoryAdmissionController controller = new MemoryAdmissionController(100);
+        long running = controller.acquire(60);
+        List<String> admitted = new CopyOnWriteArrayList<>();
+        Thread large = admit(controller, 80, "large", admitted);
+        awaitWaiting(large);
+
+        // Fits next to the running job, so it does not queue behind the large one
+        long small = controller.acquire(30);
+        assertEquals(30, small);
+        assertEquals(5, controller.tryAcquire(5));
+        assertTrue(admitted.isEmpty());
+
+        controller.release(running);
+        controller.release(small);
+        controller.release(5);
+        large.join(5000);
+        assertEquals(List.of("large"), admitted);
+        assertEquals(80, controller.getAdmittedBytes());
+    }
+
+    @Test
+    void waitingJobIsOvertakenOnlyABoundedNumberOfTimes() throws Exception {
+        MemoryAdmissionController controller = new MemoryAdmissionController(100);
+        long running = controller.acquire(60);
+        List<String> admitted = new CopyOnWriteArrayList<>();
+        Thread large = admit(controller, 80, "large", admitted);
+        awaitWaiting(large);
+        for (int i = 0; i < MemoryAdmissionController.MAX_BYPASSES; i++) {
+            controller.release(controller.acquire(10));
+        }
+
+        // The limit is reached: small jobs now wait for the large one
+        assertEquals(-1L, controller.tryAcquire(30));
+        Thread small = admit(controller, 30, "small", admitted);
+        awaitWaiting(small);
+        controller.release(running);
+        large.join(5000);
+        assertEquals(List.of("large"), admitted);
+        controller.release(80);
+        small.join(5000);
+        assertEquals(List.of("large", "small"), admitted);
+    }
+
+    @Test
+    void interruptedWaiterLetsTheNextOneIn() throws Exception {
+        MemoryAdmissionController controller = new MemoryAdmissionController(100);
+        long running = controller.acquire(60);
+        List<String> admitted = new CopyOnWriteArrayList<>();
+        Thread large = admit(controller, 80, "large", admitted);
+        awaitWaiting(large);
+        for (int i = 0; i < MemoryAdmissionController.MAX_BYPASSES; i++) {
+            controller.release(controller.acquire(10));
+        }
+        Thread small = admit(controller, 10, "small", admitted);
+        awaitWaiting(small);
+
+        large.interrupt();
+        large.join(5000);
+        small.join(5000);
+        assertEquals(List.of("small"), admitted);
+        assertEquals(running + 10, controller.getAdmittedBytes());
+    }
+
+    private static Thread admit(MemoryAdmissionController controller, long cost, String name,
+            List<String> admitted) {
+        Thread thread = new Thread(() -> {
+            try {
+                controller.acquire(cost);
+                admitted.add(name);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, name);
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (thread.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(Thread.State.WAITING, thread.getState());
+    }
+}
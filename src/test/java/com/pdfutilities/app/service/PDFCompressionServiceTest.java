@@ -0,0 +1,492 @@
+package com.pdfutilities.app.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BiConsumer;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDFormContentStream;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDPageContentStream.AppendMode;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.pdmodel.graphics.optionalcontent.PDOptionalContentGroup;
+import org.apache.pdfbox.pdmodel.graphics.optionalcontent.PDOptionalContentProperties;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.util.Matrix;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PDFCompressionServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void identicalImagesInDifferentLayersAreNotMerged() throws IOException {
+        File source = twoCopies(true);
+        try (PDDocument out = compress(source)) {
+            COSStream plain = imageOf(out.getPage(0));
+            COSStream layered = imageOf(out.getPage(1));
+            assertNull(plain.getDictionaryObject(COSName.OC));
+            COSBase group = layered.getDictionaryObject(COSName.OC);
+            assertNotNull(group, "image left its optional content group");
+            assertEquals("Hidden", ((COSDictionary) group).getString(COSName.NAME));
+            assertTrue(layered.getBoolean(COSName.INTERPOLATE, false));
+        }
+    }
+
+    @Test
+    void identicalImagesWithDifferentStructParentsAreNotMerged() throws IOException {
+        File source = twoCopies(false, (page, image) -> image.setStructParent(page));
+        try (PDDocument out = compress(source)) {
+            COSStream first = imageOf(out.getPage(0));
+            COSStream second = imageOf(out.getPage(1));
+            assertNotSame(first, second);
+            assertEquals(0, first.getInt(COSName.STRUCT_PARENT));
+            assertEquals(1, second.getInt(COSName.STRUCT_PARENT));
+        }
+    }
+
+    @Test
+    void identicalImagesWithoutPresentationEntriesAreMerged() throws IOException {
+        File source = twoCopies(false);
+        try (PDDocument out = compress(source)) {
+            assertSame(imageOf(out.getPage(0)), imageOf(out.getPage(1)));
+        }
+    }
+
+    @Test
+    void downscaledTransparentImageKeepsItsSoftMask() throws IOException {
+        File file = tempDir.resolve("doc.pdf").toFile();
+        BufferedImage pixels = photo(512, 512);
+        BufferedImage transparent = new BufferedImage(512, 512, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < 512; y++) {
+            for (int x = 0; x < 512; x++) {
+                int alpha = x < 256 ? 0 : 0xFF;
+                transparent.setRGB(x, y, alpha << 24 | pixels.getRGB(x, y) & 0xFFFFFF);
+            }
+        }
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = new PDPage();
+            doc.addPage(page);
+            try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                // 512 px over 128 pt is 288 DPI, well above the level's target
+                cs.drawImage(LosslessFactory.createFromImage(doc, transparent), 50, 50, 128, 128);
+            }
+            doc.save(file);
+        }
+        try (PDDocument out = compress(file)) {
+            COSStream image = imageOf(out.getPage(0));
+            assertEquals(COSName.DCT_DECODE, image.getFilters());
+            assertTrue(image.getInt(COSName.WIDTH) < 512, "image should be downscaled");
+            assertNotNull(image.getDictionaryObject(COSName.SMASK), "transparency was flattened");
+        }
+    }
+
+    @Test
+    void targetSizeRunWithBilevelAndPhotoImages() throws IOException {
+        File file = tempDir.resolve("doc.pdf").toFile();
+        BufferedImage scan = new BufferedImage(600, 800, BufferedImage.TYPE_BYTE_BINARY);
+        for (int y = 0; y < 800; y++) {
+            for (int x = 0; x < 600; x++) {
+                scan.setRGB(x, y, (x / 20 + y / 20) % 2 == 0 ? 0xFFFFFF : 0);
+            }
+        }
+        try (PDDocument doc = new PDDocument()) {
+            for (BufferedImage pixels : new BufferedImage[] { scan, photo(400, 400), photo(300, 200) }) {
+                PDPage page = new PDPage();
+                doc.addPage(page);
+                try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                    cs.drawImage(LosslessFactory.createFromImage(doc, pixels), 0, 0, 300, 400);
+                }
+            }
+            doc.save(file);
+        }
+        PDFCompressionService service = new PDFCompressionService();
+        service.setMetadataCache(null);
+        service.setAdmissionController(null);
+        service.setTargetSizeBytes(file.length() / 3);
+        File outputDir = tempDir.resolve("out").toFile();
+        assertTrue(service.execute(List.of(file), outputDir.getAbsolutePath()));
+        File out = new File(outputDir, "doc_compressed.pdf");
+        assertTrue(out.length() < file.length());
+        try (PDDocument compressed = Loader.loadPDF(out)) {
+            assertEquals(3, compressed.getNumberOfPages());
+        }
+    }
+
+    @Test
+    void parallelFilesEncodeTheirImagesSequentially() throws IOException {
+        File first = twoCopies(false);
+        File second = tempDir.resolve("copy.pdf").toFile();
+        Files.copy(first.toPath(), second.toPath());
+        PDFCompressionService service = new PDFCompressionService(PDFCompressionService.CompressionLevel.LOW);
+        service.setMetadataCache(null);
+        service.setAdmissionController(null);
+        service.setParallelism(2);
+        service.setEncodeParallelism(4);
+        String outputDir = tempDir.resolve("out").toFile().getAbsolutePath();
+
+        assertTrue(service.execute(List.of(first), outputDir));
+        assertEquals(8, service.decodedImagesPerFile());
+        assertTrue(service.execute(List.of(first, second), outputDir));
+        assertEquals(1, service.decodedImagesPerFile());
+    }
+
+    @Test
+    void structureModeRedeflatesContentLosslessly() throws IOException {
+        File source = tempDir.resolve("doc.pdf").toFile();
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = new PDPage();
+            doc.addPage(page);
+            try (PDPageContentStream cs = new PDPageContentStream(doc, page, AppendMode.OVERWRITE, false)) {
+                for (int i = 0; i < 400; i++) {
+                    cs.setNonStrokingColor((i % 7) / 7f, (i % 5) / 5f, (i % 3) / 3f);
+                    cs.addRect(20 + i % 20 * 28, 20 + i / 20 * 36, 24, 30);
+                    cs.fill();
+                }
+            }
+            doc.save(source);
+        }
+        PDFCompressionService service = new PDFCompressionService(PDFCompressionService.CompressionLevel.LOW);
+        service.setCompressionMode(PDFCompressionService.CompressionMode.STRUCTURE);
+        service.setMetadataCache(null);
+        service.setAdmissionController(null);
+        File outputDir = tempDir.resolve("out").toFile();
+
+        assertTrue(service.execute(List.of(source), outputDir.getAbsolutePath()));
+        File output = new File(outputDir, "doc_compressed.pdf");
+        assertTrue(output.length() < source.length(), output.length() + " >= " + source.length());
+        try (PDDocument before = Loader.loadPDF(source); PDDocument after = Loader.loadPDF(output)) {
+            assertEquals(COSName.FLATE_DECODE,
+                    after.getPage(0).getContentStreams().next().getCOSObject().getFilters());
+            BufferedImage expected = new PDFRenderer(before).renderImage(0);
+            BufferedImage actual = new PDFRenderer(after).renderImage(0);
+            assertArrayEquals(expected.getRGB(0, 0, expected.getWidth(), expected.getHeight(), null, 0,
+                    expected.getWidth()),
+                    actual.getRGB(0, 0, actual.getWidth(), actual.getHeight(), null, 0, actual.getWidth()));
+        }
+    }
+
+    @Test
+    void imageInsideNestedFormsIsReencoded() throws IOException {
+        File source = tempDir.resolve("doc.pdf").toFile();
+        try (PDDocument doc = new PDDocument()) {
+            PDImageXObject image = LosslessFactory.createFromImage(doc, photo(256, 256));
+            PDFormXObject inner = form(doc);
+            try (PDFormContentStream cs = new PDFormContentStream(inner)) {
+                cs.drawImage(image, 0, 0, 256, 256);
+            }
+            PDFormXObject outer = form(doc);
+            try (PDFormContentStream cs = new PDFormContentStream(outer)) {
+                cs.drawForm(inner);
+            }
+            PDPage page = new PDPage();
+            doc.addPage(page);
+            try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                cs.drawForm(outer);
+            }
+            doc.save(source);
+        }
+
+        try (PDDocument out = compress(source)) {
+            PDFormXObject outer = (PDFormXObject) xobjectOf(out.getPage(0).getResources());
+            PDFormXObject inner = (PDFormXObject) xobjectOf(outer.getResources());
+            PDImageXObject image = (PDImageXObject) xobjectOf(inner.getResources());
+            assertEquals(COSName.DCT_DECODE, image.getCOSObject().getFilters());
+        }
+    }
+
+    @Test
+    void rotatedPlacementDownsamplesAlongTheImageAxes() throws IOException {
+        File source = tempDir.resolve("doc.pdf").toFile();
+        try (PDDocument doc = new PDDocument()) {
+            PDImageXObject image = LosslessFactory.createFromImage(doc, photo(400, 200));
+            PDPage page = new PDPage();
+            doc.addPage(page);
+            try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                // Rotated by 90 degrees: 400 x 200 px shown at 100 x 50 pt, i.e. 288 dpi
+                cs.drawImage(image, new Matrix(0, 100, -50, 0, 300, 100));
+            }
+            doc.save(source);
+        }
+        PDFCompressionService service = new PDFCompressionService(PDFCompressionService.CompressionLevel.HIGH);
+        service.setTargetDpi(PDFCompressionService.SCREEN_DPI);
+        service.setMetadataCache(null);
+        service.setAdmissionController(null);
+        File outputDir = tempDir.resolve("out").toFile();
+
+        assertTrue(service.execute(List.of(source), outputDir.getAbsolutePath()));
+        try (PDDocument out = Loader.loadPDF(new File(outputDir, "doc_compressed.pdf"))) {
+            PDImageXObject image = (PDImageXObject) xobjectOf(out.getPage(0).getResources());
+            // 150 dpi over 100 x 50 pt; the page-axis extents (50 x 100 pt) would keep all 400 x 200 px
+            assertEquals(208, image.getWidth(), 1);
+            assertEquals(104, image.getHeight(), 1);
+        }
+    }
+
+    @Test
+    void alreadySmallJpegIsKeptByteIdentical() throws IOException {
+        File source = singleImage(doc -> JPEGFactory.createFromImage(doc, photo(256, 256), 0.1f));
+        assertImageKept(source);
+    }
+
+    @Test
+    void tinyImageIsKeptByteIdentical() throws IOException {
+        File source = singleImage(doc -> LosslessFactory.createFromImage(doc, photo(32, 32)));
+        assertImageKept(source);
+    }
+
+    @Test
+    void minImageGainDecidesWhetherAnImageIsReplaced() throws IOException {
+        File source = singleImage(doc -> JPEGFactory.createFromImage(doc, photo(256, 256), 0.75f));
+        byte[] original = rawImage(source);
+
+        try (PDDocument out = compress(source, PDFCompressionService.DEFAULT_MIN_IMAGE_GAIN)) {
+            byte[] replaced = rawImage(out);
+            assertTrue(replaced.length < original.length * 0.9, replaced.length + " vs " + original.length);
+        }
+        try (PDDocument out = compress(source, 0.9)) {
+            assertEquals(COSName.DCT_DECODE, imageOf(out.getPage(1)).getFilters());
+            assertArrayEquals(original, rawImage(out));
+        }
+    }
+
+    @Test
+    void bilevelScanIsStoredAsCcittG4() throws IOException {
+        // A black and white scan as scanners often store it: an RGB JPEG
+        BufferedImage scan = new BufferedImage(600, 800, BufferedImage.TYPE_INT_RGB);
+        scan.getGraphics().drawImage(textScan(600, 800), 0, 0, null);
+        File source = singleImage(doc -> JPEGFactory.createFromImage(doc, scan, 0.9f));
+
+        try (PDDocument out = compress(source)) {
+            COSStream image = imageOf(out.getPage(0));
+            assertEquals(COSName.CCITTFAX_DECODE, image.getFilters());
+            assertEquals(1, image.getInt(COSName.BITS_PER_COMPONENT));
+            COSDictionary parms = (COSDictionary) image.getDictionaryObject(COSName.DECODE_PARMS);
+            assertTrue(parms.getInt(COSName.K) < 0, "not Group 4");
+        }
+    }
+
+    @Test
+    void grayPhotoBecomesGrayJpeg() throws IOException {
+        BufferedImage gray = new BufferedImage(256, 256, BufferedImage.TYPE_BYTE_GRAY);
+        gray.getGraphics().drawImage(photo(256, 256), 0, 0, null);
+        File source = singleImage(doc -> LosslessFactory.createFromImage(doc, gray));
+
+        try (PDDocument out = compress(source)) {
+            PDImageXObject image = (PDImageXObject) xobjectOf(out.getPage(0).getResources());
+            assertEquals(COSName.DCT_DECODE, image.getCOSObject().getFilters());
+            assertEquals(PDDeviceGray.INSTANCE, image.getColorSpace());
+        }
+    }
+
+    @Test
+    void colorPhotoStaysRgbJpeg() throws IOException {
+        File source = singleImage(doc -> LosslessFactory.createFromImage(doc, photo(256, 256)));
+
+        try (PDDocument out = compress(source)) {
+            PDImageXObject image = (PDImageXObject) xobjectOf(out.getPage(0).getResources());
+            assertEquals(COSName.DCT_DECODE, image.getCOSObject().getFilters());
+            assertEquals(PDDeviceRGB.INSTANCE, image.getColorSpace());
+        }
+    }
+
+    private PDDocument compress(File source) throws IOException {
+        return compress(source, PDFCompressionService.DEFAULT_MIN_IMAGE_GAIN);
+    }
+
+    private PDDocument compress(File source, double minImageGain) throws IOException {
+        PDFCompressionService service = new PDFCompressionService(PDFCompressionService.CompressionLevel.LOW);
+        service.setMinImageGain(minImageGain);
+        service.setMetadataCache(null);
+        service.setAdmissionController(null);
+        File outputDir = tempDir.resolve("out").toFile();
+        assertTrue(service.execute(List.of(source), outputDir.getAbsolutePath()));
+        return Loader.loadPDF(new File(outputDir, "doc_compressed.pdf"));
+    }
+
+    /**
+     * Two pages, each drawing its own byte-identical copy of one image; the
+     * second copy is optionally in a hidden layer and interpolated
+     */
+    private File twoCopies(boolean layered) throws IOException {
+        return twoCopies(layered, (page, image) -> {
+        });
+    }
+
+    /**
+     * Like {@link #twoCopies(boolean)}, letting the caller adjust each copy
+     * before it is drawn
+     */
+    private File twoCopies(boolean layered, BiConsumer<Integer, PDImageXObject> tweak) throws IOException {
+        File file = tempDir.resolve("doc.pdf").toFile();
+        BufferedImage pixels = photo(256, 256);
+        try (PDDocument doc = new PDDocument()) {
+            PDOptionalContentGroup hidden = new PDOptionalContentGroup("Hidden");
+            if (layered) {
+                PDOptionalContentProperties properties = new PDOptionalContentProperties();
+                properties.addGroup(hidden);
+                properties.setGroupEnabled(hidden, false);
+                doc.getDocumentCatalog().setOCProperties(properties);
+            }
+            for (int p = 0; p < 2; p++) {
+                PDImageXObject image = LosslessFactory.createFromImage(doc, pixels);
+                if (layered && p == 1) {
+                    image.getCOSObject().setItem(COSName.OC, hidden);
+                    image.setInterpolate(true);
+                }
+                tweak.accept(p, image);
+                PDPage page = new PDPage();
+                doc.addPage(page);
+                try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                    cs.drawImage(image, 50, 50, 256, 256);
+                }
+            }
+            doc.save(file);
+        }
+        return file;
+    }
+
+    private static PDFormXObject form(PDDocument doc) {
+        PDFormXObject form = new PDFormXObject(doc);
+        form.setBBox(new PDRectangle(256, 256));
+        form.setResources(new PDResources());
+        return form;
+    }
+
+    private static PDXObject xobjectOf(PDResources resources) throws IOException {
+        return resources.getXObject(resources.getXObjectNames().iterator().next());
+    }
+
+    /**
+     * A first page drawing the image under test at one point per pixel, which
+     * is below the LOW level's DPI, so placement never asks for downsampling.
+     * A second page holds a lossless photo that is always worth re-encoding,
+     * so the output is a compressed document rather than a copy of the source.
+     */
+    private File singleImage(ImageFactory factory) throws IOException {
+        File file = tempDir.resolve("doc.pdf").toFile();
+        try (PDDocument doc = new PDDocument()) {
+            PDImageXObject image = factory.create(doc);
+            PDImageXObject filler = LosslessFactory.createFromImage(doc, photo(256, 256));
+            for (PDImageXObject pageImage : new PDImageXObject[] { image, filler }) {
+                PDPage page = new PDPage();
+                doc.addPage(page);
+                try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                    cs.drawImage(pageImage, 50, 50, pageImage.getWidth(), pageImage.getHeight());
+                }
+            }
+            doc.save(file);
+        }
+        return file;
+    }
+
+    @FunctionalInterface
+    private interface ImageFactory {
+        PDImageXObject create(PDDocument doc) throws IOException;
+    }
+
+    /**
+     * Compress a {@link #singleImage} document and check that the image under
+     * test keeps its stream and filter and that the file did not grow
+     */
+    private void assertImageKept(File source) throws IOException {
+        byte[] original = rawImage(source);
+        COSBase filter;
+        try (PDDocument doc = Loader.loadPDF(source)) {
+            filter = imageOf(doc.getPage(0)).getFilters();
+        }
+        try (PDDocument out = compress(source)) {
+            assertEquals(COSName.DCT_DECODE, imageOf(out.getPage(1)).getFilters());
+            assertArrayEquals(original, rawImage(out));
+            assertEquals(filter, imageOf(out.getPage(0)).getFilters());
+        }
+        File output = tempDir.resolve("out").resolve("doc_compressed.pdf").toFile();
+        assertTrue(output.length() <= source.length(), output.length() + " > " + source.length());
+    }
+
+    private static byte[] rawImage(File file) throws IOException {
+        try (PDDocument doc = Loader.loadPDF(file)) {
+            return rawImage(doc);
+        }
+    }
+
+    private static byte[] rawImage(PDDocument doc) throws IOException {
+        try (InputStream in = imageOf(doc.getPage(0)).createRawInputStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static COSStream imageOf(PDPage page) throws IOException {
+        return page.getResources().getXObject(page.getResources().getXObjectNames().iterator().next())
+                .getCOSObject();
+    }
+
+    /**
+     * Black glyph-sized marks in lines on white, like a scanned text page
+     */
+    private static BufferedImage textScan(int width, int height) {
+        BufferedImage scan = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY);
+        java.awt.Graphics2D g = scan.createGraphics();
+        g.setColor(java.awt.Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.setColor(java.awt.Color.BLACK);
+        Random random = new Random(11);
+        for (int line = 20; line < height - 20; line += 18) {
+            for (int x = 20; x < width - 30; x += 4 + random.nextInt(8)) {
+                int w = 2 + random.nextInt(6);
+                int h = 6 + random.nextInt(6);
+                g.fillRect(x, line + 12 - h, w, h);
+                x += w;
+            }
+        }
+        g.dispose();
+        return scan;
+    }
+
+    /**
+     * Smooth gradient with mild noise, which JPEG encodes far smaller than Flate
+     */
+    private static BufferedImage photo(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(7);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = Math.min(255, x + random.nextInt(8));
+                int g = Math.min(255, y + random.nextInt(8));
+                int b = Math.min(255, (x + y) / 2 + random.nextInt(8));
+                image.setRGB(x, y, r << 16 | g << 8 | b);
+            }
+        }
+        return image;
+    }
+}
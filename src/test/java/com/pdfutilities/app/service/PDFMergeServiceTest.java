@@ -0,0 +1,142 @@
+package com.pdfutilities.app.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
+import org.apache.pdfbox.pdmodel.encryption.StandardProtectionPolicy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PDFMergeServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void encryptedSourceWithoutPasswordIsSkippedOnceAndRecorded() throws IOException {
+        File first = createPdf("first.pdf", 1, null);
+        File locked = createPdf("locked.pdf", 1, "secret");
+        File last = createPdf("last.pdf", 2, null);
+        PdfMetadataCache cache = new PdfMetadataCache(tempDir.resolve("cache.ser"), 100);
+        List<String> events = new ArrayList<>();
+
+        PDFMergeService service = service(cache, events);
+        assertTrue(service.execute(List.of(first, locked, last), outputDir()));
+
+        assertEquals(List.of("start first.pdf", "finish first.pdf true", "start locked.pdf",
+                "finish locked.pdf false", "start last.pdf", "finish last.pdf true"), sorted(events));
+        PdfMetadataCache.PdfFileInfo info = cache.lookup(locked);
+        assertNotNull(info, "skipped file was not recorded");
+        assertTrue(info.isEncrypted());
+        try (PDDocument merged = Loader.loadPDF(mergedFile())) {
+            assertEquals(3, merged.getNumberOfPages());
+        }
+    }
+
+    @Test
+    void tooFewOpenableSourcesFinishEveryStartedFile() throws IOException {
+        File first = createPdf("first.pdf", 1, null);
+        File locked = createPdf("locked.pdf", 1, "secret");
+        List<String> events = new ArrayList<>();
+
+        assertFalse(service(null, events).execute(List.of(first, locked), outputDir()));
+        assertEquals(List.of("start first.pdf", "finish first.pdf false", "start locked.pdf",
+                "finish locked.pdf false"), sorted(events));
+    }
+
+    @Test
+    void encryptedSourceWithPasswordIsMergedDecrypted() throws IOException {
+        File first = createPdf("first.pdf", 1, null);
+        File locked = createPdf("locked.pdf", 2, "secret");
+        PDFMergeService service = service(null, new ArrayList<>());
+        service.setFilePasswords(Map.of(locked, "secret"));
+
+        assertTrue(service.execute(List.of(first, locked), outputDir()));
+        try (PDDocument merged = Loader.loadPDF(mergedFile())) {
+            assertEquals(3, merged.getNumberOfPages());
+            assertFalse(merged.isEncrypted(), "merged file should not be encrypted");
+        }
+    }
+
+    private PDFMergeService service(PdfMetadataCache cache, List<String> events) {
+        PDFMergeService service = new PDFMergeService();
+        service.setMetadataCache(cache);
+        service.setAdmissionController(null);
+        service.setProgressListener(new ProgressListener() {
+            @Override
+            public void fileStarted(File file) {
+                events.add("start " + file.getName());
+            }
+
+            @Override
+            public void fileFinished(File file, boolean success) {
+                events.add("finish " + file.getName() + " " + success);
+            }
+        });
+        return service;
+    }
+
+    /**
+     * Group each file's events together in input order, keeping their own
+     * order, so that a finish without a matching start shows up
+     */
+    private static List<String> sorted(List<String> events) {
+        List<String> names = new ArrayList<>();
+        for (String event : events) {
+            String name = event.split(" ")[1];
+            if (!names.contains(name)) {
+                names.add(name);
+            }
+        }
+        List<String> grouped = new ArrayList<>();
+        for (String name : names) {
+            for (String event : events) {
+                if (event.split(" ")[1].equals(name)) {
+                    grouped.add(event);
+                }
+            }
+        }
+        return grouped;
+    }
+
+    private String outputDir() {
+        return tempDir.resolve("out").toFile().getAbsolutePath();
+    }
+
+    private File mergedFile() {
+        File[] merged = tempDir.resolve("out").toFile().listFiles((dir, name) -> name.startsWith("merged_"));
+        assertNotNull(merged);
+        assertEquals(1, merged.length);
+        return merged[0];
+    }
+
+    private File createPdf(String name, int pages, String userPassword) throws IOException {
+        File file = tempDir.resolve(name).toFile();
+        try (PDDocument doc = new PDDocument()) {
+            for (int i = 0; i < pages; i++) {
+                doc.addPage(new PDPage());
+            }
+            if (userPassword != null) {
+                StandardProtectionPolicy policy = new StandardProtectionPolicy("owner", userPassword,
+                        new AccessPermission());
+                policy.setEncryptionKeyLength(128);
+                doc.protect(policy);
+            }
+            doc.save(file);
+        }
+        return file;
+    }
+}
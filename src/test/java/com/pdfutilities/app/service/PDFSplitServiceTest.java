@@ -0,0 +1,414 @@
+package com.pdfutilities.app.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDNumberTreeNode;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.documentinterchange.logicalstructure.PDMarkInfo;
+import org.apache.pdfbox.pdmodel.documentinterchange.logicalstructure.PDParentTreeValue;
+import org.apache.pdfbox.pdmodel.documentinterchange.logicalstructure.PDStructureElement;
+import org.apache.pdfbox.pdmodel.documentinterchange.logicalstructure.PDStructureTreeRoot;
+import org.apache.pdfbox.pdmodel.documentinterchange.markedcontent.PDPropertyList;
+import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
+import org.apache.pdfbox.pdmodel.encryption.StandardProtectionPolicy;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationLink;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationSquare;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageFitDestination;
+import org.apache.pdfbox.util.Matrix;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PDFSplitServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private File outputDir;
+
+    @BeforeEach
+    void createOutputDir() {
+        outputDir = tempDir.resolve("out").toFile();
+        outputDir.mkdirs();
+    }
+
+    @Test
+    void linkToAPageInTheSameChunkKeepsItsTarget() throws IOException {
+        File source = documentWithLink(3);
+        split(source, PDFSplitService.SplitMode.CUSTOM_RANGE, "1-3");
+
+        try (PDDocument out = Loader.loadPDF(new File(outputDir, "doc-1.pdf"))) {
+            assertEquals(3, out.getNumberOfPages());
+            assertEquals(1, linkTargetIndex(out));
+        }
+    }
+
+    @Test
+    void linkLeavingAChunkIsClearedWithoutAffectingLaterChunks() throws IOException {
+        File source = documentWithLink(3);
+        // The same source page is exported twice from one open document
+        split(source, PDFSplitService.SplitMode.CUSTOM_RANGE, "1,1-2");
+
+        try (PDDocument first = Loader.loadPDF(new File(outputDir, "doc-1.pdf"))) {
+            assertEquals(1, first.getNumberOfPages());
+            assertNull(linkDestination(first).getPage());
+        }
+        try (PDDocument second = Loader.loadPDF(new File(outputDir, "doc-2.pdf"))) {
+            assertEquals(2, second.getNumberOfPages());
+            assertEquals(1, linkTargetIndex(second));
+            // The annotation belongs to the output page, not the source
+            PDAnnotationLink link = (PDAnnotationLink) second.getPage(0).getAnnotations().get(0);
+            assertEquals(second.getPage(0).getCOSObject(), link.getPage().getCOSObject());
+        }
+    }
+
+    @Test
+    void everyPageSplitKeepsTheStructureTree() throws IOException {
+        File source = taggedDocument(3);
+        split(source, PDFSplitService.SplitMode.EVERY_PAGE, null);
+
+        for (int i = 1; i <= 3; i++) {
+            try (PDDocument out = Loader.loadPDF(new File(outputDir, "doc-" + i + ".pdf"))) {
+                assertEquals(1, out.getNumberOfPages());
+                PDStructureTreeRoot root = out.getDocumentCatalog().getStructureTreeRoot();
+                assertNotNull(root, "page " + i + " lost its structure tree");
+                assertEquals(1, root.getKids().size());
+                assertTrue(out.getDocumentCatalog().getMarkInfo().isMarked());
+            }
+        }
+    }
+
+    @Test
+    void parallelWritersKeepPageOrderAndReleaseTheirReservations() throws IOException {
+        File source = documentWithLink(5);
+        MemoryAdmissionController controller = new MemoryAdmissionController(Long.MAX_VALUE / 4);
+        PDFSplitService service = service(PDFSplitService.SplitMode.CUSTOM_RANGE);
+        service.setAdmissionController(controller);
+        service.setWriteParallelism(3);
+        service.setCustomRange("1-2,3,4-5");
+        assertTrue(service.execute(List.of(source), outputDir.getAbsolutePath()));
+
+        assertEquals(0, controller.getAdmittedBytes());
+        int[] expected = { 2, 1, 2 };
+        for (int i = 0; i < expected.length; i++) {
+            try (PDDocument out = Loader.loadPDF(new File(outputDir, "doc-" + (i + 1) + ".pdf"))) {
+                assertEquals(expected[i], out.getNumberOfPages());
+            }
+        }
+    }
+
+    @Test
+    void copiesThatDoNotFitTheBudgetAreNotOpened() throws IOException {
+        File source = documentWithLink(4);
+        MemoryAdmissionController controller = new MemoryAdmissionController(1);
+        assertEquals(1, controller.tryAcquire(1));
+        assertEquals(-1, controller.tryAcquire(1));
+        controller.release(1);
+
+        PDFSplitService service = service(PDFSplitService.SplitMode.EVERY_PAGE);
+        service.setAdmissionController(controller);
+        service.setWriteParallelism(4);
+        assertTrue(service.execute(List.of(source), outputDir.getAbsolutePath()));
+        assertEquals(0, controller.getAdmittedBytes());
+        for (int i = 1; i <= 4; i++) {
+            assertTrue(new File(outputDir, "doc-" + i + ".pdf").isFile());
+        }
+    }
+
+    @Test
+    void parallelSizeBasedSplitLeavesNoPartFiles() throws IOException {
+        File source = documentWithLink(6);
+        PDFSplitService service = service(PDFSplitService.SplitMode.SIZE_BASED);
+        service.setWriteParallelism(3);
+        service.setMaxSizeInBytes(1);
+        assertTrue(service.execute(List.of(source), outputDir.getAbsolutePath()));
+
+        String[] names = outputDir.list();
+        assertEquals(6, names.length);
+        for (String name : names) {
+            assertFalse(name.endsWith(".part"), name);
+        }
+    }
+
+    @Test
+    void chunkEndCountsSharedObjectsOnce() {
+        // Five pages of 100 own bytes each, all using one 1000-byte object
+        List<Map<COSBase, Long>> footprints = sharedFootprints(5, 100, 1000);
+        long allPages = PageFootprintEstimator.DOCUMENT_OVERHEAD_BYTES + 1000 + 5 * 100;
+        assertEquals(1000 + 5 * 100, PDFSplitService.estimateChunk(footprints, 0, 5));
+        assertEquals(5, PDFSplitService.chunkEnd(footprints, 0, 5, 1.0, allPages));
+        assertEquals(4, PDFSplitService.chunkEnd(footprints, 0, 5, 1.0, allPages - 1));
+        assertEquals(5, PDFSplitService.chunkEnd(footprints, 2, 5, 1.0, allPages));
+    }
+
+    @Test
+    void chunkEndScalesPageBytesButNotTheOverhead() {
+        List<Map<COSBase, Long>> footprints = sharedFootprints(5, 100, 1000);
+        long limit = PageFootprintEstimator.DOCUMENT_OVERHEAD_BYTES + 2 * (1000 + 2 * 100);
+        assertEquals(2, PDFSplitService.chunkEnd(footprints, 0, 5, 2.0, limit));
+        // The first page is always taken, even past the limit
+        assertEquals(1, PDFSplitService.chunkEnd(footprints, 0, 5, 1.0, 1));
+    }
+
+    @Test
+    void calibrationInvertsThePrediction() {
+        long pageBytes = 5000;
+        double ratio = PDFSplitService.calibrate(PDFSplitService.predictSize(pageBytes, 1.5), pageBytes);
+        assertEquals(1.5, ratio, 1e-3);
+        assertEquals(0.05, PDFSplitService.calibrate(0, pageBytes), 1e-9);
+    }
+
+    @Test
+    void sequentialSizeBasedSplitWritesEveryPageOnce() throws IOException {
+        File source = documentWithLink(6);
+        PDFSplitService service = service(PDFSplitService.SplitMode.SIZE_BASED);
+        service.setMaxSizeInBytes(1);
+        assertTrue(service.execute(List.of(source), outputDir.getAbsolutePath()));
+        assertEquals(6, outputDir.list().length);
+    }
+
+    @Test
+    void fileOpenableWithoutPasswordButEncryptedIsSkippedOnce() throws IOException {
+        File source = tempDir.resolve("owner-only.pdf").toFile();
+        try (PDDocument doc = new PDDocument()) {
+            doc.addPage(new PDPage());
+            // Empty user password: the file opens, but is still encrypted
+            doc.protect(new StandardProtectionPolicy("owner", "", new AccessPermission()));
+            doc.save(source);
+        }
+        PdfMetadataCache cache = new PdfMetadataCache(tempDir.resolve("cache.properties"), 10);
+        PDFSplitService service = service(PDFSplitService.SplitMode.EVERY_PAGE);
+        service.setMetadataCache(cache);
+
+        assertFalse(service.execute(List.of(source), outputDir.getAbsolutePath()));
+        assertEquals(0, outputDir.list().length);
+        PdfMetadataCache.PdfFileInfo info = cache.lookup(source);
+        assertNotNull(info);
+        assertTrue(info.isEncrypted());
+        // Recorded as skipped, not through the opened document
+        assertEquals(-1, info.getPageCount());
+    }
+
+    @Test
+    void imageDrawnOnlyByAType3GlyphIsKept() throws IOException {
+        File source = documentWithInheritingStream((doc, page) -> {
+            COSDictionary charProcs = new COSDictionary();
+            charProcs.setItem(COSName.A, stream(doc, "10 0 0 0 10 10 d1 q 10 0 0 10 0 0 cm /Used Do Q"));
+            COSArray differences = new COSArray();
+            differences.add(COSInteger.get('a'));
+            differences.add(COSName.A);
+            COSDictionary encoding = new COSDictionary();
+            encoding.setItem(COSName.DIFFERENCES, differences);
+            COSArray widths = new COSArray();
+            widths.add(COSInteger.get(10));
+            COSDictionary font = new COSDictionary();
+            font.setItem(COSName.TYPE, COSName.FONT);
+            font.setItem(COSName.SUBTYPE, COSName.TYPE3);
+            font.setItem(COSName.FONT_BBOX, new PDRectangle(0, 0, 10, 10));
+            font.setItem(COSName.FONT_MATRIX, new Matrix().toCOSArray());
+            font.setItem(COSName.CHAR_PROCS, charProcs);
+            font.setItem(COSName.ENCODING, encoding);
+            font.setInt(COSName.FIRST_CHAR, 'a');
+            font.setInt(COSName.LAST_CHAR, 'a');
+            font.setItem(COSName.WIDTHS, widths);
+            COSDictionary fonts = new COSDictionary();
+            fonts.setItem(COSName.getPDFName("F1"), font);
+            page.getResources().getCOSObject().setItem(COSName.FONT, fonts);
+            page.getCOSObject().setItem(COSName.CONTENTS, stream(doc, "BT /F1 1 Tf 100 100 Td (a) Tj ET"));
+        });
+        split(source, PDFSplitService.SplitMode.EVERY_PAGE, null);
+
+        assertKeepsOnlyTheUsedImage(new File(outputDir, "doc-1.pdf"));
+    }
+
+    @Test
+    void imageDrawnOnlyByAnAppearanceWithoutResourcesIsKept() throws IOException {
+        File source = documentWithInheritingStream((doc, page) -> {
+            COSStream appearance = stream(doc, "q 10 0 0 10 0 0 cm /Used Do Q");
+            appearance.setItem(COSName.TYPE, COSName.XOBJECT);
+            appearance.setItem(COSName.SUBTYPE, COSName.FORM);
+            appearance.setItem(COSName.BBOX, new PDRectangle(0, 0, 10, 10));
+            PDAnnotationSquare square = new PDAnnotationSquare();
+            square.setRectangle(new PDRectangle(100, 100, 10, 10));
+            COSDictionary appearances = new COSDictionary();
+            appearances.setItem(COSName.N, appearance);
+            square.getCOSObject().setItem(COSName.AP, appearances);
+            page.getAnnotations().add(square);
+        });
+        split(source, PDFSplitService.SplitMode.EVERY_PAGE, null);
+
+        assertKeepsOnlyTheUsedImage(new File(outputDir, "doc-1.pdf"));
+    }
+
+    private void split(File source, PDFSplitService.SplitMode mode, String range) {
+        PDFSplitService service = service(mode);
+        if (range != null) {
+            service.setCustomRange(range);
+        }
+        assertTrue(service.execute(List.of(source), outputDir.getAbsolutePath()));
+    }
+
+    private static PDFSplitService service(PDFSplitService.SplitMode mode) {
+        PDFSplitService service = new PDFSplitService(mode);
+        service.setMetadataCache(null);
+        service.setAdmissionController(null);
+        return service;
+    }
+
+    private static List<Map<COSBase, Long>> sharedFootprints(int pages, long ownBytes, long sharedBytes) {
+        COSDictionary shared = new COSDictionary();
+        List<Map<COSBase, Long>> footprints = new ArrayList<>(pages);
+        for (int p = 0; p < pages; p++) {
+            Map<COSBase, Long> footprint = new IdentityHashMap<>();
+            footprint.put(new COSDictionary(), ownBytes);
+            footprint.put(shared, sharedBytes);
+            footprints.add(footprint);
+        }
+        return footprints;
+    }
+
+    /**
+     * Pages with a link on the first page pointing to the second
+     */
+    private File documentWithLink(int pages) throws IOException {
+        File file = tempDir.resolve("doc.pdf").toFile();
+        try (PDDocument doc = new PDDocument()) {
+            for (int i = 0; i < pages; i++) {
+                doc.addPage(new PDPage());
+            }
+            PDPageFitDestination destination = new PDPageFitDestination();
+            destination.setPage(doc.getPage(1));
+            PDAnnotationLink link = new PDAnnotationLink();
+            link.setRectangle(new PDRectangle(10, 10, 100, 20));
+            link.setDestination(destination);
+            link.setPage(doc.getPage(0));
+            doc.getPage(0).getAnnotations().add(link);
+            doc.save(file);
+        }
+        return file;
+    }
+
+    /**
+     * Pages with one marked-content paragraph each, referenced from the
+     * structure tree
+     */
+    private File taggedDocument(int pages) throws IOException {
+        File file = tempDir.resolve("doc.pdf").toFile();
+        try (PDDocument doc = new PDDocument()) {
+            PDStructureTreeRoot root = new PDStructureTreeRoot();
+            doc.getDocumentCatalog().setStructureTreeRoot(root);
+            PDMarkInfo markInfo = new PDMarkInfo();
+            markInfo.setMarked(true);
+            doc.getDocumentCatalog().setMarkInfo(markInfo);
+            COSArray nums = new COSArray();
+            for (int i = 0; i < pages; i++) {
+                PDPage page = new PDPage();
+                doc.addPage(page);
+                page.setStructParents(i);
+                try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                    COSDictionary mcid = new COSDictionary();
+                    mcid.setInt(COSName.MCID, 0);
+                    cs.beginMarkedContent(COSName.P, PDPropertyList.create(mcid));
+                    cs.addRect(10, 10, 50, 50);
+                    cs.fill();
+                    cs.endMarkedContent();
+                }
+                PDStructureElement paragraph = new PDStructureElement("P", root);
+                paragraph.setPage(page);
+                paragraph.getCOSObject().setInt(COSName.K, 0);
+                root.appendKid(paragraph);
+                COSArray parents = new COSArray();
+                parents.add(paragraph);
+                nums.add(COSInteger.get(i));
+                nums.add(parents);
+            }
+            COSDictionary parentTree = new COSDictionary();
+            parentTree.setItem(COSName.NUMS, nums);
+            root.setParentTree(new PDNumberTreeNode(parentTree, PDParentTreeValue.class));
+            root.setParentTreeNextKey(pages);
+            doc.save(file);
+        }
+        return file;
+    }
+
+    /**
+     * One page listing the images /Used and /Unused, where /Used is drawn only
+     * by a stream the caller adds, which has no resources of its own
+     */
+    private File documentWithInheritingStream(PageSetup setup) throws IOException {
+        File file = tempDir.resolve("doc.pdf").toFile();
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = new PDPage();
+            doc.addPage(page);
+            PDResources resources = new PDResources();
+            BufferedImage pixels = new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB);
+            resources.put(COSName.getPDFName("Used"), LosslessFactory.createFromImage(doc, pixels));
+            resources.put(COSName.getPDFName("Unused"), LosslessFactory.createFromImage(doc, pixels));
+            page.setResources(resources);
+            setup.apply(doc, page);
+            doc.save(file);
+        }
+        return file;
+    }
+
+    @FunctionalInterface
+    private interface PageSetup {
+        void apply(PDDocument doc, PDPage page) throws IOException;
+    }
+
+    private static COSStream stream(PDDocument doc, String content) throws IOException {
+        COSStream stream = doc.getDocument().createCOSStream();
+        try (OutputStream out = stream.createOutputStream()) {
+            out.write(content.getBytes(StandardCharsets.US_ASCII));
+        }
+        return stream;
+    }
+
+    private static void assertKeepsOnlyTheUsedImage(File output) throws IOException {
+        try (PDDocument out = Loader.loadPDF(output)) {
+            PDResources resources = out.getPage(0).getResources();
+            assertTrue(resources.isImageXObject(COSName.getPDFName("Used")), "inherited image was pruned");
+            assertFalse(resources.getCOSObject().getCOSDictionary(COSName.XOBJECT)
+                    .containsKey(COSName.getPDFName("Unused")));
+        }
+    }
+
+    private static PDPageDestination linkDestination(PDDocument doc) throws IOException {
+        PDAnnotationLink link = (PDAnnotationLink) doc.getPage(0).getAnnotations().get(0);
+        return (PDPageDestination) link.getDestination();
+    }
+
+    private static int linkTargetIndex(PDDocument doc) throws IOException {
+        PDPage target = linkDestination(doc).getPage();
+        assertNotNull(target);
+        return doc.getPages().indexOf(target);
+    }
+}
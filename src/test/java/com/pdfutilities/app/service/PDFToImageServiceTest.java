@@ -0,0 +1,115 @@
+package com.pdfutilities.app.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PDFToImageServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void parallelRenderingWritesEveryPageAndReleasesItsCopies() throws IOException {
+        MemoryAdmissionController controller = new MemoryAdmissionController(Long.MAX_VALUE / 4);
+        File outputDir = render(controller, 5);
+        assertEquals(0, controller.getAdmittedBytes());
+        for (int page = 1; page <= 5; page++) {
+            assertTrue(new File(outputDir, "doc_page_" + page + ".png").isFile(), "page " + page);
+        }
+    }
+
+    @Test
+    void copiesThatDoNotFitTheBudgetFallBackToOneWorker() throws IOException {
+        // The file's own reservation fills the budget, so no copy is admitted
+        MemoryAdmissionController controller = new MemoryAdmissionController(1);
+        File outputDir = render(controller, 3);
+        assertEquals(0, controller.getAdmittedBytes());
+        assertEquals(3, outputDir.list().length);
+    }
+
+    @Test
+    void streamedCombinedPngMatchesAnInMemoryRender() throws IOException {
+        File source = tempDir.resolve("doc.pdf").toFile();
+        float[][] sizes = { { 144, 100 }, { 96, 144 }, { 144, 72 } };
+        try (PDDocument doc = new PDDocument()) {
+            for (int i = 0; i < sizes.length; i++) {
+                PDPage page = new PDPage(new PDRectangle(sizes[i][0], sizes[i][1]));
+                doc.addPage(page);
+                try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                    cs.setNonStrokingColor(i == 0 ? 1f : 0f, i == 1 ? 0.6f : 0.2f, i == 2 ? 1f : 0.3f);
+                    cs.addRect(10, 10, sizes[i][0] - 30, sizes[i][1] - 20);
+                    cs.fill();
+                }
+            }
+            doc.save(source);
+        }
+        File outputDir = tempDir.resolve("out").toFile();
+        PDFToImageService service = new PDFToImageService(PDFToImageService.ImageFormat.PNG, 72,
+                PDFToImageService.ColorMode.COLOR, false);
+        service.setMetadataCache(null);
+        service.setAdmissionController(null);
+        assertTrue(service.execute(List.of(source), outputDir.getAbsolutePath()));
+
+        // Pages stacked top to bottom, narrower ones padded with white on the right
+        BufferedImage expected = new BufferedImage(144, 316, BufferedImage.TYPE_INT_RGB);
+        try (PDDocument doc = Loader.loadPDF(source)) {
+            PDFRenderer renderer = new PDFRenderer(doc);
+            Graphics2D g = expected.createGraphics();
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, expected.getWidth(), expected.getHeight());
+            int y = 0;
+            for (int page = 0; page < doc.getNumberOfPages(); page++) {
+                BufferedImage rendered = renderer.renderImageWithDPI(page, 72, ImageType.RGB);
+                g.drawImage(rendered, 0, y, null);
+                y += rendered.getHeight();
+            }
+            g.dispose();
+        }
+        BufferedImage actual = ImageIO.read(new File(outputDir, "doc_all.png"));
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y), "pixel " + x + "," + y);
+            }
+        }
+    }
+
+    private File render(MemoryAdmissionController controller, int pages) throws IOException {
+        File source = tempDir.resolve("doc.pdf").toFile();
+        try (PDDocument doc = new PDDocument()) {
+            for (int i = 0; i < pages; i++) {
+                doc.addPage(new PDPage(new PDRectangle(72, 72)));
+            }
+            doc.save(source);
+        }
+        File outputDir = tempDir.resolve("out").toFile();
+        PDFToImageService service = new PDFToImageService(PDFToImageService.ImageFormat.PNG, 36,
+                PDFToImageService.ColorMode.GRAYSCALE, true);
+        service.setMetadataCache(null);
+        service.setAdmissionController(controller);
+        service.setRenderParallelism(BasePDFService.AUTO_PARALLELISM);
+        assertTrue(service.execute(List.of(source), outputDir.getAbsolutePath()));
+        return outputDir;
+    }
+}
@@ -0,0 +1,127 @@
+package com.pdfutilities.app.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdfwriter.compress.CompressParameters;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.junit.jupiter.api.Test;
+
+class PageFootprintEstimatorTest {
+
+    @Test
+    void sharedImageIsCountedOncePerChunk() throws IOException {
+        try (PDDocument doc = reload(imagePages(3, true))) {
+            List<Map<COSBase, Long>> footprints = footprints(doc);
+            COSStream image = imageOf(doc.getPage(0));
+            assertTrue(footprints.get(1).containsKey(image));
+            long imageBytes = footprints.get(0).get(image);
+            assertTrue(imageBytes > 1000, "image should dominate the footprint");
+
+            long pagesAlone = 0;
+            for (int p = 0; p < 3; p++) {
+                pagesAlone += PDFSplitService.estimateChunk(footprints, p, p + 1);
+            }
+            assertEquals(pagesAlone - 2 * imageBytes, PDFSplitService.estimateChunk(footprints, 0, 3));
+        }
+    }
+
+    @Test
+    void separateImagesAreCountedPerPage() throws IOException {
+        try (PDDocument doc = reload(imagePages(3, false))) {
+            List<Map<COSBase, Long>> footprints = footprints(doc);
+            long pagesAlone = 0;
+            for (int p = 0; p < 3; p++) {
+                pagesAlone += PDFSplitService.estimateChunk(footprints, p, p + 1);
+            }
+            assertEquals(pagesAlone, PDFSplitService.estimateChunk(footprints, 0, 3));
+        }
+    }
+
+    @Test
+    void pageTreeAndOtherPagesAreNotFollowed() throws IOException {
+        try (PDDocument doc = reload(imagePages(2, false))) {
+            Map<COSBase, Long> first = PageFootprintEstimator.footprint(doc.getPage(0));
+            assertTrue(first.containsKey(doc.getPage(0).getCOSObject()));
+            assertFalse(first.containsKey(doc.getPage(1).getCOSObject()));
+            assertFalse(first.containsKey(doc.getPages().getCOSObject()));
+            assertFalse(first.containsKey(imageOf(doc.getPage(1))));
+        }
+    }
+
+    @Test
+    void streamSizeIncludesTheStoredLength() throws IOException {
+        try (PDDocument doc = reload(imagePages(1, false))) {
+            COSStream image = imageOf(doc.getPage(0));
+            long measured = PageFootprintEstimator.footprint(doc.getPage(0)).get(image);
+            assertTrue(measured > image.getLength());
+            assertTrue(measured < image.getLength() + 300, "dictionary syntax should be small: " + measured);
+        }
+    }
+
+    private static List<Map<COSBase, Long>> footprints(PDDocument doc) {
+        List<Map<COSBase, Long>> footprints = new ArrayList<>();
+        for (PDPage page : doc.getPages()) {
+            footprints.add(PageFootprintEstimator.footprint(page));
+        }
+        return footprints;
+    }
+
+    private static COSStream imageOf(PDPage page) throws IOException {
+        return page.getResources().getXObject(page.getResources().getXObjectNames().iterator().next())
+                .getCOSObject();
+    }
+
+    /**
+     * Pages each drawing a noisy image, either one image shared by all pages or
+     * one per page
+     */
+    private static byte[] imagePages(int pages, boolean shared) throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDImageXObject sharedImage = shared ? noise(doc, 0) : null;
+            for (int p = 0; p < pages; p++) {
+                PDPage page = new PDPage();
+                doc.addPage(page);
+                PDImageXObject image = shared ? sharedImage : noise(doc, p);
+                try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                    cs.drawImage(image, 10, 10, 100, 100);
+                }
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            doc.save(out, CompressParameters.NO_COMPRESSION);
+            return out.toByteArray();
+        }
+    }
+
+    private static PDImageXObject noise(PDDocument doc, int seed) throws IOException {
+        BufferedImage image = new BufferedImage(32, 32, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(seed);
+        for (int y = 0; y < 32; y++) {
+            for (int x = 0; x < 32; x++) {
+                image.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+        return LosslessFactory.createFromImage(doc, image);
+    }
+
+    private static PDDocument reload(byte[] pdf) throws IOException {
+        // Parsed documents hold indirect references, as split sources do
+        return Loader.loadPDF(pdf);
+    }
+}
@@ -0,0 +1,104 @@
+package com.pdfutilities.app.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PdfMetadataCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void leastRecentlyUsedEntryIsEvictedAtTheCap() throws IOException {
+        PdfMetadataCache cache = new PdfMetadataCache(cachePath(), 2);
+        File first = file("first.pdf");
+        File second = file("second.pdf");
+        File third = file("third.pdf");
+        cache.recordEncrypted(first);
+        cache.recordEncrypted(second);
+        // Using the first entry makes the second the least recently used
+        assertNotNull(cache.lookup(first));
+        cache.recordEncrypted(third);
+
+        assertNotNull(cache.lookup(first));
+        assertNull(cache.lookup(second));
+        assertNotNull(cache.lookup(third));
+
+        cache.setMaxEntries(1);
+        assertNull(cache.lookup(first));
+        assertNotNull(cache.lookup(third));
+    }
+
+    @Test
+    void entryIsDroppedWhenTheFileSizeChanges() throws IOException {
+        PdfMetadataCache cache = new PdfMetadataCache(cachePath(), 10);
+        File file = file("doc.pdf");
+        long modified = file.lastModified();
+        cache.recordEncrypted(file);
+
+        Files.write(file.toPath(), new byte[] { ' ' }, StandardOpenOption.APPEND);
+        assertTrue(file.setLastModified(modified));
+        assertNull(cache.lookup(file));
+    }
+
+    @Test
+    void entryIsDroppedWhenTheModificationTimeChanges() throws IOException {
+        PdfMetadataCache cache = new PdfMetadataCache(cachePath(), 10);
+        File file = file("doc.pdf");
+        cache.recordEncrypted(file);
+
+        assertTrue(file.setLastModified(file.lastModified() - 60_000));
+        assertNull(cache.lookup(file));
+    }
+
+    @Test
+    void savedEntriesAreLoadedByANewInstance() throws IOException {
+        File file = tempDir.resolve("doc.pdf").toFile();
+        PdfMetadataCache cache = new PdfMetadataCache(cachePath(), 10);
+        try (PDDocument doc = new PDDocument()) {
+            doc.addPage(new PDPage());
+            doc.addPage(new PDPage());
+            doc.getDocumentInformation().setTitle("Report");
+            doc.save(file);
+            cache.recordDocument(file, doc);
+        }
+        cache.save();
+
+        PdfMetadataCache.PdfFileInfo info = new PdfMetadataCache(cachePath(), 10).lookup(file);
+        assertNotNull(info);
+        assertFalse(info.isEncrypted());
+        assertEquals(2, info.getPageCount());
+        assertEquals("Report", info.getTitle());
+    }
+
+    @Test
+    void unchangedCacheIsNotWritten() {
+        PdfMetadataCache cache = new PdfMetadataCache(cachePath(), 10);
+        cache.save();
+        assertFalse(Files.exists(cachePath()));
+    }
+
+    private Path cachePath() {
+        return tempDir.resolve("cache").resolve("metadata.dat");
+    }
+
+    private File file(String name) throws IOException {
+        File file = tempDir.resolve(name).toFile();
+        Files.write(file.toPath(), "%PDF-1.7\n".getBytes());
+        return file;
+    }
+}
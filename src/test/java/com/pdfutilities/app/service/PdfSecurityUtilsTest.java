@@ -0,0 +1,168 @@
+package com.pdfutilities.app.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdfwriter.compress.CompressParameters;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
+import org.apache.pdfbox.pdmodel.encryption.InvalidPasswordException;
+import org.apache.pdfbox.pdmodel.encryption.StandardProtectionPolicy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.pdfutilities.app.service.PdfSecurityUtils.ProbeResult;
+
+class PdfSecurityUtilsTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void classicTrailerWithoutEncryptIsNotEncrypted() throws IOException {
+        File file = createPdf("plain.pdf", false, false);
+        assertEquals(ProbeResult.NOT_ENCRYPTED, PdfSecurityUtils.probeEncryption(file));
+        assertFalse(PdfSecurityUtils.isPasswordProtected(file));
+    }
+
+    @Test
+    void classicTrailerWithEncryptIsEncrypted() throws IOException {
+        File file = createPdf("encrypted.pdf", true, false);
+        assertEquals(ProbeResult.ENCRYPTED, PdfSecurityUtils.probeEncryption(file));
+        assertTrue(PdfSecurityUtils.isPasswordProtected(file));
+    }
+
+    @Test
+    void xrefStreamWithoutEncryptIsNotEncrypted() throws IOException {
+        File file = createPdf("plain-xref-stream.pdf", false, true);
+        assertTrue(contents(file).contains("/XRef"), "fixture should use a cross-reference stream");
+        assertEquals(ProbeResult.NOT_ENCRYPTED, PdfSecurityUtils.probeEncryption(file));
+    }
+
+    @Test
+    void xrefStreamWithEncryptIsEncrypted() throws IOException {
+        File file = createPdf("encrypted-xref-stream.pdf", true, true);
+        assertEquals(ProbeResult.ENCRYPTED, PdfSecurityUtils.probeEncryption(file));
+    }
+
+    @Test
+    void linearizedEncryptedFileIsEncrypted() throws IOException {
+        File file = linearize(createPdf("encrypted-source.pdf", true, false), "linearized-encrypted.pdf");
+        String text = contents(file);
+        assertTrue(text.contains("/Linearized"));
+        // The last trailer does not hold /Encrypt; the first-page one does
+        String lastTrailer = text.substring(text.lastIndexOf("trailer"));
+        assertFalse(lastTrailer.contains("/Encrypt"));
+
+        assertThrows(InvalidPasswordException.class, () -> Loader.loadPDF(file).close());
+        assertEquals(ProbeResult.ENCRYPTED, PdfSecurityUtils.probeEncryption(file));
+        assertTrue(PdfSecurityUtils.isPasswordProtected(file));
+    }
+
+    @Test
+    void linearizedPlainFileIsNotEncrypted() throws IOException {
+        File file = linearize(createPdf("plain-source.pdf", false, false), "linearized-plain.pdf");
+        try (PDDocument doc = Loader.loadPDF(file)) {
+            assertEquals(1, doc.getNumberOfPages());
+        }
+        assertEquals(ProbeResult.NOT_ENCRYPTED, PdfSecurityUtils.probeEncryption(file));
+    }
+
+    @Test
+    void fileWithoutStartxrefIsUnknown() throws IOException {
+        Path path = tempDir.resolve("broken.pdf");
+        Files.writeString(path, "%PDF-1.4\n1 0 obj\n<< /Type /Catalog >>\nendobj\n", StandardCharsets.ISO_8859_1);
+        assertEquals(ProbeResult.UNKNOWN, PdfSecurityUtils.probeEncryption(path.toFile()));
+    }
+
+    private File createPdf(String name, boolean encrypted, boolean xrefStream) throws IOException {
+        File file = tempDir.resolve(name).toFile();
+        try (PDDocument doc = new PDDocument()) {
+            doc.addPage(new PDPage());
+            if (encrypted) {
+                StandardProtectionPolicy policy = new StandardProtectionPolicy("owner", "user", new AccessPermission());
+                policy.setEncryptionKeyLength(128);
+                doc.protect(policy);
+            }
+            doc.save(file, xrefStream ? CompressParameters.DEFAULT_COMPRESSION : CompressParameters.NO_COMPRESSION);
+        }
+        return file;
+    }
+
+    /**
+     * Rewrite a file with a classic xref table into the layout of a linearized
+     * file: a linearization dictionary and a first-page xref section whose
+     * trailer holds /Root, /Encrypt and /Prev near the start, and a final
+     * trailer with only /Size whose startxref points back to that section
+     */
+    private File linearize(File source, String name) throws IOException {
+        String text = contents(source);
+        int mainXref = Integer.parseInt(lastMatch(text, "startxref\\s+(\\d+)"));
+        int trailer = text.lastIndexOf("trailer");
+        String trailerDict = text.substring(text.indexOf("<<", trailer), text.lastIndexOf(">>") + 2);
+        int size = Integer.parseInt(lastMatch(trailerDict, "/Size\\s+(\\d+)"));
+        int insertAt = text.indexOf(" 0 obj") - 1;
+        while (Character.isDigit(text.charAt(insertAt - 1)))
+            insertAt--;
+
+        String linearizationDict = size + " 0 obj\n<< /Linearized 1 >>\nendobj\n";
+        int firstSection = insertAt + linearizationDict.length();
+        // The /Prev placeholder has the width of the final value
+        String prevPlaceholder = "0000000000";
+        String firstPageTrailer = trailerDict.substring(0, trailerDict.length() - 2)
+                .replaceFirst("/Size\\s+\\d+", "/Size " + (size + 1)) + " /Prev " + prevPlaceholder + " >>";
+        String head = linearizationDict + "xref\n" + size + " 1\n" + String.format("%010d 00000 n\r\n", insertAt)
+                + "trailer\n" + firstPageTrailer + "\nstartxref\n0\n%EOF\n";
+        int delta = head.length();
+        head = head.replace(prevPlaceholder, String.format("%010d", mainXref + delta));
+
+        // Shift the offsets of the main xref table by the inserted bytes
+        StringBuilder main = new StringBuilder();
+        String table = text.substring(mainXref, trailer);
+        Matcher entry = Pattern.compile("(\\d{10}) (\\d{5}) n").matcher(table);
+        int last = 0;
+        while (entry.find()) {
+            main.append(table, last, entry.start());
+            main.append(String.format("%010d %s n", Long.parseLong(entry.group(1)) + delta, entry.group(2)));
+            last = entry.end();
+        }
+        main.append(table.substring(last));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(text.substring(0, insertAt).getBytes(StandardCharsets.ISO_8859_1));
+        out.writeBytes(head.getBytes(StandardCharsets.ISO_8859_1));
+        out.writeBytes(text.substring(insertAt, mainXref).getBytes(StandardCharsets.ISO_8859_1));
+        out.writeBytes(main.toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.writeBytes(("trailer\n<< /Size " + (size + 1) + " >>\nstartxref\n" + firstSection + "\n%EOF\n")
+                .getBytes(StandardCharsets.ISO_8859_1));
+        File file = tempDir.resolve(name).toFile();
+        Files.write(file.toPath(), out.toByteArray());
+        return file;
+    }
+
+    private static String lastMatch(String text, String regex) {
+        Matcher matcher = Pattern.compile(regex).matcher(text);
+        String found = null;
+        while (matcher.find()) {
+            found = matcher.group(1);
+        }
+        return found;
+    }
+
+    private static String contents(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,126 @@
+package com.pdfutilities.app.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class StreamingPngWriterTest {
+
+    private static final int WHITE = 0xFFFFFF;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void rowsWrittenInSeveralCallsRoundTrip() throws IOException {
+        BufferedImage source = gradient(7, 9);
+        File file = tempDir.resolve("rgb.png").toFile();
+        try (StreamingPngWriter png = new StreamingPngWriter(file, 7, 9, false)) {
+            png.writeRows(source, 0, 4);
+            png.writeRows(source, 4, 5);
+            png.finish();
+        }
+        BufferedImage read = ImageIO.read(file);
+        assertEquals(7, read.getWidth());
+        assertEquals(9, read.getHeight());
+        for (int y = 0; y < 9; y++) {
+            for (int x = 0; x < 7; x++) {
+                assertEquals(source.getRGB(x, y) & WHITE, read.getRGB(x, y) & WHITE, "pixel " + x + "," + y);
+            }
+        }
+    }
+
+    @Test
+    void grayscaleOutputStoresLuminance() throws IOException {
+        BufferedImage source = new BufferedImage(3, 2, BufferedImage.TYPE_BYTE_GRAY);
+        source.getRaster().setSamples(0, 0, 3, 2, 0, new int[] { 0, 50, 100, 150, 200, 255 });
+        File file = tempDir.resolve("gray.png").toFile();
+        try (StreamingPngWriter png = new StreamingPngWriter(file, 3, 2, true)) {
+            png.writeRows(source, 0, 2);
+            png.finish();
+        }
+        BufferedImage read = ImageIO.read(file);
+        assertEquals(1, read.getRaster().getNumBands());
+        assertEquals(150, read.getRaster().getSample(0, 1, 0));
+        assertEquals(255, read.getRaster().getSample(2, 1, 0));
+    }
+
+    @Test
+    void narrowImagesArePaddedAndWideImagesCropped() throws IOException {
+        BufferedImage narrow = solid(2, 1, 0x102030);
+        BufferedImage wide = solid(6, 1, 0x405060);
+        File file = tempDir.resolve("padded.png").toFile();
+        try (StreamingPngWriter png = new StreamingPngWriter(file, 4, 2, false)) {
+            png.writeRows(narrow, 0, 1);
+            png.writeRows(wide, 0, 1);
+            png.finish();
+        }
+        BufferedImage read = ImageIO.read(file);
+        assertEquals(0x102030, read.getRGB(1, 0) & WHITE);
+        assertEquals(WHITE, read.getRGB(2, 0) & WHITE);
+        assertEquals(0x405060, read.getRGB(3, 1) & WHITE);
+    }
+
+    @Test
+    void finishPadsMissingRowsWithWhite() throws IOException {
+        File file = tempDir.resolve("short.png").toFile();
+        try (StreamingPngWriter png = new StreamingPngWriter(file, 3, 4, false)) {
+            png.writeRows(solid(3, 1, 0), 0, 1);
+            png.finish();
+        }
+        BufferedImage read = ImageIO.read(file);
+        assertEquals(0, read.getRGB(0, 0) & WHITE);
+        assertEquals(WHITE, read.getRGB(2, 3) & WHITE);
+    }
+
+    @Test
+    void closingWithoutFinishDeletesThePartialFile() throws IOException {
+        File file = tempDir.resolve("aborted.png").toFile();
+        try (StreamingPngWriter png = new StreamingPngWriter(file, 3, 4, false)) {
+            png.writeRows(solid(3, 1, 0), 0, 1);
+            assertTrue(file.exists());
+        }
+        assertFalse(file.exists());
+    }
+
+    @Test
+    void writingPastTheHeightFails() throws IOException {
+        File file = tempDir.resolve("tall.png").toFile();
+        try (StreamingPngWriter png = new StreamingPngWriter(file, 2, 1, false)) {
+            png.writeRows(solid(2, 1, 0), 0, 1);
+            assertThrows(IOException.class, () -> png.writeBlankRows(1));
+        }
+        assertFalse(file.exists());
+    }
+
+    private static BufferedImage gradient(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 37 % 256) << 16 | (y * 29 % 256) << 8 | ((x + y) * 11 % 256));
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage solid(int width, int height, int rgb) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, rgb);
+            }
+        }
+        return image;
+    }
+}